@@ -0,0 +1,59 @@
+package webdata;
+
+/**
+ * A PostingIterator over (review id, frequency) pairs which are already held in two parallel primitive arrays,
+ * sorted by review id.
+ */
+public class ArrayPostingIterator extends PostingIterator {
+
+	/** The review ids, sorted **/
+	private int[] reviewIds;
+
+	/** The frequencies, reviewIds[i]'s frequency is frequencies[i] **/
+	private int[] frequencies;
+
+	/** The number of valid pairs in the arrays **/
+	private int size;
+
+	/** The index of the current pair **/
+	private int index;
+
+	/**
+	 * Constructor
+	 * @param reviewIds the review ids, sorted
+	 * @param frequencies the frequencies of each review id
+	 * @param size the number of valid pairs in the arrays
+	 */
+	public ArrayPostingIterator(int[] reviewIds, int[] frequencies, int size) {
+		this.reviewIds = reviewIds;
+		this.frequencies = frequencies;
+		this.size = size;
+		index = -1;
+	}
+
+	@Override
+	public int reviewId() {
+		if (index < 0) {
+			return -1;
+		}
+		return (index < size) ? reviewIds[index] : NO_MORE_REVIEWS;
+	}
+
+	@Override
+	public int frequency() {
+		return (index >= 0 && index < size) ? frequencies[index] : 0;
+	}
+
+	@Override
+	public int nextReview() {
+		if (index < size) {
+			++index;
+		}
+		return reviewId();
+	}
+
+	@Override
+	public int cost() {
+		return size;
+	}
+}
@@ -2,16 +2,28 @@ package webdata;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.HashSet;
 
 public class BigramIndex {
 
-    /** Holds the concatenated token ids list of all the bigrams */
-    private ByteBuffer tokenIdsBuffer;
+    /**
+     * The concatenated token ids lists of all the bigrams, mapped in segments of 2^SEGMENT_BITS bytes, since a
+     * single mapping can't be larger than 2GB. They're never read with their own position - readers decode a
+     * duplicate of them - so they can be shared between threads.
+     */
+    private ByteBuffer[] tokenIdsSegments;
 
-    /** Holds the bigram's pointers to the tokenIdsBuffer's positions, where each bigram's tokens ids list is. */
+    /** Holds the bigram's pointers to the tokens ids lists, where each bigram's tokens ids list is (write phase) */
     private long[] bigramPointers;
 
+    /**
+     * The mapped pointers table: NUM_OF_BIGRAMS + 1 longs, the i-th is the offset of the i-th bigram's tokens ids
+     * list, and the last one is the size of all the lists (read phase)
+     */
+    private ByteBuffer pointersTable;
+
+    /** The id of the last bigram whose pointer was set while writing the bigram lexicon **/
+    private int lastBigramId = -1;
+
     /** The input buffer **/
     private ByteBuffer bufferIn;
 
@@ -21,7 +33,10 @@ public class BigramIndex {
     /** The input file (the sorted and merged file of the pairs) **/
     private BufferedInputStream in;
 
-    /** the current pointer to the next bigram list in the tokenIdsBuffer while writing the bigram lexicon */
+    /**
+     * the current pointer to the next bigram list while writing the bigram lexicon, and the size of all the lists
+     * once it's written or read
+     */
     private long offset;
 
     /** The size of the bufferOutTokenIds buffer */
@@ -100,6 +115,7 @@ public class BigramIndex {
                 i++;
             }
             bigramPointers[i] = offset;
+            lastBigramId = i;
             int tokenId = bufferIn.getInt();
             int sum = tokenId;
             offset = SharedUtils.writeIntegerToDisc(tokenId, out, bufferOutTokenIds, offset);
@@ -126,39 +142,36 @@ public class BigramIndex {
 
 
     /**
-     * Write the bigram's pointers array to the disc
+     * Write the bigram's pointers table to the disc: the pointers of all the bigrams, as longs, followed by the size
+     * of all the lists. The bigrams after the last one which has a list get empty lists.
      * @param dir The index files' directory
      * @throws IOException
      */
     public void writeBigramPointersToDisc(String dir) throws IOException {
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(dir +
-                                                       File.separator +SharedUtils.BIGRAM_POINTERS_FILE));
-        objectOutputStream.writeLong(offset);
-        objectOutputStream.writeObject(bigramPointers);
-        objectOutputStream.close();
+        for (int i = lastBigramId + 1; i < SharedUtils.NUM_OF_BIGRAMS; ++i) {
+            bigramPointers[i] = offset;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((SharedUtils.NUM_OF_BIGRAMS + 1) * SharedUtils.SIZE_OF_LONG);
+        for (long pointer : bigramPointers) {
+            buffer.putLong(pointer);
+        }
+        buffer.putLong(offset);
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+                SharedUtils.BIGRAM_POINTERS_FILE));
+        out.write(buffer.array(), 0, buffer.position());
+        out.close();
     }
 
     /**
-     * Reads the bigram index from the disc
+     * Maps the bigram index from the disc. Nothing is read or copied, so it takes the same time for any index size.
      * @param dir The index files' directory
      * @throws IOException
-     * @throws ClassNotFoundException
      */
-    public void readBigramIndexFromDisc(String dir) throws IOException, ClassNotFoundException {
-        ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(dir +
-                File.separator +SharedUtils.BIGRAM_POINTERS_FILE));
-        offset = objectInputStream.readLong();
-        bigramPointers = (long[])objectInputStream.readObject();
-        objectInputStream.close();
-        int size = (int) offset;
-        byte[] localArray = new byte[size];
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(new FileInputStream(dir +
-                File.separator + SharedUtils.BIGRAM_INDEX_FILE));
-        bufferedInputStream.read(localArray, 0, size);
-        tokenIdsBuffer = ByteBuffer.allocate(size);
-        tokenIdsBuffer.position(0);
-        tokenIdsBuffer.put(localArray, 0, size);
-        bufferedInputStream.close();
+    public void readBigramIndexFromDisc(String dir) throws IOException {
+        pointersTable = SharedUtils.mapFile(dir + File.separator + SharedUtils.BIGRAM_POINTERS_FILE);
+        offset = pointersTable.getLong(SharedUtils.NUM_OF_BIGRAMS * SharedUtils.SIZE_OF_LONG);
+        tokenIdsSegments = SharedUtils.mapFileSegments(dir + File.separator + SharedUtils.BIGRAM_INDEX_FILE, offset,
+                SharedUtils.SEGMENT_BITS);
     }
 
 
@@ -179,28 +192,21 @@ public class BigramIndex {
         if (index >= SharedUtils.NUM_OF_BIGRAMS) {
             return offset;
         }
-        return bigramPointers[index];
+        return pointersTable.getLong(index * SharedUtils.SIZE_OF_LONG);
     }
 
     /**
-     * Gets a bigram's pointer to the tokens ids list, and size, and returns a HashSet of the tokens ids.
+     * Gets a bigram's pointer to the tokens ids list, and size, and returns the tokens ids.
      * @param ptr the pointer to the tokens ids list
      * @param size the size of the tokens ids list
-     * @return a HashSet of the tokens ids.
+     * @return the distinct tokens ids, sorted, in an array of exactly their number.
      */
-    public HashSet<Integer> readBigramTokensList(long ptr, int size) {
-        HashSet<Integer> tokensIndex = new HashSet<>();
-        tokenIdsBuffer.position((int)ptr);
-        int sum = 0;
-        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
-        byteBuffer.put(tokenIdsBuffer.array(), (int)ptr, size);
-        byteBuffer.position(0);
-        tokenIdsBuffer.position(0);
-        while (byteBuffer.hasRemaining()) {
-            Integer element = SharedUtils.readIntegerFromBuffer(byteBuffer) + sum;
-            sum = element;
-            tokensIndex.add(element);
+    public int[] readBigramTokensList(long ptr, int size) {
+        if (size <= 0) {
+            return new int[0];
         }
-        return tokensIndex;
+        // a token containing the bigram several times is listed once for each time, readIdsList skips the repeats
+        return SharedUtils.readIdsList(SharedUtils.getSegmentsBytes(tokenIdsSegments, SharedUtils.SEGMENT_BITS, ptr,
+                size));
     }
 }
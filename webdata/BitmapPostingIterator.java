@@ -0,0 +1,278 @@
+package webdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PostingIterator over a posting list which is written as a roaring-style bitmap (see
+ * InvertedIndex.writeBitmapPostingList): the review ids are split into containers by their high 16 bits, each
+ * container keeps their low 16 bits either as a bitmap or, if that's smaller, as a sorted array of shorts, and the
+ * frequencies follow in a bit-packed array in review id order. The list is decoded lazily, straight from its buffer.
+ */
+public class BitmapPostingIterator extends PostingIterator {
+
+	/** The size of a container's header: its key, its cardinality - 1 and its number of bitmap words **/
+	static final int CONTAINER_HEADER_SIZE = 6;
+
+	/** The encoded list, after its container count; only absolute gets are used **/
+	private ByteBuffer buffer;
+
+	/** The number of pairs in the posting list **/
+	private int size;
+
+	/** The number of containers **/
+	private int numOfContainers;
+
+	/** The high 16 bits of each container's review ids **/
+	private int[] keys;
+
+	/** The number of review ids in each container **/
+	private int[] cardinalities;
+
+	/** The number of bitmap words of each container, 0 for an array container **/
+	private int[] numOfWords;
+
+	/** The offset in the buffer of each container's data **/
+	private int[] offsets;
+
+	/** The number of review ids in the containers before each container **/
+	private int[] ranks;
+
+	/** The offset in the buffer of the packed frequencies **/
+	private int frequenciesOffset;
+
+	/** The number of bits of every packed frequency **/
+	private int bitWidth;
+
+	/** The index of the current container **/
+	private int container;
+
+	/** The index in an array container of its current review id **/
+	private int arrayIndex;
+
+	/** The index in a bitmap container of its current word **/
+	private int wordIndex;
+
+	/** The bits of the current word which weren't visited yet **/
+	private long word;
+
+	/** The number of pairs which were visited or skipped so far (the current pair's index + 1) **/
+	private int numOfVisited;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/**
+	 * Constructor
+	 * @param buffer a ByteBuffer positioned at the beginning of the encoded posting list (after its size)
+	 * @param size the number of (review id, frequency) pairs in the posting list
+	 */
+	public BitmapPostingIterator(ByteBuffer buffer, int size) {
+		this.buffer = buffer.slice();
+		this.size = size;
+		numOfContainers = this.buffer.getInt(0);
+		keys = new int[numOfContainers];
+		cardinalities = new int[numOfContainers];
+		numOfWords = new int[numOfContainers];
+		offsets = new int[numOfContainers];
+		ranks = new int[numOfContainers];
+		int offset = SharedUtils.SIZE_OF_INT + numOfContainers * CONTAINER_HEADER_SIZE;
+		int rank = 0;
+		for (int i = 0; i < numOfContainers; ++i) {
+			int header = SharedUtils.SIZE_OF_INT + i * CONTAINER_HEADER_SIZE;
+			keys[i] = this.buffer.getShort(header) & 0xFFFF;
+			cardinalities[i] = (this.buffer.getShort(header + 2) & 0xFFFF) + 1;
+			numOfWords[i] = this.buffer.getShort(header + 4) & 0xFFFF;
+			offsets[i] = offset;
+			ranks[i] = rank;
+			offset += (numOfWords[i] > 0) ? numOfWords[i] * SharedUtils.SIZE_OF_LONG : cardinalities[i] * 2;
+			rank += cardinalities[i];
+		}
+		bitWidth = this.buffer.get(offset);
+		frequenciesOffset = offset + 1;
+		reviewId = -1;
+		numOfVisited = 0;
+		enterContainer(0);
+	}
+
+	/**
+	 * Positions the cursor before the first review id of a container
+	 * @param index the container's index
+	 */
+	private void enterContainer(int index) {
+		container = index;
+		arrayIndex = -1;
+		wordIndex = -1;
+		word = 0;
+		if (index < numOfContainers) {
+			numOfVisited = ranks[index];
+		}
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		if (reviewId < 0 || reviewId == NO_MORE_REVIEWS) {
+			return 0;
+		}
+		return getFrequency(numOfVisited - 1);
+	}
+
+	@Override
+	public int nextReview() {
+		while (container < numOfContainers) {
+			int low = nextInContainer();
+			if (low >= 0) {
+				++numOfVisited;
+				reviewId = (keys[container] << 16) | low;
+				return reviewId;
+			}
+			enterContainer(container + 1);
+		}
+		reviewId = NO_MORE_REVIEWS;
+		return reviewId;
+	}
+
+	/**
+	 * Moves the cursor to the next review id of the current container
+	 * @return the low 16 bits of the review id, -1 if the container is exhausted
+	 */
+	private int nextInContainer() {
+		if (numOfWords[container] == 0) {
+			if (++arrayIndex >= cardinalities[container]) {
+				return -1;
+			}
+			return buffer.getShort(offsets[container] + 2 * arrayIndex) & 0xFFFF;
+		}
+		while (word == 0) {
+			if (++wordIndex >= numOfWords[container]) {
+				return -1;
+			}
+			word = getWord(wordIndex);
+		}
+		int bit = Long.numberOfTrailingZeros(word);
+		word &= word - 1;
+		return (wordIndex << 6) | bit;
+	}
+
+	@Override
+	public int advance(int target) {
+		if (reviewId >= target) {
+			return reviewId;
+		}
+		int targetKey = target >>> 16;
+		if (container < numOfContainers && keys[container] < targetKey) {
+			int index = container + 1;
+			while (index < numOfContainers && keys[index] < targetKey) {
+				++index;
+			}
+			enterContainer(index);
+		}
+		if (container >= numOfContainers || keys[container] > targetKey) {
+			return nextReview();
+		}
+		int low = target & 0xFFFF;
+		if (numOfWords[container] == 0) {
+			// binary search for the first review id which is at least target, after the current one
+			int from = arrayIndex + 1;
+			int to = cardinalities[container];
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if ((buffer.getShort(offsets[container] + 2 * mid) & 0xFFFF) < low) {
+					from = mid + 1;
+				}
+				else {
+					to = mid;
+				}
+			}
+			numOfVisited += from - (arrayIndex + 1);
+			arrayIndex = from - 1;
+		}
+		else {
+			// skip whole words, counting their bits so the frequencies stay aligned
+			int targetWord = low >>> 6;
+			if (targetWord >= numOfWords[container]) {
+				targetWord = numOfWords[container];
+			}
+			if (targetWord > wordIndex) {
+				numOfVisited += Long.bitCount(word);
+				for (int i = Math.max(wordIndex + 1, 0); i < targetWord; ++i) {
+					numOfVisited += Long.bitCount(getWord(i));
+				}
+				wordIndex = targetWord;
+				word = (targetWord < numOfWords[container]) ? getWord(targetWord) : 0;
+			}
+			if (wordIndex == low >>> 6) {
+				long skipped = word & ((1L << (low & 63)) - 1);
+				numOfVisited += Long.bitCount(skipped);
+				word &= ~skipped;
+			}
+		}
+		return nextReview();
+	}
+
+	@Override
+	public int cost() {
+		return size;
+	}
+
+	/**
+	 * ORs the review ids of the whole list into a bitmap of review ids, and adds their frequencies - for merging
+	 * dense lists. The bitmap containers are ORed word by word.
+	 * @param bitmap a bit per review id
+	 * @param frequencies the summed frequencies by review id
+	 */
+	public void orInto(long[] bitmap, int[] frequencies) {
+		for (int c = 0; c < numOfContainers; ++c) {
+			int base = keys[c] << 16;
+			int rank = ranks[c];
+			if (numOfWords[c] == 0) {
+				for (int i = 0; i < cardinalities[c]; ++i) {
+					int id = base | (buffer.getShort(offsets[c] + 2 * i) & 0xFFFF);
+					bitmap[id >>> 6] |= 1L << id;
+					frequencies[id] += getFrequency(rank++);
+				}
+				continue;
+			}
+			for (int w = 0; w < numOfWords[c]; ++w) {
+				long bits = buffer.getLong(offsets[c] + w * SharedUtils.SIZE_OF_LONG);
+				bitmap[(base >>> 6) + w] |= bits;
+				while (bits != 0) {
+					int id = base | (w << 6) | Long.numberOfTrailingZeros(bits);
+					frequencies[id] += getFrequency(rank++);
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param index a word's index in the current (bitmap) container
+	 * @return the word
+	 */
+	private long getWord(int index) {
+		return buffer.getLong(offsets[container] + index * SharedUtils.SIZE_OF_LONG);
+	}
+
+	/**
+	 * Unpacks a frequency from the packed array, where every frequency - 1 takes bitWidth bits
+	 * @param index the index of the pair in the list
+	 * @return the pair's frequency
+	 */
+	private int getFrequency(int index) {
+		if (bitWidth == 0) {
+			return 1;
+		}
+		long bitOffset = (long)index * bitWidth;
+		int wordOffset = frequenciesOffset + (int)(bitOffset >>> 6) * SharedUtils.SIZE_OF_LONG;
+		int shift = (int)(bitOffset & 63);
+		long value = buffer.getLong(wordOffset) >>> shift;
+		if (shift + bitWidth > 64) {
+			value |= buffer.getLong(wordOffset + SharedUtils.SIZE_OF_LONG) << (64 - shift);
+		}
+		return (int)(value & ((1L << bitWidth) - 1)) + 1;
+	}
+}
@@ -0,0 +1,479 @@
+package webdata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A parsed Boolean query, such as "battery AND life NOT charger" or "(cheap OR inexpensive) AND coffee". The
+ * operators are the upper case words AND, OR and NOT, and parentheses group; adjacent terms are ANDed, AND binds
+ * tighter than OR, and NOT excludes its operand from the AND group it's in. Any other word is a term, which may have
+ * wildcards. Quotes make a phrase, such as "\"battery life\"", and a phrase followed by ~N, such as
+ * "\"battery charger\"~3", matches with up to N extra tokens between its first and last terms. The parser is lenient
+ * rather than strict: unmatched parentheses and operators without operands are ignored, an unclosed quote closes at
+ * the end of the query, and a query without terms matches nothing.
+ * A query is evaluated as a tree of PostingIterators: an AND is a ConjunctionPostingIterator led by its rarest list,
+ * an OR is a MergedPostingIterator, a NOT is an ExclusionPostingIterator and a phrase is a PhrasePostingIterator -
+ * or, if the index has no positions, the AND of its terms.
+ */
+public class BooleanQuery {
+
+	/** The operators' words **/
+	private static final String AND = "AND";
+	private static final String OR = "OR";
+	private static final String NOT = "NOT";
+
+	/**
+	 * A node of the query's tree
+	 */
+	static abstract class Node {
+
+		/**
+		 * @param reader the index reader
+		 * @return a PostingIterator over the reviews which match the node
+		 */
+		abstract PostingIterator getPostingIterator(IndexReader reader);
+
+		/**
+		 * Adds the terms which a matching review may contain (which aren't excluded) to the list
+		 * @param terms the list
+		 */
+		abstract void collectTerms(ArrayList<String> terms);
+	}
+
+	/**
+	 * A single term
+	 */
+	static class TermNode extends Node {
+
+		/** the term, possibly with wildcards **/
+		private String token;
+
+		/**
+		 * Constructor
+		 * @param token the term, possibly with wildcards
+		 */
+		TermNode(String token) {
+			this.token = token;
+		}
+
+		@Override
+		PostingIterator getPostingIterator(IndexReader reader) {
+			return reader.getPostingIterator(token);
+		}
+
+		@Override
+		void collectTerms(ArrayList<String> terms) {
+			terms.add(token.toLowerCase());
+		}
+
+		@Override
+		public String toString() {
+			return token;
+		}
+	}
+
+	/**
+	 * A phrase of terms, in order, with at most slop extra tokens between the first and the last of them
+	 */
+	static class PhraseNode extends Node {
+
+		/** the phrase's terms, possibly with wildcards, at least 2 **/
+		private String[] tokens;
+
+		/** the maximal number of extra tokens in a match **/
+		private int slop;
+
+		/**
+		 * Constructor
+		 * @param tokens the phrase's terms, possibly with wildcards
+		 * @param slop the maximal number of extra tokens in a match
+		 */
+		PhraseNode(String[] tokens, int slop) {
+			this.tokens = tokens;
+			this.slop = slop;
+		}
+
+		@Override
+		PostingIterator getPostingIterator(IndexReader reader) {
+			PostingIterator[] lists = new PostingIterator[tokens.length];
+			for (int i = 0; i < tokens.length; ++i) {
+				lists[i] = reader.getPostingIterator(tokens[i]);
+			}
+			if (!reader.hasPositions()) {
+				return new ConjunctionPostingIterator(lists, lists.length);
+			}
+			PositionsIndex.Cursor[][] cursors = new PositionsIndex.Cursor[tokens.length][];
+			for (int i = 0; i < tokens.length; ++i) {
+				cursors[i] = reader.getPositionsCursors(tokens[i]);
+			}
+			return new PhrasePostingIterator(lists, cursors, tokens.length, slop);
+		}
+
+		@Override
+		void collectTerms(ArrayList<String> terms) {
+			terms.addAll(Arrays.asList(tokens));
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("\"");
+			for (int i = 0; i < tokens.length; ++i) {
+				builder.append(i > 0 ? " " : "").append(tokens[i]);
+			}
+			builder.append("\"");
+			return (slop > 0) ? builder.append("~").append(slop).toString() : builder.toString();
+		}
+	}
+
+	/**
+	 * A conjunction of nodes, without the reviews which match any of the excluded nodes
+	 */
+	static class AndNode extends Node {
+
+		/** the nodes every matching review matches, may be empty **/
+		private ArrayList<Node> positives;
+
+		/** the nodes no matching review matches, may be empty **/
+		private ArrayList<Node> negatives;
+
+		/**
+		 * Constructor
+		 * @param positives the nodes every matching review matches
+		 * @param negatives the nodes no matching review matches
+		 */
+		AndNode(ArrayList<Node> positives, ArrayList<Node> negatives) {
+			this.positives = positives;
+			this.negatives = negatives;
+		}
+
+		@Override
+		PostingIterator getPostingIterator(IndexReader reader) {
+			PostingIterator include = null;
+			if (positives.size() == 1) {
+				include = positives.get(0).getPostingIterator(reader);
+			}
+			else if (positives.size() > 1) {
+				include = new ConjunctionPostingIterator(getPostingIterators(positives, reader), positives.size());
+			}
+			if (negatives.isEmpty()) {
+				return include;
+			}
+			PostingIterator exclude = (negatives.size() == 1) ? negatives.get(0).getPostingIterator(reader) :
+					MergedPostingIterator.merge(getPostingIterators(negatives, reader), negatives.size(),
+							reader.getNumberOfReviews());
+			return new ExclusionPostingIterator(include, exclude, reader.getNumberOfReviews());
+		}
+
+		@Override
+		void collectTerms(ArrayList<String> terms) {
+			for (Node node : positives) {
+				node.collectTerms(terms);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("(");
+			for (int i = 0; i < positives.size(); ++i) {
+				builder.append(i > 0 ? " AND " : "").append(positives.get(i));
+			}
+			for (int i = 0; i < negatives.size(); ++i) {
+				builder.append(positives.isEmpty() && i == 0 ? "NOT " : " NOT ").append(negatives.get(i));
+			}
+			return builder.append(")").toString();
+		}
+	}
+
+	/**
+	 * A disjunction of nodes
+	 */
+	static class OrNode extends Node {
+
+		/** the nodes, at least 2 **/
+		private ArrayList<Node> children;
+
+		/**
+		 * Constructor
+		 * @param children the nodes
+		 */
+		OrNode(ArrayList<Node> children) {
+			this.children = children;
+		}
+
+		@Override
+		PostingIterator getPostingIterator(IndexReader reader) {
+			return MergedPostingIterator.merge(getPostingIterators(children, reader), children.size(),
+					reader.getNumberOfReviews());
+		}
+
+		@Override
+		void collectTerms(ArrayList<String> terms) {
+			for (Node node : children) {
+				node.collectTerms(terms);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("(");
+			for (int i = 0; i < children.size(); ++i) {
+				builder.append(i > 0 ? " OR " : "").append(children.get(i));
+			}
+			return builder.append(")").toString();
+		}
+	}
+
+	/** The root of the query's tree, null for a query without terms **/
+	private Node root;
+
+	/** The query's words, operators and parentheses (parsing only) **/
+	private ArrayList<String> words;
+
+	/** The index of the next word to parse (parsing only) **/
+	private int next;
+
+	/**
+	 * Constructor - parses a query
+	 * @param query the query
+	 */
+	private BooleanQuery(String query) {
+		words = split(query);
+		next = 0;
+		root = parseOr();
+		words = null;
+	}
+
+	/**
+	 * Parses a Boolean query
+	 * @param query the query
+	 * @return the parsed query
+	 */
+	public static BooleanQuery parse(String query) {
+		return new BooleanQuery(query);
+	}
+
+	/**
+	 * @param query a query
+	 * @return true iff the query has Boolean operators, parentheses or phrases, so it should be parsed as a Boolean
+	 * query rather than taken as a bag of words
+	 */
+	public static boolean isBooleanQuery(String query) {
+		for (String word : split(query)) {
+			if (word.equals(AND) || word.equals(OR) || word.equals(NOT) || word.equals("(") || word.startsWith("\"")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Splits a query to its words, where every parenthesis is a word of its own and every phrase - from a quote to
+	 * the next one, with its ~N - is a single word which starts with a quote. Closing parentheses which don't close
+	 * anything are dropped.
+	 * @param query the query
+	 * @return the query's words
+	 */
+	private static ArrayList<String> split(String query) {
+		ArrayList<String> words = new ArrayList<String>();
+		int depth = 0;
+		StringBuilder word = new StringBuilder();
+		for (int i = 0; i <= query.length(); ++i) {
+			char c = (i < query.length()) ? query.charAt(i) : ' ';
+			if (c == '"') {
+				if (word.length() > 0) {
+					words.add(word.toString());
+					word.setLength(0);
+				}
+				int end = query.indexOf('"', i + 1);
+				end = (end < 0) ? query.length() : end;
+				word.append('"').append(query, i + 1, end).append('"');
+				i = end;
+				if (i + 1 < query.length() && query.charAt(i + 1) == '~') {
+					word.append('~');
+					for (++i; i + 1 < query.length() && Character.isDigit(query.charAt(i + 1)); ++i) {
+						word.append(query.charAt(i + 1));
+					}
+				}
+				words.add(word.toString());
+				word.setLength(0);
+				continue;
+			}
+			if (!Character.isWhitespace(c) && c != '(' && c != ')') {
+				word.append(c);
+				continue;
+			}
+			if (word.length() > 0) {
+				words.add(word.toString());
+				word.setLength(0);
+			}
+			if (c == '(') {
+				++depth;
+				words.add("(");
+			}
+			else if (c == ')' && depth > 0) {
+				--depth;
+				words.add(")");
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * @return the next word, or null if all the words were parsed
+	 */
+	private String peek() {
+		return (next < words.size()) ? words.get(next) : null;
+	}
+
+	/**
+	 * Parses a disjunction of conjunctions
+	 * @return the parsed node, or null if it has no terms
+	 */
+	private Node parseOr() {
+		ArrayList<Node> children = new ArrayList<Node>();
+		while (true) {
+			Node child = parseAnd();
+			if (child != null) {
+				children.add(child);
+			}
+			if (!OR.equals(peek())) {
+				break;
+			}
+			++next;
+		}
+		if (children.isEmpty()) {
+			return null;
+		}
+		return (children.size() == 1) ? children.get(0) : new OrNode(children);
+	}
+
+	/**
+	 * Parses a conjunction of (possibly negated) operands, up to an OR or a closing parenthesis
+	 * @return the parsed node, or null if it has no terms
+	 */
+	private Node parseAnd() {
+		ArrayList<Node> positives = new ArrayList<Node>();
+		ArrayList<Node> negatives = new ArrayList<Node>();
+		for (String word = peek(); word != null && !word.equals(OR) && !word.equals(")"); word = peek()) {
+			if (word.equals(AND)) {
+				++next;
+				continue;
+			}
+			boolean isNegated = false;
+			while (NOT.equals(peek())) {
+				isNegated = !isNegated;
+				++next;
+			}
+			Node operand = parseOperand();
+			if (operand != null) {
+				(isNegated ? negatives : positives).add(operand);
+			}
+		}
+		if (positives.isEmpty() && negatives.isEmpty()) {
+			return null;
+		}
+		if (positives.size() == 1 && negatives.isEmpty()) {
+			return positives.get(0);
+		}
+		return new AndNode(positives, negatives);
+	}
+
+	/**
+	 * Parses a term or a parenthesized query
+	 * @return the parsed node, or null if it has no terms
+	 */
+	private Node parseOperand() {
+		String word = peek();
+		if (word == null || word.equals(OR) || word.equals(AND) || word.equals(")")) {
+			return null;
+		}
+		++next;
+		if (word.startsWith("\"")) {
+			return parsePhrase(word);
+		}
+		if (!word.equals("(")) {
+			return new TermNode(word);
+		}
+		Node node = parseOr();
+		if (")".equals(peek())) {
+			++next;
+		}
+		return node;
+	}
+
+	/**
+	 * Parses a phrase word (see split()): its terms are its words as the reviews are tokenized, keeping wildcards
+	 * @param word the phrase, in quotes, possibly followed by ~N
+	 * @return the parsed node, a single term for a phrase of one term, or null if it has no terms
+	 */
+	private static Node parsePhrase(String word) {
+		int end = word.lastIndexOf('"');
+		int slop = 0;
+		if (end + 2 < word.length()) {
+			try {
+				slop = Integer.parseInt(word.substring(end + 2));
+			}
+			catch (NumberFormatException e) {
+				slop = Integer.MAX_VALUE;
+			}
+		}
+		ArrayList<String> tokens = new ArrayList<String>();
+		for (String token : word.substring(1, end).toLowerCase().split("[^a-z0-9*]+")) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+		if (tokens.isEmpty()) {
+			return null;
+		}
+		if (tokens.size() == 1) {
+			return new TermNode(tokens.get(0));
+		}
+		return new PhraseNode(tokens.toArray(new String[0]), slop);
+	}
+
+	/**
+	 * @param nodes nodes
+	 * @param reader the index reader
+	 * @return the nodes' PostingIterators, in the same order
+	 */
+	private static PostingIterator[] getPostingIterators(ArrayList<Node> nodes, IndexReader reader) {
+		PostingIterator[] iterators = new PostingIterator[nodes.size()];
+		for (int i = 0; i < iterators.length; ++i) {
+			iterators[i] = nodes.get(i).getPostingIterator(reader);
+		}
+		return iterators;
+	}
+
+	/**
+	 * @param reader the index reader
+	 * @return a PostingIterator over the reviews which match the query, in increasing review id order. Its
+	 * frequencies are sums of the frequencies of the terms, or 0 for reviews which are matched by a NOT only.
+	 */
+	public PostingIterator getPostingIterator(IndexReader reader) {
+		if (root == null) {
+			return new ArrayPostingIterator(new int[0], new int[0], 0);
+		}
+		return root.getPostingIterator(reader);
+	}
+
+	/**
+	 * @return the terms which a matching review may contain - all of them but the excluded ones - lower cased, with
+	 * their repetitions
+	 */
+	public ArrayList<String> getTerms() {
+		ArrayList<String> terms = new ArrayList<String>();
+		if (root != null) {
+			root.collectTerms(terms);
+		}
+		return terms;
+	}
+
+	/**
+	 * @return the query, fully parenthesized
+	 */
+	@Override
+	public String toString() {
+		return (root == null) ? "()" : root.toString();
+	}
+}
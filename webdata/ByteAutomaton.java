@@ -0,0 +1,30 @@
+package webdata;
+
+/**
+ * A deterministic automaton over the bytes of tokens, which a term dictionary can intersect with its tokens without
+ * decoding them one by one. A state is any long value the automaton chooses, except DEAD_STATE, from which no
+ * token can be accepted, so the dictionary stops following a path as soon as it reaches it.
+ */
+public abstract class ByteAutomaton {
+
+	/** The state from which no token can be accepted **/
+	public static final long DEAD_STATE = 0;
+
+	/**
+	 * @return the state before reading any byte
+	 */
+	public abstract long getStartState();
+
+	/**
+	 * @param state the current state
+	 * @param label the next byte of the token, in the range [0, 256)
+	 * @return the state after reading the byte, DEAD_STATE if no token with this prefix can be accepted
+	 */
+	public abstract long step(long state, int label);
+
+	/**
+	 * @param state a state
+	 * @return true iff the token read so far is accepted
+	 */
+	public abstract boolean isAccept(long state);
+}
@@ -0,0 +1,67 @@
+package webdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A PostingIterator which decodes a single token's posting list lazily, straight from its Length-precoded Varint
+ * representation on the disc (gaps of review ids, each followed by a frequency).
+ */
+public class CompressedPostingIterator extends PostingIterator {
+
+	/** The encoded posting list **/
+	private ByteBuffer buffer;
+
+	/** The number of pairs in the posting list **/
+	private int size;
+
+	/** The number of pairs decoded so far **/
+	private int numOfDecoded;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/** The current frequency **/
+	private int frequency;
+
+	/**
+	 * Constructor
+	 * @param buffer a ByteBuffer positioned at the beginning of the encoded posting list
+	 * @param size the number of (review id, frequency) pairs in the posting list
+	 */
+	public CompressedPostingIterator(ByteBuffer buffer, int size) {
+		this.buffer = buffer;
+		this.size = size;
+		numOfDecoded = 0;
+		reviewId = -1;
+		frequency = 0;
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		return frequency;
+	}
+
+	@Override
+	public int nextReview() {
+		if (numOfDecoded >= size) {
+			reviewId = NO_MORE_REVIEWS;
+			frequency = 0;
+			return reviewId;
+		}
+		int gap = SharedUtils.readIntegerFromBuffer(buffer);
+		reviewId = (numOfDecoded == 0) ? gap : reviewId + gap;
+		frequency = SharedUtils.readIntegerFromBuffer(buffer);
+		++numOfDecoded;
+		return reviewId;
+	}
+
+	@Override
+	public int cost() {
+		return size;
+	}
+}
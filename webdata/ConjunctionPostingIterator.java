@@ -0,0 +1,98 @@
+package webdata;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A PostingIterator over the intersection of several posting lists: the reviews which are in all of them, with the
+ * sum of their frequencies. The rarest list leads - it proposes every candidate review - and the others only skip
+ * to the candidate with advance(); a list which skips past it proposes the next candidate to the leader instead, so
+ * the longer lists are mostly skipped over rather than decoded.
+ */
+public class ConjunctionPostingIterator extends PostingIterator {
+
+	/** The lists, from the rarest (the leader) to the most common **/
+	private PostingIterator[] lists;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/**
+	 * Constructor
+	 * @param lists the lists, none of which was advanced yet
+	 * @param numOfLists the number of lists, at least 1
+	 */
+	public ConjunctionPostingIterator(PostingIterator[] lists, int numOfLists) {
+		this.lists = Arrays.copyOf(lists, numOfLists);
+		Arrays.sort(this.lists, new Comparator<PostingIterator>() {
+			@Override
+			public int compare(PostingIterator o1, PostingIterator o2) {
+				return Integer.compare(o1.cost(), o2.cost());
+			}
+		});
+		reviewId = -1;
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		if (reviewId < 0 || reviewId == NO_MORE_REVIEWS) {
+			return 0;
+		}
+		int frequency = 0;
+		for (PostingIterator list : lists) {
+			frequency += list.frequency();
+		}
+		return frequency;
+	}
+
+	@Override
+	public int nextReview() {
+		if (reviewId == NO_MORE_REVIEWS) {
+			return reviewId;
+		}
+		return toMatch(lists[0].nextReview());
+	}
+
+	@Override
+	public int advance(int target) {
+		if (reviewId >= target) {
+			return reviewId;
+		}
+		return toMatch(lists[0].advance(target));
+	}
+
+	@Override
+	public int cost() {
+		return lists[0].cost();
+	}
+
+	/**
+	 * Moves all the lists to the first review which is in all of them, starting from the leader's candidate
+	 * @param candidate the review id the leader is positioned on
+	 * @return the new review id, or NO_MORE_REVIEWS if there is none
+	 */
+	private int toMatch(int candidate) {
+		int i = 1;
+		while (candidate != NO_MORE_REVIEWS && i < lists.length) {
+			int id = lists[i].reviewId();
+			if (id < candidate) {
+				id = lists[i].advance(candidate);
+			}
+			if (id == candidate) {
+				++i;
+			}
+			else {
+				// the list skipped past the candidate, so the leader catches up and proposes again
+				candidate = lists[0].advance(id);
+				i = 1;
+			}
+		}
+		reviewId = candidate;
+		return reviewId;
+	}
+}
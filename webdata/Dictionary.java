@@ -2,48 +2,172 @@ package webdata;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class contains all the relevant information for writing and reading the dictionary part of the
  * index, and handling writing and reading this information to and from the disc. This class implements the
  * the K-1 in K front coding.
+ * The tokens are kept as UTF-8 bytes, and every token has a row of a fixed size in the table, so the reader
+ * memory-maps both files and queries them in place: opening a dictionary doesn't read or decode anything, and only
+ * the pages of the blocks which are actually searched are ever loaded. A read dictionary only uses absolute gets of
+ * its buffers, per-thread scratch buffers and an atomic block cache, so it can be queried by several threads at once.
  */
 public class Dictionary {
 
-	/** The string that holds all the tokens in the dictionary **/
-	private StringBuilder tokenString;
+	/** The maximal common prefix size which can be stored in a row **/
+	private static final int MAX_PREFIX_SIZE = 255;
 
-	/** All the tokens' frequencies values **/
+	/** The number of decoded blocks kept in the cache, a power of 2 **/
+	private static final int BLOCK_CACHE_SIZE = 1 << 10;
+
+	/**
+	 * A fully decoded block of the front coded tokens. It's immutable, so it can be shared between threads.
+	 */
+	private static class DecodedBlock {
+
+		/** the block's number **/
+		final int block;
+
+		/** the block's tokens **/
+		final String[] tokens;
+
+		/**
+		 * Constructor
+		 * @param block the block's number
+		 * @param tokens the block's tokens
+		 */
+		DecodedBlock(int block, String[] tokens) {
+			this.block = block;
+			this.tokens = tokens;
+		}
+	}
+
+	/**
+	 * Reusable buffers of a single thread, for encoding searched tokens and decoding the dictionary's tokens
+	 */
+	private static class Scratch {
+
+		/** the searched token's UTF-8 bytes **/
+		byte[] key = new byte[64];
+
+		/** the currently decoded token's bytes **/
+		byte[] token = new byte[64];
+
+		/**
+		 * Encodes a token to UTF-8 into key
+		 * @param str the token
+		 * @return the number of bytes of the token
+		 */
+		int encode(String str) {
+			int length = str.length();
+			if (length > key.length) {
+				key = new byte[Math.max(length, 2 * key.length)];
+			}
+			for (int i = 0; i < length; ++i) {
+				char c = str.charAt(i);
+				if (c >= 0x80) {
+					byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+					if (bytes.length > key.length) {
+						key = new byte[bytes.length];
+					}
+					System.arraycopy(bytes, 0, key, 0, bytes.length);
+					return bytes.length;
+				}
+				key[i] = (byte)c;
+			}
+			return length;
+		}
+
+		/**
+		 * Grows token (keeping its content) so it holds at least capacity bytes
+		 * @param capacity the needed capacity
+		 * @return token
+		 */
+		byte[] ensureTokenCapacity(int capacity) {
+			if (capacity > token.length) {
+				token = Arrays.copyOf(token, Math.max(capacity, 2 * token.length));
+			}
+			return token;
+		}
+	}
+
+	/** The buffers of each thread **/
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+	/** The bytes of all the tokens in the dictionary, front coded (write phase only) **/
+	private byte[] tokenBytes;
+
+	/** The current length of tokenBytes (write phase only) **/
+	private int tokenBytesLength;
+
+	/** All the tokens' frequencies values (write phase only) **/
 	private int[] frequencies;
 
-	/** All the tokens' frequencies appearances with repetitions **/
+	/** All the tokens' frequencies appearances with repetitions (write phase only) **/
 	private int[] collectionFrequencies;
 
-	/** All the tokens' pointers the the posting lists **/
+	/** All the tokens' pointers the the posting lists (write phase only) **/
 	private long[] postingPtrs;
 
-	/** All the tokens' lengths **/
-	private byte[] length;
-
-	/** All the tokens' common prefix sizes with the previous token **/
+	/** All the tokens' common prefix sizes with the previous token, 0 for block heads (write phase only) **/
 	private byte[] prefixSizes;
 
-	/** All the tokens' pointers to the tokenString (only for block heads) **/
+	/** All the tokens' pointers to the bytes which follow their common prefix in tokenBytes (write phase only) **/
 	private int[] termPtr;
 
-	/** The current length of the tokenString **/
-	private int tokenStringLength;
+	/** All the tokens' hashes, for building the perfect hash (write phase only) **/
+	private long[] hashes;
+
+	/** The previous token which been added to the dictionary (write phase only) **/
+	private byte[] lastToken;
+
+	/** The memory-mapped table file (read phase only) **/
+	private ByteBuffer table;
+
+	/** The memory-mapped front coded tokens' bytes file, null if they were read as a transducer (read phase only) **/
+	private ByteBuffer strings;
+
+	/** The transducer of the tokens, or null if it wasn't written to the disc (read phase only) **/
+	private TermFst termFst;
+
+	/**
+	 * The cache of decoded blocks, direct mapped: block b can only be kept in entry b % BLOCK_CACHE_SIZE, and
+	 * replaces whatever block was there. Null if the tokens were read as a transducer (read phase only)
+	 */
+	private AtomicReferenceArray<DecodedBlock> blockCache;
+
+	/** The number of getTokenFromBlock calls which found their block in the cache **/
+	private LongAdder blockCacheHits = new LongAdder();
 
-	/** The current number of tokens i the dictionary**/
-	private int currTokenIndex;
+	/** The number of getTokenFromBlock calls which decoded their block **/
+	private LongAdder blockCacheMisses = new LongAdder();
 
-	/** The previous token which been added to the dictionary **/
-	private String lastToken;
+	/** The perfect hash of the tokens, or null if it wasn't written to the disc (read phase only) **/
+	private PerfectHash perfectHash;
+
+	/** The number of tokens in the dictionary **/
+	private int numOfTokens;
 
 	/** True iff this dictionary is the product id's dictionary **/
 	private boolean isPid;
 
+	/** The offset of the posting list pointer in a row **/
+	private int postingPtrOffset;
+
+	/** The offset of the term pointer in a row **/
+	private int termPtrOffset;
+
+	/** The offset of the prefix size in a row **/
+	private int prefixSizeOffset;
+
+	/** The size of a row in the table **/
+	private int rowSize;
+
 	/**
 	 * A constructor for the write phase
 	 * @param tokens a sorted ArrayList of all the tokens in the input file.
@@ -54,18 +178,16 @@ public class Dictionary {
 	 */
 	public Dictionary(ArrayList<String> tokens, int[] frequencies, long[] postingPtrs,
 					  int[] collectionFrequencies, boolean isPid) {
-		int numOfTokens = tokens.size();
-		length = new byte[numOfTokens];
+		this(tokens.size(), isPid);
 		prefixSizes = new byte[numOfTokens];
 		termPtr = new int[numOfTokens];
-		tokenString = new StringBuilder();
-		tokenStringLength = 0;
-		currTokenIndex = 0;
-		lastToken = "";
+		hashes = new long[numOfTokens];
+		tokenBytes = new byte[Math.max(16, numOfTokens * 4)];
+		tokenBytesLength = 0;
+		lastToken = new byte[0];
 		this.postingPtrs = postingPtrs;
 		this.frequencies = frequencies;
 		this.collectionFrequencies = collectionFrequencies;
-		this.isPid = isPid;
 		fillDictionary(tokens);
 	}
 
@@ -76,47 +198,36 @@ public class Dictionary {
 	 * @param isPid true iff this dictionary is the product id's dictionary
 	 */
 	public Dictionary(int numOfTokens, boolean isPid){
-		length = new byte[numOfTokens];
-		prefixSizes = new byte[numOfTokens];
-		termPtr = new int[numOfTokens];
-		postingPtrs = new long[numOfTokens];
-		frequencies = new int[numOfTokens];
-		if (!isPid) {
-			collectionFrequencies = new int[numOfTokens];
-		}
+		this.numOfTokens = numOfTokens;
 		this.isPid = isPid;
-		tokenString = new StringBuilder();
+		postingPtrOffset = isPid ? SharedUtils.SIZE_OF_INT : 2 * SharedUtils.SIZE_OF_INT;
+		termPtrOffset = postingPtrOffset + SharedUtils.SIZE_OF_LONG;
+		prefixSizeOffset = termPtrOffset + SharedUtils.SIZE_OF_INT;
+		rowSize = prefixSizeOffset + 1;
 	}
 
 	/**
 	 * Creates a new row in the dictionary's table (i.e adds one element to each of the relevant arrays
 	 * creating the table) according to the the token.
+	 * @param index the token's index in the dictionary
 	 * @param token a sting which is a token.
 	 */
-	private void buildDictionaryRow(String token) {
-		int positionInBlock = currTokenIndex % SharedUtils.DICT_BLOCK_SIZE;
-		String stringToConcat;
-
-		if (positionInBlock == 0) {
-			length[currTokenIndex] = (byte)token.length();
-			termPtr[currTokenIndex] = tokenStringLength;
-			stringToConcat = token;
+	private void buildDictionaryRow(int index, String token) {
+		byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+		int prefixSize = 0;
+		if (index % SharedUtils.DICT_BLOCK_SIZE != 0) {
+			prefixSize = Math.min(getPrefixSize(lastToken, bytes), MAX_PREFIX_SIZE);
 		}
-		else if (positionInBlock == SharedUtils.DICT_BLOCK_SIZE - 1) {
-			int prefixSize = getPrefixSize(lastToken, token);
-			prefixSizes[currTokenIndex] = (byte)prefixSize;
-			stringToConcat = token.substring(prefixSize, token.length());
+		prefixSizes[index] = (byte)prefixSize;
+		hashes[index] = PerfectHash.hash(bytes, bytes.length);
+		termPtr[index] = tokenBytesLength;
+		int suffixLength = bytes.length - prefixSize;
+		if (tokenBytesLength + suffixLength > tokenBytes.length) {
+			tokenBytes = Arrays.copyOf(tokenBytes, Math.max(2 * tokenBytes.length, tokenBytesLength + suffixLength));
 		}
-		else {
-			length[currTokenIndex] = (byte)token.length();
-			int prefixSize = getPrefixSize(lastToken, token);
-			prefixSizes[currTokenIndex] = (byte)prefixSize;
-			stringToConcat = token.substring(prefixSize, token.length());
-		}
-		tokenString.append(stringToConcat);
-		tokenStringLength += stringToConcat.length();
-		++currTokenIndex;
-		lastToken = token;
+		System.arraycopy(bytes, prefixSize, tokenBytes, tokenBytesLength, suffixLength);
+		tokenBytesLength += suffixLength;
+		lastToken = bytes;
 	}
 
 	/**
@@ -124,22 +235,24 @@ public class Dictionary {
 	 * @param tokens a sorted ArrayList of all the tokens in the input file.
 	 */
 	private void fillDictionary(ArrayList<String> tokens){
+		int index = 0;
 		for(String token : tokens){
-			buildDictionaryRow(token);
+			buildDictionaryRow(index, token);
+			++index;
 		}
 	}
 
 	/**
-	 * This function calculates the common prefix size of two Strings
-	 * @param token1 the first String
-	 * @param token2 the second Sting
+	 * This function calculates the common prefix size of two byte arrays
+	 * @param token1 the first token's bytes
+	 * @param token2 the second token's bytes
 	 * @return the prefix size
 	 */
-	private int getPrefixSize(String token1, String token2) {
-		int minLength = Math.min(token1.length(), token2.length());
+	private int getPrefixSize(byte[] token1, byte[] token2) {
+		int minLength = Math.min(token1.length, token2.length);
 		int prefix = 0;
 		for (int i = 0; i < minLength; ++i) {
-			if (token1.charAt(i) != token2.charAt(i)) {
+			if (token1[i] != token2[i]) {
 				break;
 			}
 			++prefix;
@@ -157,7 +270,6 @@ public class Dictionary {
 	 */
 	private void writeRowToDisc(BufferedOutputStream tableOut, ByteBuffer buffer, int index) throws
 			IOException{
-		int positionInBlock = index % SharedUtils.DICT_BLOCK_SIZE;
 		if (buffer.capacity() - buffer.position() < SharedUtils.MAX_SIZE_OF_DICTIONARY_ROW) {
 			tableOut.write(buffer.array(), 0 , buffer.position());
 			buffer.position(0);
@@ -166,33 +278,24 @@ public class Dictionary {
 		if (!isPid) {
 			buffer.putInt(collectionFrequencies[index]);
 		}
-		if (positionInBlock == 0) {
-			buffer.putLong(postingPtrs[index]);
-			buffer.put(length[index]);
-			buffer.putInt(termPtr[index]);
-		}
-		else if (positionInBlock == SharedUtils.DICT_BLOCK_SIZE - 1) {
-			buffer.putLong(postingPtrs[index]);
-			buffer.put(prefixSizes[index]);
-		}
-		else {
-			buffer.putLong(postingPtrs[index]);
-			buffer.put(length[index]);
-			buffer.put(prefixSizes[index]);
-		}
+		buffer.putLong(postingPtrs[index]);
+		buffer.putInt(termPtr[index]);
+		buffer.put(prefixSizes[index]);
 	}
 
 	/**
 	 * Writes the Dictionary object to the disc in a memory-efficient way, using a buffer.
-	 * @param strOut a BufferedWriter object.
+	 * @param strOut a BufferedOutputStream object for the tokens' bytes, or null if the tokens are written as a
+	 *               transducer instead.
 	 * @param tableOut a BufferedOutputStream object.
 	 * @throws IOException
 	 */
-	public void writeDictionaryToDisc(BufferedWriter strOut, BufferedOutputStream tableOut)
+	public void writeDictionaryToDisc(BufferedOutputStream strOut, BufferedOutputStream tableOut)
 			throws IOException {
-		strOut.write(tokenString.toString(), 0, tokenString.length());
-		strOut.close();
-		int numOfTokens = postingPtrs.length;
+		if (strOut != null) {
+			strOut.write(tokenBytes, 0, tokenBytesLength);
+			strOut.close();
+		}
 		int sizeOfTable = SharedUtils.SIZE_OF_INT + SharedUtils.MAX_SIZE_OF_DICTIONARY_ROW * numOfTokens;
 		int sizeOfBuffer = Math.min(sizeOfTable, SharedUtils.MAIN_MEMORY_SIZE);
 		ByteBuffer outBuffer = ByteBuffer.allocate(sizeOfBuffer);
@@ -200,98 +303,178 @@ public class Dictionary {
 		for (int i = 0; i < numOfTokens; ++i) {
 			writeRowToDisc(tableOut, outBuffer, i);
 		}
-		if (outBuffer.hasRemaining()) {
+		if (outBuffer.position() > 0) {
 			tableOut.write(outBuffer.array(), 0, outBuffer.position());
 		}
 		tableOut.close();
 	}
 
 	/**
-	 * Reads a row of the Dictionary's table from the disc, using a buffer to read in chunks.
-	 * @param buffer a ByteBuffer
-	 * @param index the row's index in the dictionary.
+	 * Builds the minimal perfect hash of the dictionary's tokens
+	 * @return the perfect hash, which should be written to the disc only if it was built
 	 */
-	private void readRow(ByteBuffer buffer, int index) {
-		int positionInBlock = index % SharedUtils.DICT_BLOCK_SIZE;
+	public PerfectHash buildPerfectHash() {
+		return new PerfectHash(hashes);
+	}
 
-		frequencies[index] = buffer.getInt();
-		if (!isPid) {
-			collectionFrequencies[index] = buffer.getInt();
-		}
-		if (positionInBlock == 0) {
-			postingPtrs[index] = buffer.getLong();
-			length[index] = buffer.get();
-			termPtr[index] = buffer.getInt();
-		}
-		else if (positionInBlock == SharedUtils.DICT_BLOCK_SIZE - 1) {
-			postingPtrs[index] = buffer.getLong();
-			prefixSizes[index] = buffer.get();
+	/**
+	 * Writes the tokens as a finite-state transducer, which replaces the front coded tokens' file.
+	 * @param tokens the sorted tokens of the dictionary
+	 * @param fstOut a BufferedOutputStream object
+	 * @throws IOException
+	 */
+	public static void writeTermFstToDisc(ArrayList<String> tokens, BufferedOutputStream fstOut) throws IOException {
+		new TermFst(tokens).writeToDisc(fstOut);
+	}
+
+	/**
+	 * Maps a Dictionary object's files from the disc into this object. Nothing is read at this point, the rows
+	 * and the tokens are read from the mapped files when they are needed. If the tokens were written as a
+	 * transducer, its file is used instead of the string part of the dictionary.
+	 * @param dir the name of the directory in which the files of the index was created.
+	 * @param nameOfStrFile the name of the file which stores the string part of the dictionary
+	 * @param nameOfTableFile the name of the file which stores the table part of the dictionary
+	 * @param nameOfFstFile the name of the file which stores the transducer of the dictionary, if it exists
+	 * @throws IOException
+	 */
+	public void readDictionary(String dir, String nameOfStrFile, String nameOfTableFile, String nameOfFstFile)
+			throws IOException {
+		File fstFile = new File(dir + File.separator + nameOfFstFile);
+		if (fstFile.exists()) {
+			termFst = new TermFst(SharedUtils.mapFile(fstFile.getPath()));
 		}
 		else {
-			postingPtrs[index] = buffer.getLong();
-			length[index] = buffer.get();
-			prefixSizes[index] = buffer.get();
+			strings = SharedUtils.mapFile(dir + File.separator + nameOfStrFile);
+			blockCache = new AtomicReferenceArray<>(BLOCK_CACHE_SIZE);
 		}
+		table = SharedUtils.mapFile(dir + File.separator + nameOfTableFile);
 	}
 
 	/**
-	 * Reads a Dictionary object's data from the disc into this object.
+	 * Maps the perfect hash file of the dictionary, if it exists. Without it, getTokenIndex searches the tokens with
+	 * binary search.
 	 * @param dir the name of the directory in which the files of the index was created.
-	 * @param nameOfStrFile the name of the file which stores the string part of the dictionary
-	 * @param nameOfTableFile the name of the file which stores the table part of the dictionary
+	 * @param nameOfHashFile the name of the file which stores the perfect hash of the dictionary
 	 * @throws IOException
 	 */
-	public void readDictionary(String dir, String nameOfStrFile, String nameOfTableFile) throws IOException {
-		BufferedReader strIn = new BufferedReader(new FileReader(dir + File.separator +
-				nameOfStrFile));
-		tokenString = new StringBuilder(strIn.readLine());
-		strIn.close();
-		int numOfTokens = postingPtrs.length;
-		BufferedInputStream tableIn = new BufferedInputStream(new FileInputStream(dir + File.separator +
-				nameOfTableFile));
-
-		int size = numOfTokens * SharedUtils.MAX_SIZE_OF_DICTIONARY_ROW + SharedUtils.SIZE_OF_INT;
-		byte[] localBuffer = new byte[size];
-		int numOfBytes = tableIn.read(localBuffer, 0, size);
-		ByteBuffer buffer = ByteBuffer.allocate(numOfTokens * SharedUtils.MAX_SIZE_OF_DICTIONARY_ROW);
-		buffer.put(localBuffer, SharedUtils.SIZE_OF_INT,
-				numOfTokens * SharedUtils.MAX_SIZE_OF_DICTIONARY_ROW);
-		buffer.position(0);
+	public void readPerfectHash(String dir, String nameOfHashFile) throws IOException {
+		File hashFile = new File(dir + File.separator + nameOfHashFile);
+		if (hashFile.exists()) {
+			perfectHash = new PerfectHash(SharedUtils.mapFile(hashFile.getPath()));
+		}
+	}
 
-		for (int i = 0; i < numOfTokens; ++i) {
-			readRow(buffer, i);
+	/**
+	 * @param index the row's index in the dictionary
+	 * @return the offset of the row in the table file
+	 */
+	private int getRowOffset(int index) {
+		return SharedUtils.SIZE_OF_INT + index * rowSize;
+	}
+
+	/**
+	 * @param index the row's index in the dictionary
+	 * @return the pointer to the bytes which follow the token's common prefix with the previous token
+	 */
+	private int getTermPtr(int index) {
+		return table.getInt(getRowOffset(index) + termPtrOffset);
+	}
+
+	/**
+	 * @param index the row's index in the dictionary
+	 * @return the size of the token's common prefix with the previous token
+	 */
+	private int getPrefixSize(int index) {
+		return table.get(getRowOffset(index) + prefixSizeOffset) & 0xFF;
+	}
+
+	/**
+	 * Guards the methods which read the front coded tokens, which aren't read if the tokens were read as a
+	 * transducer - every caller must check isTransducer() first.
+	 * @throws IllegalStateException if the tokens were read as a transducer
+	 */
+	private void checkFrontCoded() {
+		if (termFst != null) {
+			throw new IllegalStateException("The dictionary's tokens were read as a transducer, not front coded");
 		}
-		tableIn.close();
 	}
 
 	/**
-	 * Implements binary search of a token in the dictionary.
+	 * @param index the row's index in the dictionary
+	 * @return the pointer to the end of the bytes which follow the token's common prefix with the previous token
+	 */
+	private int getSuffixEnd(int index) {
+		checkFrontCoded();
+		return (index + 1 < numOfTokens) ? getTermPtr(index + 1) : strings.limit();
+	}
+
+	/**
+	 * Finds a token in the dictionary, with the transducer if it was read, in constant time if the perfect hash was
+	 * read, else with binary search.
 	 * @param token String
 	 * @return The index of the token in the dictionary, if it was found, else -1.
 	 */
-	public int tokenBinarySearch(String token){
-		// search block
+	public int getTokenIndex(String token) {
+		Scratch scratch = SCRATCH.get();
+		int keyLength = scratch.encode(token);
+		if (termFst != null) {
+			return termFst.getOrdinal(scratch.key, keyLength);
+		}
+		if (perfectHash == null) {
+			return tokenBinarySearch(scratch.key, keyLength);
+		}
+		int index = perfectHash.getCandidate(PerfectHash.hash(scratch.key, keyLength));
+		if (index < 0 || !isTokenAt(scratch, index, scratch.key, keyLength)) {
+			return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * Checks whether the token at index is the given token, by decoding its block up to it.
+	 * @param scratch the calling thread's buffers
+	 * @param index the token's index in the dictionary
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return true iff the token at index is the given token
+	 */
+	private boolean isTokenAt(Scratch scratch, int index, byte[] key, int keyLength) {
+		checkFrontCoded();
+		int firstInBlock = index - index % SharedUtils.DICT_BLOCK_SIZE;
+		int currLength = 0;
+		for (int i = firstInBlock; i <= index; ++i) {
+			currLength = decodeNext(scratch, i);
+		}
+		return compareBytes(scratch.token, currLength, key, keyLength) == 0;
+	}
+
+	/**
+	 * Implements binary search of a token, given as UTF-8 bytes, in the dictionary, for getTokenIndex. The token is
+	 * compared with the dictionary's bytes in place, so the search doesn't allocate.
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return The index of the token in the dictionary, if it was found, else -1.
+	 */
+	private int tokenBinarySearch(byte[] key, int keyLength) {
+		checkFrontCoded();
+		// search the last block whose head is not bigger than the token
 		int left = 0;
-		int lastBlock = (int)Math.ceil((double)postingPtrs.length / (double) SharedUtils.DICT_BLOCK_SIZE) - 1;
-		int right = lastBlock;
-		int mid = (left + right) / 2;
+		int right = (numOfTokens + SharedUtils.DICT_BLOCK_SIZE - 1) / SharedUtils.DICT_BLOCK_SIZE - 1;
+		int block = -1;
 		while (left <= right) {
-			mid = (left + right) / 2;
-			String blockHead = getFirstInBlock(mid);
-			if (blockHead.compareTo(token) > 0) {
-				right = mid - 1;
+			int mid = (left + right) >>> 1;
+			int firstInMid = mid * SharedUtils.DICT_BLOCK_SIZE;
+			int headStart = getTermPtr(firstInMid);
+			int compare = compareWithStrings(headStart, getSuffixEnd(firstInMid) - headStart, key, keyLength);
+			if (compare == 0) {
+				return firstInMid;
 			}
-			else {
+			if (compare < 0) {
+				block = mid;
 				left = mid + 1;
 			}
-		}
-		int block = mid;
-		if (right == mid - 1) {
-			block = block - 1;
-		}
-		else {
-			if (block < lastBlock && getFirstInBlock(block + 1).compareTo(token) < 0) {
-				block = block + 1;
+			else {
+				right = mid - 1;
 			}
 		}
 		if (block < 0) {
@@ -299,124 +482,314 @@ public class Dictionary {
 		}
 
 		//search in block
-		int positionInBlock =  searchInBlock(token, block);
+		int positionInBlock = searchInBlock(key, keyLength, block);
 		if(positionInBlock < 0){
 			return -1;
 		}
-		return block * SharedUtils.DICT_BLOCK_SIZE + positionInBlock ;
+		return block * SharedUtils.DICT_BLOCK_SIZE + positionInBlock;
 	}
 
 	/**
-	 * This function return the String of the first token in block, given a block number
- 	 * @param block the block number
-	 * @return a String of the block's head token
+	 * This function gets a token and a block number, and search this token in this block. The block's tokens are
+	 * decoded one after the other into a reusable buffer, each one from the previous one.
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @param block the block number
+	 * @return the position in block if the token appears in this block, otherwise -1
 	 */
-	private String getFirstInBlock(int block) {
+	private int searchInBlock(byte[] key, int keyLength, int block) {
+		checkFrontCoded();
+		Scratch scratch = SCRATCH.get();
 		int firstInBlock = block * SharedUtils.DICT_BLOCK_SIZE;
-		int trmPtr = termPtr[firstInBlock];
-		byte len = length[firstInBlock];
-		return tokenString.substring(trmPtr, trmPtr + len);
+		int blockSize = Math.min(SharedUtils.DICT_BLOCK_SIZE, numOfTokens - firstInBlock);
+		int currLength = 0;
+		for (int i = 0; i < blockSize; ++i) {
+			currLength = decodeNext(scratch, firstInBlock + i);
+			int compare = compareBytes(scratch.token, currLength, key, keyLength);
+			if (compare == 0) {
+				return i;
+			}
+			if (compare > 0) {
+				break;
+			}
+		}
+		return -1;
 	}
 
 	/**
-	 * This function gets a token and a block number, and search this token in this block
-	 * @param token a String
-	 * @param block the block number
-	 * @return the position in block if the token appears in this block, otherwise -1
+	 * Decodes the token at index into scratch.token, given that scratch.token already holds the previous token in
+	 * the block (or anything, if index is a block head).
+	 * @param scratch the calling thread's buffers
+	 * @param index the token's index in the dictionary
+	 * @return the number of bytes of the token
 	 */
-	private int searchInBlock(String token, int block) {
-		String curr = getFirstInBlock(block);
-		int nextTermPtr = termPtr[block * SharedUtils.DICT_BLOCK_SIZE] +
-							length[block * SharedUtils.DICT_BLOCK_SIZE];
-		int i;
-		for(i = 0; i < SharedUtils.DICT_BLOCK_SIZE - 1; ++i){
-			// check if curr is the last token in dictionary
-			if (block * SharedUtils.DICT_BLOCK_SIZE + i >= postingPtrs.length - 1) {
-				break;
+	private int decodeNext(Scratch scratch, int index) {
+		checkFrontCoded();
+		int prefixSize = getPrefixSize(index);
+		int suffixStart = getTermPtr(index);
+		int suffixLength = getSuffixEnd(index) - suffixStart;
+		byte[] token = scratch.ensureTokenCapacity(prefixSize + suffixLength);
+		for (int j = 0; j < suffixLength; ++j) {
+			token[prefixSize + j] = strings.get(suffixStart + j);
+		}
+		return prefixSize + suffixLength;
+	}
+
+	/**
+	 * Compares bytes of the tokens' file with a token, lexicographically as unsigned bytes (which for UTF-8 is the
+	 * order of the code points)
+	 * @param start the offset of the bytes in the tokens' file
+	 * @param length the number of bytes
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return a negative number, zero or a positive number if the bytes are smaller, equal or bigger than the token
+	 */
+	private int compareWithStrings(int start, int length, byte[] key, int keyLength) {
+		checkFrontCoded();
+		int minLength = Math.min(length, keyLength);
+		for (int i = 0; i < minLength; ++i) {
+			int compare = (strings.get(start + i) & 0xFF) - (key[i] & 0xFF);
+			if (compare != 0) {
+				return compare;
 			}
-			if(curr.compareTo(token) == 0){
-				return i;
+		}
+		return length - keyLength;
+	}
+
+	/**
+	 * Compares two byte sequences lexicographically as unsigned bytes
+	 * @return a negative number, zero or a positive number if the first sequence is smaller, equal or bigger
+	 */
+	private static int compareBytes(byte[] a, int aLength, byte[] b, int bLength) {
+		int minLength = Math.min(aLength, bLength);
+		for (int i = 0; i < minLength; ++i) {
+			int compare = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (compare != 0) {
+				return compare;
 			}
-			// update curr to the next token in block
-			byte nextPrefixSize = prefixSizes[block * SharedUtils.DICT_BLOCK_SIZE + i + 1];
-			String next = curr.substring(0, nextPrefixSize);
-			// check if the next token is the last in block
-			if (i + 1 == SharedUtils.DICT_BLOCK_SIZE - 1) {
-				// last in block but not last in dictionary
-				if (block * SharedUtils.DICT_BLOCK_SIZE + i + 1 < postingPtrs.length - 1) {
-					next += tokenString.substring(nextTermPtr,
-													termPtr[block * SharedUtils.DICT_BLOCK_SIZE + i + 2]);
-				}
-				// check if the next token is the last in dictionary
-				else {
-					next += tokenString.substring(nextTermPtr, tokenString.length());
-				}
+		}
+		return aLength - bLength;
+	}
+
+	/**
+	 * Finds the number of tokens which are smaller than the given one, i.e. the index of the token if it's in the
+	 * dictionary, else the index of the first token bigger than it.
+	 * @param token String
+	 * @return the index of the first token which is not smaller than token, the dictionary's size if there isn't any
+	 */
+	public int lowerBound(String token) {
+		Scratch scratch = SCRATCH.get();
+		int keyLength = scratch.encode(token);
+		return lowerBound(scratch.key, keyLength);
+	}
+
+	/**
+	 * Finds the number of tokens which are smaller than the given one, given as UTF-8 bytes.
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return the index of the first token which is not smaller than key, the dictionary's size if there isn't any
+	 */
+	public int lowerBound(byte[] key, int keyLength) {
+		if (termFst != null) {
+			return termFst.lowerBound(key, keyLength);
+		}
+		// search the last block whose head is smaller than the token
+		int left = 0;
+		int right = (numOfTokens + SharedUtils.DICT_BLOCK_SIZE - 1) / SharedUtils.DICT_BLOCK_SIZE - 1;
+		int block = -1;
+		while (left <= right) {
+			int mid = (left + right) >>> 1;
+			int firstInMid = mid * SharedUtils.DICT_BLOCK_SIZE;
+			int headStart = getTermPtr(firstInMid);
+			if (compareWithStrings(headStart, getSuffixEnd(firstInMid) - headStart, key, keyLength) < 0) {
+				block = mid;
+				left = mid + 1;
 			}
-			// next token is not last in block
 			else {
-				byte nextLength = length[block * SharedUtils.DICT_BLOCK_SIZE + i + 1];
-				int postfixLen = nextLength - nextPrefixSize;
-				next += tokenString.substring(nextTermPtr, nextTermPtr + postfixLen);
-				nextTermPtr += postfixLen;
+				right = mid - 1;
 			}
-			curr = next;
 		}
-		if(curr.compareTo(token) == 0){
-			return i;
+		if (block < 0) {
+			return 0;
 		}
-		return -1;
+		Scratch scratch = SCRATCH.get();
+		int firstInBlock = block * SharedUtils.DICT_BLOCK_SIZE;
+		int blockEnd = Math.min(firstInBlock + SharedUtils.DICT_BLOCK_SIZE, numOfTokens);
+		for (int i = firstInBlock; i < blockEnd; ++i) {
+			int currLength = decodeNext(scratch, i);
+			if (compareBytes(scratch.token, currLength, key, keyLength) >= 0) {
+				return i;
+			}
+		}
+		return blockEnd;
+	}
+
+	/**
+	 * Finds the tokens which start with a prefix. Since the tokens are sorted, they are all the tokens whose index
+	 * is in the range [lowerBound(prefix), prefixUpperBound(prefix)).
+	 * @param prefix the prefix
+	 * @return the index of the first token which is bigger than all the tokens starting with prefix, the
+	 * 		   dictionary's size if there isn't any
+	 */
+	public int prefixUpperBound(String prefix) {
+		Scratch scratch = SCRATCH.get();
+		int keyLength = scratch.encode(prefix);
+		// the smallest key bigger than all the tokens starting with prefix
+		while (keyLength > 0 && scratch.key[keyLength - 1] == (byte)0xFF) {
+			--keyLength;
+		}
+		if (keyLength == 0) {
+			return numOfTokens;
+		}
+		++scratch.key[keyLength - 1];
+		return lowerBound(scratch.key, keyLength);
+	}
+
+	/**
+	 * Finds all the tokens which the automaton accepts. With the transducer, only the paths which the automaton
+	 * doesn't reject are walked, otherwise every token is decoded and run through the automaton.
+	 * @param automaton the automaton
+	 * @return the indices of the accepted tokens, sorted
+	 */
+	public int[] intersect(ByteAutomaton automaton) {
+		if (termFst != null) {
+			return termFst.intersect(automaton);
+		}
+		Scratch scratch = SCRATCH.get();
+		int[] indices = new int[16];
+		int numOfIndices = 0;
+		for (int i = 0; i < numOfTokens; ++i) {
+			int currLength = decodeNext(scratch, i);
+			long state = automaton.getStartState();
+			for (int j = 0; j < currLength && state != ByteAutomaton.DEAD_STATE; ++j) {
+				state = automaton.step(state, scratch.token[j] & 0xFF);
+			}
+			if (state != ByteAutomaton.DEAD_STATE && automaton.isAccept(state)) {
+				if (numOfIndices == indices.length) {
+					indices = Arrays.copyOf(indices, 2 * numOfIndices);
+				}
+				indices[numOfIndices++] = i;
+			}
+		}
+		return Arrays.copyOf(indices, numOfIndices);
+	}
+
+	/**
+	 * @return true iff the tokens were written as a transducer, so intersect() only walks the paths which the
+	 * 		   automaton doesn't reject
+	 */
+	public boolean isTransducer() {
+		return termFst != null;
+	}
+
+	/**
+	 * Checks whether the token at index matches a wildcard pattern, on the token's bytes.
+	 * @param index the token's index in the dictionary
+	 * @param pattern the compiled pattern
+	 * @return true iff the token matches the pattern
+	 */
+	public boolean tokenMatches(int index, WildcardPattern pattern) {
+		if (termFst != null) {
+			byte[] bytes = termFst.getTerm(index).getBytes(StandardCharsets.UTF_8);
+			return pattern.matches(bytes, bytes.length);
+		}
+		Scratch scratch = SCRATCH.get();
+		int firstInBlock = index - index % SharedUtils.DICT_BLOCK_SIZE;
+		int currLength = 0;
+		for (int i = firstInBlock; i <= index; ++i) {
+			currLength = decodeNext(scratch, i);
+		}
+		return pattern.matches(scratch.token, currLength);
+	}
+
+	/**
+	 * @param index the token's index in the dictionary
+	 * @return the token's UTF-8 bytes, decoded without building a String
+	 */
+	public byte[] getTokenBytes(int index) {
+		if (termFst != null) {
+			return termFst.getTerm(index).getBytes(StandardCharsets.UTF_8);
+		}
+		Scratch scratch = SCRATCH.get();
+		int firstInBlock = index - index % SharedUtils.DICT_BLOCK_SIZE;
+		int currLength = 0;
+		for (int i = firstInBlock; i <= index; ++i) {
+			currLength = decodeNext(scratch, i);
+		}
+		return Arrays.copyOf(scratch.token, currLength);
 	}
 
 	/**
 	 * This function gets a block number and a position in block, and return the token appears in this block
-	 * and position.
+	 * and position. Decoded blocks are cached, so repeated calls for the same block only read an array.
 	 * @param block the block number
 	 * @param position the position in block
 	 * @return the token appears in the given block and position
 	 */
 	public String getTokenFromBlock(int block, int position) {
-		String curr = getFirstInBlock(block);
-		int nextTermPtr = termPtr[block * SharedUtils.DICT_BLOCK_SIZE] +
-							length[block * SharedUtils.DICT_BLOCK_SIZE];
-		int i;
-		for(i = 0; i < position; ++i){
-			// update curr to the next token in block
-			byte nextPrefixSize = prefixSizes[block * SharedUtils.DICT_BLOCK_SIZE + i + 1];
-			String next = curr.substring(0, nextPrefixSize);
-			// check if the next token is the last in block
-			if (i + 1 == SharedUtils.DICT_BLOCK_SIZE - 1) {
-				// last in block but not last in dictionary
-				if (block * SharedUtils.DICT_BLOCK_SIZE + i + 1 < postingPtrs.length - 1) {
-					next += tokenString.substring(nextTermPtr,
-													termPtr[block * SharedUtils.DICT_BLOCK_SIZE + i + 2]);
-				}
-				// check if the next token is the last in dictionary
-				else {
-					next += tokenString.substring(nextTermPtr, tokenString.length());
-				}
-			}
-			// next token is not last in block
-			else {
-				byte nextLength = length[block * SharedUtils.DICT_BLOCK_SIZE + i + 1];
-				int postfixLen = nextLength - nextPrefixSize;
-				next += tokenString.substring(nextTermPtr, nextTermPtr + postfixLen);
-				nextTermPtr += postfixLen;
-			}
-			curr = next;
+		if (termFst != null) {
+			return termFst.getTerm(block * SharedUtils.DICT_BLOCK_SIZE + position);
+		}
+		int entry = block & (BLOCK_CACHE_SIZE - 1);
+		DecodedBlock decodedBlock = blockCache.get(entry);
+		if (decodedBlock != null && decodedBlock.block == block) {
+			blockCacheHits.increment();
+			return decodedBlock.tokens[position];
+		}
+		blockCacheMisses.increment();
+		decodedBlock = decodeBlock(block);
+		blockCache.set(entry, decodedBlock);
+		return decodedBlock.tokens[position];
+	}
+
+	/**
+	 * Decodes all the tokens of a block
+	 * @param block the block number
+	 * @return the decoded block
+	 */
+	private DecodedBlock decodeBlock(int block) {
+		checkFrontCoded();
+		Scratch scratch = SCRATCH.get();
+		int firstInBlock = block * SharedUtils.DICT_BLOCK_SIZE;
+		String[] tokens = new String[Math.min(SharedUtils.DICT_BLOCK_SIZE, numOfTokens - firstInBlock)];
+		for (int i = 0; i < tokens.length; ++i) {
+			int currLength = decodeNext(scratch, firstInBlock + i);
+			tokens[i] = new String(scratch.token, 0, currLength, StandardCharsets.UTF_8);
 		}
-		return curr;
+		return new DecodedBlock(block, tokens);
+	}
+
+	/**
+	 * @return the number of getTokenFromBlock calls which found their block already decoded in the cache
+	 */
+	public long getBlockCacheHits() {
+		return blockCacheHits.sum();
+	}
+
+	/**
+	 * @return the number of getTokenFromBlock calls which had to decode their block
+	 */
+	public long getBlockCacheMisses() {
+		return blockCacheMisses.sum();
 	}
 
 	////////////////////////////////////////// getters /////////////////////////////////////////////////////////////////
+	/**
+	 * @return the number of tokens in the dictionary
+	 */
+	public int getSize() {
+		return numOfTokens;
+	}
+
 	/**
 	 * @param index the index of a token in the dictionary
 	 * @return the element in the index place in frequencies, or -1 if index is out of frequencies boundaries
 	 */
 	public int getFrequency(int index){
-		if(index < 0 || index >= frequencies.length){
+		if(index < 0 || index >= numOfTokens){
 			return 0;
 		}
-		return frequencies[index];
+		return table.getInt(getRowOffset(index));
 	}
 
 	/**
@@ -424,10 +797,10 @@ public class Dictionary {
 	 * @return the element in the index place in frequencies, or -1 if index is out of frequencies boundaries
 	 */
 	public int getCollectionFrequency(int index){
-		if(index < 0 || index >= frequencies.length){
+		if(index < 0 || index >= numOfTokens || isPid){
 			return 0;
 		}
-		return collectionFrequencies[index];
+		return table.getInt(getRowOffset(index) + SharedUtils.SIZE_OF_INT);
 	}
 
 	/**
@@ -435,9 +808,9 @@ public class Dictionary {
 	 * @return he element in the index place in postingPtrs, or -1 if index is out of postingPtrs boundaries
 	 */
 	public long getPostingPtr(int index) {
-		if(index < 0 || index >= postingPtrs.length){
+		if(index < 0 || index >= numOfTokens){
 			return -1;
 		}
-		return postingPtrs[index];
+		return table.getLong(getRowOffset(index) + postingPtrOffset);
 	}
 }
@@ -0,0 +1,199 @@
+package webdata;
+
+/**
+ * This class evaluates a query document-at-a-time: it advances the posting lists of all the query's terms together,
+ * in increasing review id order, and computes the full score of each review which contains at least one of the
+ * terms exactly once. Scores are never accumulated per review, they are handed to a Collector as soon as they are
+ * computed, so the memory used is proportional to the number of terms (and to whatever the Collector keeps).
+ */
+public class DocumentAtATimeEvaluator {
+
+	/** the relative slack added to score bounds, so rounding errors never prune a review which should be kept **/
+	private static final double MAX_SCORE_SLACK = 1e-9;
+
+	/**
+	 * Computes the score of a single review given the frequencies of all the query's terms in it
+	 */
+	public static abstract class Scorer {
+
+		/**
+		 * @param reviewId the review's id
+		 * @param frequencies frequencies[i] is the number of times the i-th term appears in the review, 0 if it
+		 *                    does not appear in it
+		 * @return the review's score
+		 */
+		public abstract double score(int reviewId, int[] frequencies);
+	}
+
+	/**
+	 * A Scorer whose score is a sum of independent non-negative contributions of the terms which appear in the
+	 * review (a term which doesn't appear in the review contributes 0). Such a scorer can bound the contribution of
+	 * each term,
+	 * which lets the evaluator skip reviews which can't make it into the top-k results.
+	 */
+	public static abstract class AdditiveScorer extends Scorer {
+
+		/**
+		 * @param term the term's index in the query
+		 * @param reviewId the review's id
+		 * @param frequency the number of times the term appears in the review, at least 1
+		 * @return the term's contribution to the review's score
+		 */
+		public abstract double termScore(int term, int reviewId, int frequency);
+
+		/**
+		 * @param term the term's index in the query
+		 * @return an upper bound of the term's contribution to the score of any review
+		 */
+		public abstract double getMaxScore(int term);
+
+		@Override
+		public double score(int reviewId, int[] frequencies) {
+			double rank = 0.0;
+			for (int i = 0; i < frequencies.length; ++i) {
+				if (frequencies[i] > 0) {
+					rank += termScore(i, reviewId, frequencies[i]);
+				}
+			}
+			return rank;
+		}
+	}
+
+	/**
+	 * Receives the scored reviews, in increasing review id order
+	 */
+	public static abstract class Collector {
+
+		/**
+		 * @param reviewId the review's id
+		 * @param score the review's score
+		 */
+		public abstract void collect(int reviewId, double score);
+	}
+
+	/** The posting lists of the query's terms **/
+	private PostingIterator[] iterators;
+
+	/** The frequencies of the terms in the current review **/
+	private int[] frequencies;
+
+	/**
+	 * Constructor
+	 * @param iterators the (unpositioned) posting lists of the query's terms
+	 */
+	public DocumentAtATimeEvaluator(PostingIterator[] iterators) {
+		this.iterators = iterators;
+		frequencies = new int[iterators.length];
+	}
+
+	/**
+	 * Scores every review which contains at least one of the terms and hands it to the collector
+	 * @param scorer the scoring function
+	 * @param collector the receiver of the scored reviews
+	 */
+	public void evaluate(Scorer scorer, Collector collector) {
+		int numOfTerms = iterators.length;
+		for (PostingIterator iterator : iterators) {
+			iterator.nextReview();
+		}
+		while (true) {
+			int reviewId = PostingIterator.NO_MORE_REVIEWS;
+			for (PostingIterator iterator : iterators) {
+				reviewId = Math.min(reviewId, iterator.reviewId());
+			}
+			if (reviewId == PostingIterator.NO_MORE_REVIEWS) {
+				return;
+			}
+			for (int i = 0; i < numOfTerms; ++i) {
+				if (iterators[i].reviewId() == reviewId) {
+					frequencies[i] = iterators[i].frequency();
+					iterators[i].nextReview();
+				}
+				else {
+					frequencies[i] = 0;
+				}
+			}
+			collector.collect(reviewId, scorer.score(reviewId, frequencies));
+		}
+	}
+
+	/**
+	 * Scores the reviews which may make it into the top-k results and hands them to topK, using the MaxScore
+	 * strategy: the terms are ordered by their maximal contribution, and the terms whose total maximal
+	 * contribution can't beat the current k-th best score are non-essential - a review which contains only them is
+	 * never scored, so only the posting lists of the essential terms drive the iteration, and the non-essential
+	 * ones are skipped with advance(). The results are the same as those of evaluate(scorer, topK).
+	 * @param scorer the scoring function
+	 * @param topK the receiver of the scored reviews
+	 */
+	public void evaluate(AdditiveScorer scorer, TopKHeap topK) {
+		int numOfTerms = iterators.length;
+		// order[0] is the term with the lowest maximal contribution
+		int[] order = new int[numOfTerms];
+		for (int i = 0; i < numOfTerms; ++i) {
+			int j = i;
+			while (j > 0 && scorer.getMaxScore(order[j - 1]) > scorer.getMaxScore(i)) {
+				order[j] = order[j - 1];
+				--j;
+			}
+			order[j] = i;
+		}
+		// boundUpTo[i] bounds the total contribution of the terms order[0], ..., order[i]
+		double[] boundUpTo = new double[numOfTerms];
+		double sum = 0;
+		for (int i = 0; i < numOfTerms; ++i) {
+			sum += scorer.getMaxScore(order[i]);
+			boundUpTo[i] = sum * (1 + MAX_SCORE_SLACK);
+		}
+		for (PostingIterator iterator : iterators) {
+			iterator.nextReview();
+		}
+		int firstEssential = 0;
+		while (true) {
+			double threshold = topK.isFull() ? topK.minScore() : Double.NEGATIVE_INFINITY;
+			while (firstEssential < numOfTerms && boundUpTo[firstEssential] <= threshold) {
+				++firstEssential;
+			}
+			int reviewId = PostingIterator.NO_MORE_REVIEWS;
+			for (int i = firstEssential; i < numOfTerms; ++i) {
+				reviewId = Math.min(reviewId, iterators[order[i]].reviewId());
+			}
+			if (reviewId == PostingIterator.NO_MORE_REVIEWS) {
+				return;
+			}
+			double partialScore = 0;
+			for (int i = firstEssential; i < numOfTerms; ++i) {
+				PostingIterator iterator = iterators[order[i]];
+				if (iterator.reviewId() == reviewId) {
+					frequencies[order[i]] = iterator.frequency();
+					partialScore += scorer.termScore(order[i], reviewId, iterator.frequency());
+					iterator.nextReview();
+				}
+				else {
+					frequencies[order[i]] = 0;
+				}
+			}
+			boolean isPruned = false;
+			for (int i = firstEssential - 1; i >= 0; --i) {
+				if (partialScore * (1 + MAX_SCORE_SLACK) + boundUpTo[i] <= threshold) {
+					isPruned = true;
+					break;
+				}
+				PostingIterator iterator = iterators[order[i]];
+				if (iterator.reviewId() < reviewId) {
+					iterator.advance(reviewId);
+				}
+				if (iterator.reviewId() == reviewId) {
+					frequencies[order[i]] = iterator.frequency();
+					partialScore += scorer.termScore(order[i], reviewId, iterator.frequency());
+				}
+				else {
+					frequencies[order[i]] = 0;
+				}
+			}
+			if (!isPruned) {
+				topK.collect(reviewId, scorer.score(reviewId, frequencies));
+			}
+		}
+	}
+}
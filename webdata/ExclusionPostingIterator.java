@@ -0,0 +1,98 @@
+package webdata;
+
+/**
+ * A PostingIterator over the reviews of one posting list which aren't in another (the NOT of a Boolean query), with
+ * the frequencies of the first list. The excluded list is only skipped with advance() to every candidate, so it's
+ * never decoded further than the included list. If there's no included list, every review is included, with a
+ * frequency of 0.
+ */
+public class ExclusionPostingIterator extends PostingIterator {
+
+	/** The included list, null for all the reviews **/
+	private PostingIterator include;
+
+	/** The excluded list **/
+	private PostingIterator exclude;
+
+	/** The number of reviews, the biggest review id **/
+	private int numOfReviews;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/**
+	 * Constructor
+	 * @param include the included list, or null for all the reviews; it wasn't advanced yet
+	 * @param exclude the excluded list, which wasn't advanced yet
+	 * @param numOfReviews the number of reviews
+	 */
+	public ExclusionPostingIterator(PostingIterator include, PostingIterator exclude, int numOfReviews) {
+		this.include = include;
+		this.exclude = exclude;
+		this.numOfReviews = numOfReviews;
+		reviewId = -1;
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		return (include == null || reviewId < 0) ? 0 : include.frequency();
+	}
+
+	@Override
+	public int nextReview() {
+		if (reviewId == NO_MORE_REVIEWS) {
+			return reviewId;
+		}
+		return toIncluded(nextCandidate(reviewId + 1));
+	}
+
+	@Override
+	public int advance(int target) {
+		if (reviewId >= target) {
+			return reviewId;
+		}
+		return toIncluded(nextCandidate(target));
+	}
+
+	@Override
+	public int cost() {
+		return (include == null) ? numOfReviews : include.cost();
+	}
+
+	/**
+	 * @param target a review id
+	 * @return the first review id of the included list which is at least target, or NO_MORE_REVIEWS
+	 */
+	private int nextCandidate(int target) {
+		if (include != null) {
+			return (include.reviewId() >= target) ? include.reviewId() : include.advance(target);
+		}
+		int candidate = Math.max(target, 1);
+		return (candidate > numOfReviews) ? NO_MORE_REVIEWS : candidate;
+	}
+
+	/**
+	 * Moves to the first candidate, starting from the given one, which isn't in the excluded list
+	 * @param candidate a review id of the included list
+	 * @return the new review id, or NO_MORE_REVIEWS if there is none
+	 */
+	private int toIncluded(int candidate) {
+		while (candidate != NO_MORE_REVIEWS) {
+			int excluded = exclude.reviewId();
+			if (excluded < candidate) {
+				excluded = exclude.advance(candidate);
+			}
+			if (excluded != candidate) {
+				break;
+			}
+			candidate = nextCandidate(candidate + 1);
+		}
+		reviewId = candidate;
+		return reviewId;
+	}
+}
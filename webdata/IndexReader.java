@@ -2,64 +2,76 @@ package webdata;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.Pattern;
 
-public class IndexReader {
+/**
+ * Answers queries about an index which was written by IndexWriter. Once constructed, a reader's state is never
+ * changed - its fields are final, every query reads the index with absolute reads and keeps its intermediate results
+ * in its own objects - so a single reader may be queried by many threads at once, without locks. The only shared
+ * mutable part is the cache of wildcard expansions, which synchronizes itself.
+ * A reader which is no longer needed should be closed, which releases the files it keeps open.
+ */
+public class IndexReader implements Closeable {
 
 	/** Holds all the data of the fields of all the reviews */
-	private Reviews reviews;
+	private final Reviews reviews;
 
 	/** The dictionary part of the index of the tokens */
-	private Dictionary tokensDict;
+	private final Dictionary tokensDict;
 
 	/** The dictionary part of the index of the product ids **/
-	private Dictionary productIdsDict;
+	private final Dictionary productIdsDict;
 
 	/** The inverted index part of the index of the tokens */
-	private InvertedIndex tokenInvertedIndex;
+	private final InvertedIndex tokenInvertedIndex;
 
 	/** The inverted index part of the index of the product ids */
-	private InvertedIndex pidInvertedIndex;
+	private final InvertedIndex pidInvertedIndex;
 
-	/** The bigram index part */
-	private BigramIndex bigramIndex;
+	/** The bigram index part, null if the index has none */
+	private final BigramIndex bigramIndex;
+
+	/** The k-gram index part, null if the index has none */
+	private final KGramIndex kGramIndex;
+
+	/** The positions of the tokens in the reviews, null if the index has none */
+	private final PositionsIndex positionsIndex;
+
+	/** The reviews' summaries and texts, null if the index has none */
+	private final ReviewTextStore reviewTextStore;
 
 	/** The index files' directory */
-	private String dir;
+	private final String dir;
 
-	/** Maps the bigram's String to its bigram's index */
-	private HashMap<String, Integer> bigramDict = new HashMap<String, Integer>();
+	/** The rotated lexicon index part, null if the index has none */
+	private final RotatedLexicon rotatedLexicon;
 
-	/** The rotated lexicon index part */
-	private RotatedLexicon rotatedLexicon;
+	/** Answers the wildcard queries with the index's wildcard structures */
+	private final WildcardPlanner wildcardPlanner;
 
-	/** If true - we implement the rotated lexicon index, else - we implement the bigram index*/
-	private boolean isRotated;
+	/** The recently used wildcard expansions, so a repeated pattern doesn't search the lexicon again */
+	private final WildcardCache wildcardCache = new WildcardCache(WildcardCache.DEFAULT_MAX_WEIGHT);
 
 
 	/**
-	 * Creates an IndexReader which will read from the given directory. Will use rotated index if isRotated is true,
-	 * else will use bigram index
+	 * Creates an IndexReader which will read from the given directory. The wildcard structures are the ones the
+	 * index was written with, so isRotated is ignored.
 	 * @param dir The index files' directory
-	 * @param isRotated a boolean value indicating whether a rotated index will be used or a bigram index.
+	 * @param isRotated a boolean value indicating whether a rotated index was written or a bigram index.
+	 * @throws UncheckedIOException if the index can't be read
 	 */
 	public IndexReader(String dir, boolean isRotated) {
-		this.isRotated = isRotated;
-		this.dir = dir;
-		tokenInvertedIndex = new InvertedIndex();
-		pidInvertedIndex = new InvertedIndex();
+		this(dir);
+	}
 
+	/**
+	 * Creates an IndexReader which will read from the given directory, with whichever of the rotated lexicon, the
+	 * bigram index and the k-gram index the index was written with
+	 * @param dir The index files' directory
+	 * @throws UncheckedIOException if the index can't be read
+	 */
+	public IndexReader(String dir) {
+		this.dir = dir;
 		try {
-			if(isRotated){
-				//read rotatedLexicon from disc
-				rotatedLexicon = new RotatedLexicon(dir);
-			}
-			else{
-				bigramIndex = new BigramIndex();
-				bigramIndex.readBigramIndexFromDisc(dir);
-				SharedUtils.createBigramDictionary(bigramDict);
-			}
-
 			//read review from disc:
 			RandomAccessFile in = new RandomAccessFile(dir + File.separator + SharedUtils.REVIEWS_FILE, "rw");
 			int totalNumOfReviews = in.readInt();
@@ -67,27 +79,64 @@ public class IndexReader {
 			in.close();
 			reviews = new Reviews(totalNumOfReviews, totalNumOfTokens);
 			reviews.readReviews(dir);
+			tokenInvertedIndex = new InvertedIndex(dir, false, totalNumOfReviews);
+			pidInvertedIndex = new InvertedIndex(dir, true, totalNumOfReviews);
 
 			RandomAccessFile inTable = new RandomAccessFile(dir + File.separator +
 					SharedUtils.TOKEN_TABLE_DICT_FILE, "rw");
 			int numOfTokens = inTable.readInt();
 			inTable.close();
 			tokensDict = new Dictionary(numOfTokens, false);
-			tokensDict.readDictionary(dir, SharedUtils.TOKEN_STR_DICT_FILE, SharedUtils.TOKEN_TABLE_DICT_FILE);
+			tokensDict.readDictionary(dir, SharedUtils.TOKEN_STR_DICT_FILE, SharedUtils.TOKEN_TABLE_DICT_FILE,
+					SharedUtils.TOKEN_FST_DICT_FILE);
+			tokensDict.readPerfectHash(dir, SharedUtils.TOKEN_HASH_DICT_FILE);
 
 			inTable = new RandomAccessFile(dir + File.separator + SharedUtils.PID_TABLE_DICT_FILE,"rw");
 			int numOfPIDs = inTable.readInt();
 			inTable.close();
 			productIdsDict = new Dictionary(numOfPIDs, true);
-			productIdsDict.readDictionary(dir, SharedUtils.PID_STR_DICT_FILE, SharedUtils.PID_TABLE_DICT_FILE);
+			productIdsDict.readDictionary(dir, SharedUtils.PID_STR_DICT_FILE, SharedUtils.PID_TABLE_DICT_FILE,
+					SharedUtils.PID_FST_DICT_FILE);
+			productIdsDict.readPerfectHash(dir, SharedUtils.PID_HASH_DICT_FILE);
+
+			//read the wildcard structures the index has from disc
+			BigramIndex bigrams = null;
+			if (fileExists(SharedUtils.BIGRAM_POINTERS_FILE)) {
+				bigrams = new BigramIndex();
+				bigrams.readBigramIndexFromDisc(dir);
+			}
+			bigramIndex = bigrams;
+			rotatedLexicon = fileExists(SharedUtils.ROTATED_LEXICON_FILE) ? new RotatedLexicon(dir, tokensDict) : null;
+			kGramIndex = fileExists(SharedUtils.K_GRAM_POINTERS_FILE) ? new KGramIndex(dir) : null;
+			positionsIndex = fileExists(SharedUtils.POSITIONS_POINTERS_FILE) ? new PositionsIndex(dir) : null;
+			reviewTextStore = fileExists(SharedUtils.REVIEW_TEXTS_POINTERS_FILE) ? new ReviewTextStore(dir) : null;
+			wildcardPlanner = new WildcardPlanner(tokensDict, rotatedLexicon, bigramIndex, kGramIndex);
 
 		} catch (IOException e) {
-			System.err.println("IO Exception error");
-			System.exit(1);
+			throw new UncheckedIOException(e);
 		}
-		catch (ClassNotFoundException e) {
-			System.err.println("ClassNotFoundException error");
-			System.exit(1);
+	}
+
+	/**
+	 * @param name the name of an index file
+	 * @return true iff the file exists in the index's directory
+	 */
+	private boolean fileExists(String name) {
+		return new File(dir + File.separator + name).exists();
+	}
+
+	/**
+	 * Closes the posting lists' files. The other parts of the index are mapped to memory, and their files are closed
+	 * once they're mapped; the mappings are released when the reader is garbage collected. The reader must not be
+	 * queried after it's closed.
+	 */
+	@Override
+	public void close() {
+		try {
+			tokenInvertedIndex.close();
+			pidInvertedIndex.close();
+		} catch (IOException e) {
+			System.err.println("IO Exception error");
 		}
 	}
 
@@ -104,6 +153,33 @@ public class IndexReader {
 		return productIdsDict.getTokenFromBlock(numOfBlock, positionInBlock);
 	}
 
+	/**
+	 * Returns the index of the product of the given review in the product ids' dictionary
+	 * Returns -1 if there is no review with the given identifier
+	 */
+	public int getProductIndex(int reviewId) {
+		if (reviewId > reviews.getNumOfReviews() || reviewId <= 0) {
+			return -1;
+		}
+		return reviews.getNumOfBlock(reviewId - 1) * SharedUtils.DICT_BLOCK_SIZE +
+				reviews.getPositionInBlock(reviewId - 1);
+	}
+
+	/**
+	 * Returns the product identifier whose index in the product ids' dictionary is productIndex
+	 */
+	public String getProductIdOfIndex(int productIndex) {
+		return productIdsDict.getTokenFromBlock(productIndex / SharedUtils.DICT_BLOCK_SIZE,
+				productIndex % SharedUtils.DICT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Return the number of different products in the system
+	 */
+	public int getNumberOfProducts() {
+		return productIdsDict.getSize();
+	}
+
 	/**
 	 * Returns the score for a given review
 	 * Returns -1 if there is no review with the given identifier
@@ -148,6 +224,80 @@ public class IndexReader {
 		return reviews.getLengths(reviewId - 1);
 	}
 
+	/**
+	 * Return true if the index has the reviews' summaries and texts
+	 */
+	public boolean hasReviewTexts() {
+		return reviewTextStore != null;
+	}
+
+	/**
+	 * Returns the original text of a given review
+	 * Returns null if there is no review with the given identifier, or if the index has no texts
+	 */
+	public String getReviewText(int reviewId) {
+		if (reviewTextStore == null || reviewId > reviews.getNumOfReviews() || reviewId <= 0) {
+			return null;
+		}
+		return reviewTextStore.getReviews(new int[] {reviewId}, 1)[0][1];
+	}
+
+	/**
+	 * Returns the summary of a given review
+	 * Returns null if there is no review with the given identifier, or if the index has no texts
+	 */
+	public String getReviewSummary(int reviewId) {
+		if (reviewTextStore == null || reviewId > reviews.getNumOfReviews() || reviewId <= 0) {
+			return null;
+		}
+		return reviewTextStore.getReviews(new int[] {reviewId}, 1)[0][0];
+	}
+
+	/**
+	 * Returns the snippets of a page of results: for every review its summary, a line break, and the window of
+	 * SNIPPET_LENGTH tokens of its text with the most query terms, which are highlighted (see SnippetBuilder). Only
+	 * the compressed blocks of the given reviews are inflated, each of them once.
+	 * Returns null if the index has no texts
+	 * @param reviewIds the ids of the results
+	 * @param queryTerms the query's terms, possibly with wildcards
+	 * @return the snippets, in the order of the ids; a review id which doesn't exist has a null snippet
+	 */
+	public String[] getSnippets(List<Integer> reviewIds, Collection<String> queryTerms) {
+		if (reviewTextStore == null) {
+			return null;
+		}
+		int[] ids = new int[reviewIds.size()];
+		int numOfIds = 0;
+		for (int reviewId : reviewIds) {
+			if (reviewId <= reviews.getNumOfReviews() && reviewId > 0) {
+				ids[numOfIds++] = reviewId;
+			}
+		}
+		String[][] texts = reviewTextStore.getReviews(ids, numOfIds);
+		SnippetBuilder builder = new SnippetBuilder(queryTerms, SharedUtils.SNIPPET_LENGTH);
+		String[] snippets = new String[reviewIds.size()];
+		int j = 0;
+		for (int i = 0; i < snippets.length; ++i) {
+			int reviewId = reviewIds.get(i);
+			if (reviewId <= reviews.getNumOfReviews() && reviewId > 0) {
+				snippets[i] = texts[j][0] + "\n" + builder.build(texts[j][1]);
+				++j;
+			}
+		}
+		return snippets;
+	}
+
+	/**
+	 * Returns the number of tokens in a given review, quantized to a single byte (see Reviews.encodeLengthNorm)
+	 * Returns 0 if there is no review with the given identifier
+	 */
+	public byte getReviewLengthNorm(int reviewId) {
+		if (reviewId > reviews.getNumOfReviews() || reviewId <= 0) {
+			return 0;
+		}
+		return reviews.getLengthNorm(reviewId - 1);
+	}
+
 	/**
 	 * Return the number of reviews containing a given token (i.e., word)
 	 * Returns 0 if there are no reviews containing this token
@@ -155,23 +305,38 @@ public class IndexReader {
 	public int getTokenFrequency(String token) {
 		token = token.toLowerCase();
 		if (token.contains("*")) {
-			HashSet<Integer> tokensIndex = isRotated ? getTokensMatchesRegexRotated(token) :
-																	getTokensMatchesRegexBigram(token);
-			tokensIndex = filterTokens(tokensIndex, token);
-
-
-			int frequency = 0;
-			for (Integer index : tokensIndex) {
-				frequency += tokensDict.getFrequency(index);
-			}
-			return frequency;
+			return getExpansion(token).getFrequency();
 		}
 		else {
-			int index = tokensDict.tokenBinarySearch(token);
+			int index = tokensDict.getTokenIndex(token);
 			return tokensDict.getFrequency(index);
 		}
 	}
 
+	/**
+	 * Return the number of distinct reviews containing a given token. For a token without wildcards it's its
+	 * frequency, and for a token with wildcards it's the size of the union of the matching tokens' posting lists,
+	 * which - unlike the sum of their frequencies - is at most the number of reviews. It's counted with a pass over
+	 * the merged lists, once per cached expansion.
+	 * Returns 0 if there are no reviews containing this token
+	 */
+	public int getTokenNumOfReviews(String token) {
+		token = token.toLowerCase();
+		if (!token.contains("*")) {
+			return getTokenFrequency(token);
+		}
+		WildcardCache.Expansion expansion = getExpansion(token);
+		int numOfReviews = expansion.getNumOfReviews();
+		if (numOfReviews < 0) {
+			numOfReviews = 0;
+			PostingIterator union = getPostingIterator(token);
+			while (union.nextReview() != PostingIterator.NO_MORE_REVIEWS) {
+				++numOfReviews;
+			}
+			expansion.setNumOfReviews(numOfReviews);
+		}
+		return numOfReviews;
+	}
 
 	/**
 	 * Return the number of times that a given token (i.e., word) appears in
@@ -181,16 +346,9 @@ public class IndexReader {
 	public int getTokenCollectionFrequency(String token) {
 		token = token.toLowerCase();
 		if (token.contains("*")) {
-			HashSet<Integer> tokensIndex = isRotated ? getTokensMatchesRegexRotated(token) :
-					getTokensMatchesRegexBigram(token);
-			tokensIndex = filterTokens(tokensIndex, token);
-			int frequency = 0;
-			for (Integer index : tokensIndex) {
-				frequency += tokensDict.getCollectionFrequency(index);
-			}
-			return frequency;
+			return getExpansion(token).getCollectionFrequency();
 		}
-		int index = tokensDict.tokenBinarySearch(token);
+		int index = tokensDict.getTokenIndex(token);
 		return tokensDict.getCollectionFrequency(index);
 	}
 
@@ -203,133 +361,140 @@ public class IndexReader {
 	 * Returns an empty Enumeration if there are no reviews containing this token
 	 */
 	public Enumeration<Integer> getReviewsWithToken(String token) {
+		Vector<Integer> vec = new Vector<Integer>();
+		PostingIterator iterator = getPostingIterator(token);
+		while (iterator.nextReview() != PostingIterator.NO_MORE_REVIEWS) {
+			vec.add(iterator.reviewId());
+			vec.add(iterator.frequency());
+		}
+		return vec.elements();
+	}
+
+	/**
+	 * Returns a cursor over the (review id, frequency) pairs of the reviews containing the given token, sorted by
+	 * review id. If the token contains wildcards, the posting lists of all the matching tokens are merged as they're
+	 * read (see MergedPostingIterator), and their frequencies are summed per review.
+	 * @param token a token, possibly with wildcards
+	 * @return a PostingIterator over the token's posting list, which is empty if no review contains the token
+	 */
+	public PostingIterator getPostingIterator(String token) {
 		token = token.toLowerCase();
 		if (token.contains("*")) {
-			HashSet<Integer> tokensIndex = isRotated ? getTokensMatchesRegexRotated(token) :
-					getTokensMatchesRegexBigram(token);
-			tokensIndex = filterTokens(tokensIndex, token);
-
-			HashMap<Integer, Integer> reviewsAndFrequencies = new HashMap<>();
-			for (Integer index : tokensIndex) {
-				if (index < 0) {
-					continue;
-				}
+			TokenIdSet tokensIndex = getExpansion(token).getTokenIds();
+			PostingIterator[] postingLists = new PostingIterator[tokensIndex.size()];
+			for (int j = 0; j < tokensIndex.size(); ++j) {
+				int index = tokensIndex.get(j);
 				long postingPtr = tokensDict.getPostingPtr(index);
 				int freq = tokensDict.getFrequency(index);
-				ArrayList<Integer[]> postingList = tokenInvertedIndex.readTokenPostingList(dir, postingPtr, freq);
-				for (Integer[] element : postingList) {
-					if (reviewsAndFrequencies.containsKey(element[0])) {
-						reviewsAndFrequencies.put(element[0], reviewsAndFrequencies.get(element[0]) + element[1]);
-					}
-					else {
-						reviewsAndFrequencies.put(element[0], element[1]);
-					}
-				}
+				postingLists[j] = tokenInvertedIndex.getTokenPostingIterator(postingPtr, freq);
 			}
-			TreeMap<Integer, Integer> sorted = new TreeMap<>(reviewsAndFrequencies);
-			Vector<Integer> vec = new Vector<Integer>();
-			for (Map.Entry<Integer, Integer> entry : sorted.entrySet()) {
-				vec.add(entry.getKey());
-				vec.add(entry.getValue());
-			}
-			return vec.elements();
+			return MergedPostingIterator.merge(postingLists, postingLists.length, reviews.getNumOfReviews());
 		}
-		Vector<Integer> vec = new Vector<Integer>();
-		int index = tokensDict.tokenBinarySearch(token);
+		int index = tokensDict.getTokenIndex(token);
 		if (index < 0) {
-			return vec.elements();
+			return new ArrayPostingIterator(new int[0], new int[0], 0);
 		}
 		long postingPtr = tokensDict.getPostingPtr(index);
 		int freq = tokensDict.getFrequency(index);
-		ArrayList<Integer[]> postingList = tokenInvertedIndex.readTokenPostingList(dir, postingPtr, freq);
-		for (Integer[] element : postingList) {
-			vec.add(element[0]);
-			vec.add(element[1]);
-		}
-		return vec.elements();
+		return tokenInvertedIndex.getTokenPostingIterator(postingPtr, freq);
 	}
 
 	/**
-	 * Return a HashSet of tokens ids that matches the regex of token (a word with wildcards)
-	 * @param token a word with wildcards
-	 * @return a HashSet of tokens ids that matches the wildcard token
-	 */
-	private HashSet<Integer> getTokensMatchesRegexBigram(String token) {
-		String newToken = "$" + token + "$";
-		String[] parts = newToken.split("\\*");
-		ArrayList<Integer> bigramsIndex = new ArrayList<>();
-		HashSet<Integer> tokensIndex = new HashSet<>();
-		boolean first = true;
-		boolean noBigram = true;
-		String partToBeCompleted = null;
-		for(String part: parts){
-			if(part.length() >= 2){
-				noBigram = false;
-			}
-			else if(!part.equals("$")){
-				partToBeCompleted = part;
-			}
-		}
-		if(noBigram){
-			if (partToBeCompleted == null) {
-				partToBeCompleted = "$";
-			}
-			parts = new String[74];
-			int i = 0;
-			for(char c : SharedUtils.alphaNumericChars){
-				parts[i] = c + partToBeCompleted;
-				parts[i + 1] = partToBeCompleted + c;
-				i += 2;
-			}
+	 * Return true if the index has the positions of the tokens in the reviews, for phrase and proximity queries
+	 */
+	public boolean hasPositions() {
+		return positionsIndex != null;
+	}
+
+	/**
+	 * Returns cursors over the positions of the given token in the reviews containing it, sorted by review id - one
+	 * for each of the tokens matching it, if it contains wildcards.
+	 * @param token a token, possibly with wildcards
+	 * @return the cursors, an empty array if no token matches, or null if the index has no positions
+	 */
+	public PositionsIndex.Cursor[] getPositionsCursors(String token) {
+		if (positionsIndex == null) {
+			return null;
 		}
-		for (String part : parts) {
-			if (part.length() < 2) {
-				continue;
-			}
-			for (int i = 0; i < part.length() - 1; i++) {
-				String str = String.valueOf(part.charAt(i)) +
-						part.charAt(i + 1);
-				bigramsIndex.add(bigramDict.get(str));
+		token = token.toLowerCase();
+		if (token.contains("*")) {
+			TokenIdSet tokensIndex = getExpansion(token).getTokenIds();
+			PositionsIndex.Cursor[] cursors = new PositionsIndex.Cursor[tokensIndex.size()];
+			for (int j = 0; j < tokensIndex.size(); ++j) {
+				cursors[j] = positionsIndex.getCursor(tokensIndex.get(j));
 			}
+			return cursors;
 		}
-		for (Integer index : bigramsIndex) {
-			long ptr = bigramIndex.getBigramPointer(index);
-			long size  = bigramIndex.getBigramPointer(index + 1) - ptr;
-			if (first) {
-				tokensIndex = bigramIndex.readBigramTokensList(ptr, (int)size);
-				first = false;
-			}
-			else {
-				if(noBigram){
-					tokensIndex.addAll(bigramIndex.readBigramTokensList(ptr, (int) size));
-				}
-				else {
-					tokensIndex.retainAll(bigramIndex.readBigramTokensList(ptr, (int) size));
-				}
-			}
+		int index = tokensDict.getTokenIndex(token);
+		if (index < 0) {
+			return new PositionsIndex.Cursor[0];
 		}
-		return tokensIndex;
+		return new PositionsIndex.Cursor[] {positionsIndex.getCursor(index)};
 	}
 
 	/**
-	 * Doing post-filtering for the tokens ids we got, to make sure they matched the token regex
-	 * @param tokensIndex a HashSet of tokens ids
-	 * @param token a token wih wildcards
-	 * @return a HashSet of tokens ids after post-filtering
+	 * Returns the tokens that match a word with wildcards, with the sums of their frequencies. A recently expanded
+	 * pattern is taken from the cache, otherwise it's expanded with the cheapest of the plans of the index's wildcard
+	 * structures (see WildcardPlanner) and cached.
+	 * @param token a word with wildcards
+	 * @return the expansion of the word
 	 */
-	private HashSet<Integer> filterTokens(HashSet<Integer> tokensIndex, String token) {
-		HashSet<Integer> toRemove = new HashSet<>();
-		for (Integer tokenIndex : tokensIndex) {
-			int blockNumber = tokenIndex / SharedUtils.DICT_BLOCK_SIZE;
-			int position = tokenIndex % SharedUtils.DICT_BLOCK_SIZE;
-			String tokenStr = tokensDict.getTokenFromBlock(blockNumber, position);
-			String regex = token.replaceAll("[*]", ".*");
-			if (!Pattern.matches(regex, tokenStr)) {
-				toRemove.add(tokenIndex);
-			}
+	private WildcardCache.Expansion getExpansion(String token) {
+		String pattern = WildcardCache.normalise(token);
+		WildcardCache.Expansion expansion = wildcardCache.get(pattern);
+		if (expansion != null) {
+			return expansion;
+		}
+		TokenIdSet tokensIndex = wildcardPlanner.getMatchingTokens(pattern);
+		int frequency = 0;
+		int collectionFrequency = 0;
+		for (int i = 0; i < tokensIndex.size(); ++i) {
+			frequency += tokensDict.getFrequency(tokensIndex.get(i));
+			collectionFrequency += tokensDict.getCollectionFrequency(tokensIndex.get(i));
 		}
-		tokensIndex.removeAll(toRemove);
-		return tokensIndex;
+		expansion = new WildcardCache.Expansion(tokensIndex, frequency, collectionFrequency);
+		wildcardCache.put(pattern, expansion);
+		return expansion;
+	}
+
+	/**
+	 * Explains how a word with wildcards is answered: the plans of all the index's wildcard structures which can
+	 * answer it, with their estimated numbers of candidate tokens and costs, from the chosen one (marked with '*')
+	 * to the most expensive one.
+	 * @param token a word with wildcards
+	 * @return a line for each plan
+	 */
+	public String explainWildcard(String token) {
+		return wildcardPlanner.explain(token.toLowerCase());
+	}
+
+	/**
+	 * Return the number of dictionary token decodes (of both tokens and product ids) which were served by the
+	 * dictionaries' caches of decoded blocks
+	 */
+	public long getDictionaryCacheHits() {
+		return tokensDict.getBlockCacheHits() + productIdsDict.getBlockCacheHits();
+	}
+
+	/**
+	 * Return the number of dictionary token decodes (of both tokens and product ids) which had to decode a block
+	 */
+	public long getDictionaryCacheMisses() {
+		return tokensDict.getBlockCacheMisses() + productIdsDict.getBlockCacheMisses();
+	}
+
+	/**
+	 * Return the number of wildcard queries whose expansion was found in the cache
+	 */
+	public long getWildcardCacheHits() {
+		return wildcardCache.getHits();
+	}
+
+	/**
+	 * Return the number of wildcard queries which had to be expanded
+	 */
+	public long getWildcardCacheMisses() {
+		return wildcardCache.getMisses();
 	}
 
 	/**
@@ -354,124 +519,14 @@ public class IndexReader {
 	 */
 	public Enumeration<Integer> getProductReviews(String productId) {
 		Vector<Integer> vec = new Vector<Integer>();
-		int index = productIdsDict.tokenBinarySearch(productId);
+		int index = productIdsDict.getTokenIndex(productId);
 		if (index < 0) {
 			return vec.elements();
 		}
 		long postingPtr = productIdsDict.getPostingPtr(index);
 		int freq = productIdsDict.getFrequency(index);
-		ArrayList<Integer> postingList = pidInvertedIndex.readPidPostingList(dir, postingPtr, freq);
+		ArrayList<Integer> postingList = pidInvertedIndex.readPidPostingList(postingPtr, freq);
 		vec.addAll(postingList);
 		return vec.elements();
 	}
-
-	////////////////////////////////////////// Rotated lexicon methods /////////////////////////////////////////////////
-	/**
-	 * Gets a token with wildcards and return a HashSet of tokens ids that matches the token
-	 * @param token a token with wildcards
-	 * @return a HashSet of tokens ids that matches the token
-	 */
-	private HashSet<Integer> getTokensMatchesRegexRotated(String token) {
-		String newToken = "$" + token;
-		StringBuffer sb = new StringBuffer(newToken);
-		sb.append(newToken);
-		boolean foundWildcard = false;
-		int i = 0;
-		while (!foundWildcard) {
-			if (sb.charAt(i) == '*') {
-				++i;
-				foundWildcard = true;
-			}
-			else {
-				++i;
-			}
-		}
-		String rotated = sb.substring(i, i + newToken.length());
-		String[] parts = rotated.split("\\*");
-		int maxStringSize = 0;
-		String longestPart = null;
-		for (String part : parts) {
-			if(part.length() > maxStringSize){
-				maxStringSize = part.length();
-				longestPart = part;
-			}
-		}
-		return rotatedLexiconBinarySearch(longestPart, 0, rotatedLexicon.getSize());
-	}
-
-	/**
-	 * Performs a binary search i the rotated lexicon table, and returns all the tokens ids that their rotation starts
-	 * with prefix
-	 * @param prefix the prefix we're looking for
-	 * @param l left bound
-	 * @param r right bound
-	 * @return a HashSet of all tokens ids that their rotation starts with prefix
-	 */
-	private HashSet<Integer> rotatedLexiconBinarySearch(String prefix, int l, int r) {
-		if (r >= l) {
-			int mid = l + (r - l) / 2;
-			String rotationStr = getRotatedToken(mid);
-			if (rotationStr.startsWith(prefix)) {
-				return getAllTokensWithPrefix(prefix, mid);
-			}
-			if (rotationStr.compareTo(prefix) > 0) {
-				return rotatedLexiconBinarySearch(prefix, l, mid - 1);
-			}
-			return rotatedLexiconBinarySearch(prefix, mid + 1, r);
-		}
-		return new HashSet<>();
-	}
-
-	/**
-	 * Get the token String by the index in the rotated lexicon index
-	 * @param index the index in the rotated lexicon index table
-	 * @return the String of the token
-	 */
-	private String getRotatedToken(int index) {
-		int tokenIndex = rotatedLexicon.getTokenIndex(index);
-		byte iRotation = rotatedLexicon.getIRotation(index);
-		String token = tokensDict.getTokenFromBlock(tokenIndex / SharedUtils.DICT_BLOCK_SIZE,
-				tokenIndex % SharedUtils.DICT_BLOCK_SIZE);
-		token = "$" + token;
-		StringBuffer sb = new StringBuffer(token);
-		sb.append(token);
-		return sb.substring(iRotation - 1, iRotation - 1 + token.length());
-	}
-
-	/**
-	 * Get all the tokens ids of the rotated tokens, that starts with prefix (going up and down from mid)
-	 * @param prefix the prefix we are looking for
-	 * @param mid the index to start from
-	 * @return a Hash set of token ids
-	 */
-	private HashSet<Integer> getAllTokensWithPrefix(String prefix, int mid) {
-		HashSet<Integer> allTokensIds = new HashSet<>();
-		boolean stillMatches = true;
-		String nextToken;
-		int index = mid;
-		allTokensIds.add(rotatedLexicon.getTokenIndex(mid));
-		while (stillMatches && index > 0) {
-			--index;
-			nextToken = getRotatedToken(index);
-			if (nextToken.startsWith(prefix)) {
-				allTokensIds.add(rotatedLexicon.getTokenIndex(index));
-			}
-			else {
-				stillMatches = false;
-			}
-		}
-		stillMatches = true;
-		index = mid;
-		while (stillMatches && index < rotatedLexicon.getSize() - 1) {
-			++index;
-			nextToken = getRotatedToken(index);
-			if (nextToken.startsWith(prefix)) {
-				allTokensIds.add(rotatedLexicon.getTokenIndex(index));
-			}
-			else {
-				stillMatches = false;
-			}
-		}
-		return allTokensIds;
-	}
 }
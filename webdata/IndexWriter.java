@@ -13,6 +13,7 @@ public class IndexWriter {
 	private static final String HELPFULNESS_PREFIX = "review/helpfulness: ";
 	private static final String SCORE_PREFIX = "review/score: ";
 	private static final String TIME_PREFIX = "review/time: ";
+	private static final String SUMMARY_PREFIX = "review/summary: ";
 
 	////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
@@ -64,6 +65,12 @@ public class IndexWriter {
 	/** The current number of merge iteration of the token trios files **/
 	private int mergeIterationTokenNum = 0;
 
+	/** The number of files created for positions sorted trios **/
+	private int numOfPositionTriosFile = 0;
+
+	/** The current number of merge iteration of the position trios files **/
+	private int mergeIterationPositionNum = 0;
+
 	/** An array of tokens trios (token id, review id, frequency) **/
 	private int[][] tokensTrios = new int[SharedUtils.TOKEN_NUM_TRIOS_IN_MEMORY][3];
 
@@ -73,6 +80,12 @@ public class IndexWriter {
 	/** The current number of token trios in tokensTrios array**/
 	private int curNumOfTokensTrios = 0;
 
+	/** An array of positions trios (token id, review id, position), allocated only if positions are written **/
+	private int[][] positionTrios;
+
+	/** The current number of position trios in positionTrios array**/
+	private int curNumOfPositionTrios = 0;
+
 	/** The current number of bigram paris in bigramPairs array**/
 	private int curNumOfBigramPairs = 0;
 
@@ -82,16 +95,35 @@ public class IndexWriter {
 	/** The rotated lexicon's index part */
 	private RotatedLexicon rotatedLexicon;
 
-	/** True if using rotated lexicon, false if using bigram index */
-	private boolean isRotated;
+	/** True if the rotated lexicon is written */
+	private boolean withRotatedLexicon;
+
+	/** True if the bigram index is written */
+	private boolean withBigramIndex;
+
+	/** True if the dictionaries' tokens are written as finite-state transducers, false if front coded */
+	private boolean useFst;
+
+	/** The length of the grams of the k-gram index which is written alongside the bigram index, 0 for none */
+	private int kGramLength;
+
+	/** True if the positions of the tokens in the reviews are written, for phrase and proximity queries */
+	private boolean withPositions;
+
+	/** True if the reviews' summaries and texts are stored, for showing the results of a search */
+	private boolean withTexts;
+
+	/** The store of the reviews' summaries and texts, null if they're not stored */
+	private ReviewTextStore reviewTextStore;
 
 	/**
-	 * an enum for the pair type - product id / token id / bigram id
+	 * an enum for the pair type - product id / token id / bigram id / token position
 	 */
 	enum pairType {
 		PID,
 		TOKEN,
-		BIGRAM
+		BIGRAM,
+		POSITION
 	}
 
 	/**
@@ -107,6 +139,22 @@ public class IndexWriter {
 		}
 	};
 
+	/**
+	 * A comparator between two int arrays of size at least 3, which also orders the positions of a token in a review
+	 */
+	private Comparator<int[]> triosComparator = new Comparator<int[]>() {
+		@Override
+		public int compare(int[] o1, int[] o2) {
+			if (o1[0] != o2[0]) {
+				return o1[0] - o2[0];
+			}
+			if (o1[1] != o2[1]) {
+				return o1[1] - o2[1];
+			}
+			return o1[2] - o2[2];
+		}
+	};
+
 	/**
 	 * A comparator between two Pair<String, Pair<Integer, Byte>>> objects
 	 */
@@ -118,6 +166,105 @@ public class IndexWriter {
 				}
 			};
 
+	/**
+	 * The optional parts of an index and their formats, for write(inputFile, dir, options). By default, what
+	 * write(inputFile, dir, false) writes is written: a bigram index and front coded dictionaries, without a k-gram
+	 * index, positions or texts.
+	 * Any of the wildcard structures - the rotated lexicon, the bigram index and the k-gram index - may be written
+	 * together, and the reader's wildcard planner chooses between the ones it finds. The setters return the options,
+	 * so they can be chained.
+	 */
+	public static class Options {
+
+		/** True if the rotated lexicon is written */
+		private boolean withRotatedLexicon;
+
+		/** True if the bigram index is written */
+		private boolean withBigramIndex = true;
+
+		/** True if the dictionaries' tokens are written as finite-state transducers, false if front coded */
+		private boolean useFst;
+
+		/** The length of the grams of the k-gram index, 0 for none */
+		private int kGramLength;
+
+		/** True if the positions of the tokens in the reviews are written */
+		private boolean withPositions;
+
+		/** True if the reviews' summaries and texts are stored */
+		private boolean withTexts;
+
+		/**
+		 * Chooses one of the rotated lexicon and the bigram index, as write(inputFile, dir, isRotated) does
+		 * @param isRotated a boolean value indicating whether a rotated index will be used or a bigram index.
+		 * @return these options
+		 */
+		public Options setRotated(boolean isRotated) {
+			this.withRotatedLexicon = isRotated;
+			this.withBigramIndex = !isRotated;
+			return this;
+		}
+
+		/**
+		 * @param withRotatedLexicon a boolean value indicating whether a rotated lexicon will be written.
+		 * @return these options
+		 */
+		public Options setRotatedLexicon(boolean withRotatedLexicon) {
+			this.withRotatedLexicon = withRotatedLexicon;
+			return this;
+		}
+
+		/**
+		 * @param withBigramIndex a boolean value indicating whether a bigram index will be written.
+		 * @return these options
+		 */
+		public Options setBigramIndex(boolean withBigramIndex) {
+			this.withBigramIndex = withBigramIndex;
+			return this;
+		}
+
+		/**
+		 * @param useFst a boolean value indicating whether the dictionaries' tokens will be written as finite-state
+		 *               transducers (which also support prefix and range enumeration) or front coded.
+		 * @return these options
+		 */
+		public Options setFst(boolean useFst) {
+			this.useFst = useFst;
+			return this;
+		}
+
+		/**
+		 * @param kGramLength the length of the grams of a k-gram index, which is written alongside the rotated
+		 *                    lexicon or the bigram index, so the reader's wildcard planner can choose between them. 0
+		 *                    for no k-gram index.
+		 * @return these options
+		 */
+		public Options setKGramLength(int kGramLength) {
+			this.kGramLength = kGramLength;
+			return this;
+		}
+
+		/**
+		 * @param withPositions a boolean value indicating whether the positions of the tokens in the reviews will be
+		 *                      written too, in files of their own, for phrase and proximity queries.
+		 * @return these options
+		 */
+		public Options setPositions(boolean withPositions) {
+			this.withPositions = withPositions;
+			return this;
+		}
+
+		/**
+		 * @param withTexts a boolean value indicating whether the reviews' summaries and texts will be stored too,
+		 *                  compressed, so the reader can show the texts and snippets of the results.
+		 * @return these options
+		 */
+		public Options setTexts(boolean withTexts) {
+			this.withTexts = withTexts;
+			return this;
+		}
+	}
+
 	/**
 	 * Given product review data, creates an on disk index
 	 * @param inputFile is the path to the file containing the review data
@@ -126,7 +273,25 @@ public class IndexWriter {
 	 * @param isRotated a boolean value indicating whether a rotated index will be used or a bigram index.
 	 */
 	public void write(String inputFile, String dir, boolean isRotated) {
-		this.isRotated = isRotated;
+		write(inputFile, dir, new Options().setRotated(isRotated));
+	}
+
+	/**
+	 * Given product review data, creates an on disk index, as write(inputFile, dir, isRotated) does
+	 * @param inputFile is the path to the file containing the review data
+	 * @param dir is the directory in which all index files will be created
+	 * @param options the optional parts of the index and their formats
+	 */
+	public void write(String inputFile, String dir, Options options) {
+		this.withTexts = options.withTexts;
+		this.withRotatedLexicon = options.withRotatedLexicon;
+		this.withBigramIndex = options.withBigramIndex;
+		this.useFst = options.useFst;
+		this.kGramLength = options.kGramLength;
+		this.withPositions = options.withPositions;
+		if (withPositions) {
+			positionTrios = new int[SharedUtils.TOKEN_NUM_TRIOS_IN_MEMORY][3];
+		}
 		try {
 			File directory = new File(dir);
 			if (!directory.exists()) {
@@ -137,21 +302,30 @@ public class IndexWriter {
 			}
 			createTokensAndPid(inputFile); // fills tokensArray and productIdsArray
 
-			if(isRotated){
+			if (withRotatedLexicon) {
 				createRotatedLexiconIndex(dir);
-				createReviewsAndSortPairsBlocks(inputFile, dir);
-				merge(numOfPidPairsFile, pairType.PID, dir);
-				merge(numOfTokensTriosFile, pairType.TOKEN, dir);
 			}
 			else {
+				removeFileIfExists(dir, SharedUtils.ROTATED_LEXICON_FILE);
+			}
+			if (withBigramIndex) {
 				SharedUtils.createBigramDictionary(bigramDict);
 				createBigramPairs(dir);
-				createReviewsAndSortPairsBlocks(inputFile, dir);
-				merge(numOfPidPairsFile, pairType.PID, dir);
-				merge(numOfTokensTriosFile, pairType.TOKEN, dir);
+			}
+			createReviewsAndSortPairsBlocks(inputFile, dir);
+			merge(numOfPidPairsFile, pairType.PID, dir);
+			merge(numOfTokensTriosFile, pairType.TOKEN, dir);
+			if (withBigramIndex) {
 				merge(numOfBigramPairsFile, pairType.BIGRAM, dir);
 				writeBigramIndexToDisc(dir);
 			}
+			else {
+				removeFileIfExists(dir, SharedUtils.BIGRAM_INDEX_FILE);
+				removeFileIfExists(dir, SharedUtils.BIGRAM_POINTERS_FILE);
+			}
+			merge(numOfPositionTriosFile, pairType.POSITION, dir);
+			writePositionsToDisc(dir);
+			writeKGramIndexToDisc(dir);
 			writeReviewsToDisc(dir);
 			writePostingListsToDisc(dir);
 			writeDictionariesToDisc(dir);
@@ -176,6 +350,7 @@ public class IndexWriter {
 		pidPostingPtrs = null;
 		pidFrequencies = null;
 		tokensTrios = null;
+		positionTrios = null;
 	}
 
 	/**
@@ -252,6 +427,13 @@ public class IndexWriter {
 		int numOfPidPairsInMemory = (int)Math.ceil(SharedUtils.MAIN_MEMORY_SIZE / (2 * SharedUtils.SIZE_OF_INT));
 		int[][] pidPairs = new int[numOfPidPairsInMemory][2];
 		int curNumOfPidPairs = 0;
+		if (withTexts) {
+			reviewTextStore = new ReviewTextStore(dir, numOfReviews);
+		}
+		else {
+			removeFileIfExists(dir, SharedUtils.REVIEW_TEXTS_FILE);
+			removeFileIfExists(dir, SharedUtils.REVIEW_TEXTS_POINTERS_FILE);
+		}
 
 		while (data != null) { // one loop processes one review
 			String productId = extractProductId(myReader, data); // processing the product id
@@ -292,7 +474,14 @@ public class IndexWriter {
 			}
 			String score2 = score.toString().replace(SCORE_PREFIX, "");
 			reviews.setScore(reviewId, (byte)Double.parseDouble(score2));
+
+			//processing the summary field of the review:
+			StringBuilder summary = new StringBuilder();
 			while(data != null && !data.startsWith(TEXT_PREFIX)) {
+				if (summary.length() > 0 || data.startsWith(SUMMARY_PREFIX)) {
+					summary.append(data);
+					summary.append("\n");
+				}
 				data = myReader.readLine();
 			}
 
@@ -305,6 +494,10 @@ public class IndexWriter {
 			}
 			int length = processReviewText(txt.toString(), reviewId + 1, dir);
 			reviews.setLengths(reviewId, length);
+			if (withTexts) {
+				reviewTextStore.addReview(reviewId + 1, summary.toString().replace(SUMMARY_PREFIX, "").trim(),
+						txt.toString().replace(TEXT_PREFIX, "").trim());
+			}
 			++reviewId;
 		}
 		if (curNumOfPidPairs > 0) {
@@ -314,7 +507,14 @@ public class IndexWriter {
 		if (curNumOfTokensTrios > 0) {
 			writeTokensTriosToDisc(dir);
 		}
-		if (!isRotated && (curNumOfBigramPairs < SharedUtils.NUM_PAIRS_IN_MEMORY)) {
+		if (curNumOfPositionTrios > 0) {
+			writePositionTriosToDisc(dir);
+		}
+		if (withTexts) {
+			reviewTextStore.close();
+			reviewTextStore = null;
+		}
+		if (withBigramIndex && (curNumOfBigramPairs < SharedUtils.NUM_PAIRS_IN_MEMORY)) {
 			writePidsPairsToDisc(bigramPairs, dir, curNumOfBigramPairs, SharedUtils.NUM_PAIRS_IN_MEMORY, dir + File.separator +
 					SharedUtils.BIGRAM_PAIRS_FILE + mergeIterationBigramNum + "_" + numOfBigramPairsFile, false);
 			curNumOfBigramPairs = 0;
@@ -375,6 +575,29 @@ public class IndexWriter {
 		out.close();
 	}
 
+	/**
+	 * Sorts and writes to the disc a block of (token id, review id, position) trios.
+	 * @param dir the directory in which all index files will be created.
+	 * @throws IOException
+	 */
+	private void writePositionTriosToDisc(String dir) throws IOException{
+		if (curNumOfPositionTrios < SharedUtils.TOKEN_NUM_TRIOS_IN_MEMORY) {
+			positionTrios = Arrays.copyOfRange(positionTrios, 0, curNumOfPositionTrios);
+		}
+		Arrays.sort(positionTrios, triosComparator);
+		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.POSITION_TRIOS_FILE + mergeIterationPositionNum + "_" + numOfPositionTriosFile));
+		++numOfPositionTriosFile;
+		ByteBuffer buffer = ByteBuffer.allocate(curNumOfPositionTrios * 3 * SharedUtils.SIZE_OF_INT);
+		for (int i = 0; i < curNumOfPositionTrios; ++i) {
+			buffer.putInt(positionTrios[i][0]);
+			buffer.putInt(positionTrios[i][1]);
+			buffer.putInt(positionTrios[i][2]);
+		}
+		out.write(buffer.array());
+		out.close();
+	}
+
 	/**
 	 * Normalizing the text by converting it to lowercase, then splitting it to tokens and finally updates
 	 * each token's posting list's data.
@@ -390,6 +613,9 @@ public class IndexWriter {
 		int length = 0;
 		for (String token: tokensArray) {
 			if (!token.equals("")) {
+				if (withPositions) {
+					addPositionTrio(token, reviewId, length, dir);
+				}
 				++length;
 				if (localDict.containsKey(token)) {
 					localDict.replace(token, localDict.get(token) + 1);
@@ -417,6 +643,26 @@ public class IndexWriter {
 		return length;
 	}
 
+	/**
+	 * Adds the (token id, review id, position) trio of a token's appearance to the positionTrios array, and writes
+	 * the array to the disc when it's full.
+	 * @param token the token
+	 * @param reviewId the id of the current review we are processing.
+	 * @param position the index of the token among the review's tokens.
+	 * @param dir the directory in which all index files will be created.
+	 * @throws IOException
+	 */
+	private void addPositionTrio(String token, int reviewId, int position, String dir) throws IOException{
+		positionTrios[curNumOfPositionTrios][0] = Collections.binarySearch(this.tokensArray, token);
+		positionTrios[curNumOfPositionTrios][1] = reviewId;
+		positionTrios[curNumOfPositionTrios][2] = position;
+		++curNumOfPositionTrios;
+		if (curNumOfPositionTrios == SharedUtils.TOKEN_NUM_TRIOS_IN_MEMORY) {
+			writePositionTriosToDisc(dir);
+			curNumOfPositionTrios = 0;
+		}
+	}
+
 	/**
 	 * Merges the files of the product id pairs / token trios into one file on the disc.
 	 * @param totalNumOfFilesToMerge number of files to merge.
@@ -436,6 +682,9 @@ public class IndexWriter {
 				case BIGRAM:
 					++mergeIterationBigramNum;
 					break;
+				case POSITION:
+					++mergeIterationPositionNum;
+					break;
 			}
 			int left = 0, right = Math.min(totalNumOfFilesToMerge, SharedUtils.M - 1);
 			int newTotalNumOfFilesToMerge = 0;
@@ -484,6 +733,13 @@ public class IndexWriter {
 				subNameFile = SharedUtils.BIGRAM_PAIRS_FILE + mergeIterationBigramNum;
 				iteration = mergeIterationBigramNum;
 				break;
+			case POSITION:
+				fileName = SharedUtils.POSITION_TRIOS_FILE;
+				subNameFile = SharedUtils.POSITION_TRIOS_FILE + mergeIterationPositionNum;
+				sizeOfBuffer = SharedUtils.TOKEN_TRIOS_BLOCK_SIZE;
+				iteration = mergeIterationPositionNum;
+				isPair = false;
+				break;
 		}
 		int numOfFiles = right - left;
 		BufferedInputStream[] inputs = new BufferedInputStream[numOfFiles];
@@ -492,7 +748,8 @@ public class IndexWriter {
 										subNameFile + "_" + outFileNum));
 		ByteBuffer[] buffers = new ByteBuffer[numOfFiles];
 		byte[] localBuffer = new byte[sizeOfBuffer];
-		PriorityQueue<int[]> minHeap = new PriorityQueue<>(numOfFiles, arraysComparator);
+		PriorityQueue<int[]> minHeap = new PriorityQueue<>(numOfFiles,
+				(type == pairType.POSITION) ? triosComparator : arraysComparator);
 		ByteBuffer outBuffer = ByteBuffer.allocate(sizeOfBuffer);
 		int numOfDone = 0;
 		for (int i = 0; i < numOfFiles; ++i) {
@@ -562,6 +819,10 @@ public class IndexWriter {
 				file = new File(dir + File.separator + SharedUtils.BIGRAM_PAIRS_FILE +
 						iteration + "_" + index);
 				break;
+			case POSITION:
+				file = new File(dir + File.separator + SharedUtils.POSITION_TRIOS_FILE +
+						iteration + "_" + index);
+				break;
 
 		}
 		if(!file.delete())
@@ -573,7 +834,7 @@ public class IndexWriter {
 	/**
 	 * Reads from a buffer a product id pair / token trio.
 	 * @param isPair true if the files are of (product id, review id) pairs, false if the files are of
-	 *              (token id, review id, frequency) trios.
+	 *              (token id, review id, frequency) or (token id, review id, position) trios.
 	 * @param buffer the buffer to read from.
 	 * @param index the index of the file(relative to all files to be merged) from which the pair / trio was read.
 	 * @return a product id pair / token trio from buffer.
@@ -635,6 +896,9 @@ public class IndexWriter {
 		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
 				SharedUtils.REVIEWS_FILE));
 		reviews.writeReviewsToDisc(out);
+		BufferedOutputStream normsOut = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.REVIEW_NORMS_FILE));
+		reviews.writeLengthNormsToDisc(normsOut);
 	}
 
 	/**
@@ -649,7 +913,7 @@ public class IndexWriter {
 												SharedUtils.TOKENS_INVERTED_FILE));
 		String mergesFile1 = dir + File.separator + SharedUtils.TOKEN_TRIOS_FILE +
 				mergeIterationTokenNum + "_" + 0;
-		InvertedIndex invertedList1 = new InvertedIndex(false, mergesFile1);
+		InvertedIndex invertedList1 = new InvertedIndex(false, mergesFile1, numOfReviews);
 		tokensPostingPtrs = new long[tokensArray.size()];
 		tokensFrequencies = new int[tokensArray.size()];
 		tokensCollectionFrequencies = new int[tokensArray.size()];
@@ -665,7 +929,7 @@ public class IndexWriter {
 												SharedUtils.PID_INVERTED_FILE));
 		String mergesFile2 = dir + File.separator + SharedUtils.PID_PAIRS_FILE +
 				mergeIterationPidNum + "_" + 0;
-		InvertedIndex invertedList2 = new InvertedIndex(true, mergesFile2);
+		InvertedIndex invertedList2 = new InvertedIndex(true, mergesFile2, numOfReviews);
 		pidPostingPtrs = new long[productIdsArray.size()];
 		pidFrequencies = new int[productIdsArray.size()];
 		invertedList2.writePidsPostingLists(out2, productIdsArray.size(),pidFrequencies, pidPostingPtrs);
@@ -674,11 +938,31 @@ public class IndexWriter {
 		out2.close();
 		removeFile(pairType.TOKEN, dir, mergeIterationTokenNum, 0);
 		removeFile(pairType.PID, dir, mergeIterationPidNum, 0);
-		if (!isRotated) {
+		if (withBigramIndex) {
 			removeFile(pairType.BIGRAM, dir, mergeIterationBigramNum, 0);
 		}
 	}
 
+	/**
+	 * Writes the positions of the tokens in the reviews to the disc, from the merged position trios file, or removes
+	 * the positions of a previous index from the directory if they're not written.
+	 * @param dir the name of the directory in which the files of the index will be created.
+	 * @throws IOException
+	 */
+	private void writePositionsToDisc(String dir) throws IOException{
+		if (!withPositions) {
+			removeFileIfExists(dir, SharedUtils.POSITIONS_FILE);
+			removeFileIfExists(dir, SharedUtils.POSITIONS_POINTERS_FILE);
+			return;
+		}
+		String mergedFile = dir + File.separator + SharedUtils.POSITION_TRIOS_FILE + mergeIterationPositionNum + "_" + 0;
+		PositionsIndex positionsIndex = new PositionsIndex(mergedFile, tokensArray.size());
+		positionsIndex.writeToDisc(dir);
+		if (numOfPositionTriosFile > 0) {
+			removeFile(pairType.POSITION, dir, mergeIterationPositionNum, 0);
+		}
+	}
+
 	/**
 	 * Writes the dictionaries of both tokens and productIds to two different files on the disc.
 	 * @param dir the name of the directory in which the files of the index will be created.
@@ -688,20 +972,84 @@ public class IndexWriter {
 		// TOKENS' DICTIONARY
 		Dictionary tokensDict = new Dictionary(tokensArray, tokensFrequencies, tokensPostingPtrs,
 												tokensCollectionFrequencies, false);
-		BufferedWriter tokenStrOut = new BufferedWriter(new FileWriter(dir +
-				File.separator + SharedUtils.TOKEN_STR_DICT_FILE));
-		BufferedOutputStream tokenTableOut = new BufferedOutputStream(new FileOutputStream(dir +
-				File.separator + SharedUtils.TOKEN_TABLE_DICT_FILE));
-		tokensDict.writeDictionaryToDisc(tokenStrOut, tokenTableOut);
+		writeDictionaryToDisc(tokensDict, tokensArray, dir, SharedUtils.TOKEN_STR_DICT_FILE,
+				SharedUtils.TOKEN_TABLE_DICT_FILE, SharedUtils.TOKEN_FST_DICT_FILE, SharedUtils.TOKEN_HASH_DICT_FILE);
 
 		// PRODUCT IDS' DICTIONARY
 		Dictionary productIdsDict = new Dictionary(productIdsArray, pidFrequencies, pidPostingPtrs,
 									null, true);
-		BufferedWriter pidStrOut = new BufferedWriter(new FileWriter(dir +
-				File.separator + SharedUtils.PID_STR_DICT_FILE));
-		BufferedOutputStream pidTableOut = new BufferedOutputStream(new FileOutputStream(dir +
-				File.separator + SharedUtils.PID_TABLE_DICT_FILE));
-		productIdsDict.writeDictionaryToDisc(pidStrOut, pidTableOut);
+		writeDictionaryToDisc(productIdsDict, productIdsArray, dir, SharedUtils.PID_STR_DICT_FILE,
+				SharedUtils.PID_TABLE_DICT_FILE, SharedUtils.PID_FST_DICT_FILE, SharedUtils.PID_HASH_DICT_FILE);
+	}
+
+	/**
+	 * Writes a dictionary to the disc. Its table is always written, and its tokens are written either front coded
+	 * together with their perfect hash, or as a finite-state transducer. The files of the other representation
+	 * are removed, since the reader chooses the representation by the files which exist.
+	 * @param dictionary the dictionary
+	 * @param tokens the sorted tokens of the dictionary
+	 * @param dir the name of the directory in which the files of the index will be created.
+	 * @param nameOfStrFile the name of the front coded tokens' file
+	 * @param nameOfTableFile the name of the table's file
+	 * @param nameOfFstFile the name of the transducer's file
+	 * @param nameOfHashFile the name of the perfect hash's file
+	 * @throws IOException
+	 */
+	private void writeDictionaryToDisc(Dictionary dictionary, ArrayList<String> tokens, String dir,
+									   String nameOfStrFile, String nameOfTableFile, String nameOfFstFile,
+									   String nameOfHashFile) throws IOException {
+		BufferedOutputStream strOut = null;
+		if (useFst) {
+			removeFileIfExists(dir, nameOfStrFile);
+			removeFileIfExists(dir, nameOfHashFile);
+			BufferedOutputStream fstOut = new BufferedOutputStream(new FileOutputStream(dir +
+					File.separator + nameOfFstFile));
+			Dictionary.writeTermFstToDisc(tokens, fstOut);
+		}
+		else {
+			removeFileIfExists(dir, nameOfFstFile);
+			strOut = new BufferedOutputStream(new FileOutputStream(dir + File.separator + nameOfStrFile));
+		}
+		BufferedOutputStream tableOut = new BufferedOutputStream(new FileOutputStream(dir +
+				File.separator + nameOfTableFile));
+		dictionary.writeDictionaryToDisc(strOut, tableOut);
+		if (!useFst) {
+			writePerfectHashToDisc(dictionary, dir, nameOfHashFile);
+		}
+	}
+
+	/**
+	 * Removes a file of a previous index from the directory, if it exists
+	 * @param dir the name of the directory in which the files of the index will be created.
+	 * @param name the file's name
+	 */
+	private void removeFileIfExists(String dir, String name) {
+		File file = new File(dir + File.separator + name);
+		if (file.exists() && !file.delete()) {
+			System.err.println("Failed to delete the file " + file.toString());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes the minimal perfect hash of a dictionary's tokens to the disc. The file is optional - if the hash
+	 * couldn't be built the file is not written, and the reader falls back to binary search.
+	 * @param dictionary the dictionary
+	 * @param dir the name of the directory in which the files of the index will be created.
+	 * @param nameOfHashFile the name of the perfect hash's file
+	 * @throws IOException
+	 */
+	private void writePerfectHashToDisc(Dictionary dictionary, String dir, String nameOfHashFile)
+			throws IOException {
+		PerfectHash perfectHash = dictionary.buildPerfectHash();
+		if (perfectHash.isBuilt()) {
+			BufferedOutputStream hashOut = new BufferedOutputStream(new FileOutputStream(dir +
+					File.separator + nameOfHashFile));
+			perfectHash.writeToDisc(hashOut);
+		}
+		else {
+			removeFileIfExists(dir, nameOfHashFile);
+		}
 	}
 
 	/**
@@ -745,6 +1093,21 @@ public class IndexWriter {
 		bigramIndex.writeBigramPointersToDisc(dir);
 	}
 
+	/**
+	 * Writes the k-gram index to disc, or removes the k-gram index of a previous index if there's no k-gram index
+	 * @param dir the name of the directory in which the files of the index will be created.
+	 * @throws IOException
+	 */
+	private void writeKGramIndexToDisc(String dir) throws IOException {
+		if (kGramLength <= 0) {
+			removeFileIfExists(dir, SharedUtils.K_GRAM_INDEX_FILE);
+			removeFileIfExists(dir, SharedUtils.K_GRAM_POINTERS_FILE);
+			return;
+		}
+		KGramIndex kGramIndex = new KGramIndex(tokensArray, kGramLength, SharedUtils.NUM_OF_K_GRAM_IDS);
+		kGramIndex.writeToDisc(dir);
+	}
+
 	/**
 	 * For all token in the tokensArray, creates its bigrams pairs
 	 * @param dir the name of the directory in which the files of the index will be created.
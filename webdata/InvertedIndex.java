@@ -3,11 +3,19 @@ package webdata;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class contains all the relevant information for writing and reading all the posting lists, to and
- * from the disc. This class implements the Length-precoded Varint compression.
+ * from the disc. This class implements the Length-precoded Varint compression, except for the posting lists of the
+ * tokens which appear in a large fraction of the reviews (see SharedUtils.isBitmapPostingList), which are written
+ * as roaring-style bitmaps with bit-packed frequencies.
+ * The reader keeps the posting lists file open, and reads every posting list with a positional read into a buffer
+ * of its own, which doesn't move any shared file position, so several threads can read posting lists at once.
  */
 public class InvertedIndex {
 
@@ -30,21 +38,43 @@ public class InvertedIndex {
 	/** The input file (the sorted and merged file of the pairs\trios) **/
 	private BufferedInputStream in;
 
+	/** The posting lists file (read phase only) **/
+	private FileChannel postingsFile;
+
+	/** The number of reviews, which decides which posting lists are bitmaps **/
+	private int numOfReviews;
+
+	/** The review ids of the token whose posting list is being written (write phase) **/
+	private int[] listReviewIds = new int[0];
+
+	/** The frequencies of the token whose posting list is being written (write phase) **/
+	private int[] listFrequencies = new int[0];
+
 	/**
 	 * Constructor - for the IndexReader
+	 * @param dir the name of the directory in which the files of the index was created.
+	 * @param isPid true iff this inverted index is the pid's inverted index
+	 * @param numOfReviews the number of reviews
+	 * @throws IOException
 	 */
-	public InvertedIndex() {
+	public InvertedIndex(String dir, boolean isPid, int numOfReviews) throws IOException {
 		offset = 0;
+		this.isPid = isPid;
+		this.numOfReviews = numOfReviews;
+		String fileName = isPid ? SharedUtils.PID_INVERTED_FILE : SharedUtils.TOKENS_INVERTED_FILE;
+		postingsFile = FileChannel.open(Paths.get(dir, fileName), StandardOpenOption.READ);
 	}
 
 	/**
 	 * Constructor - for the IndexWriter
 	 * @param isPid true iff this inverted index is the pid's inverted index
 	 * @param mergedFile a string of the input file's path of the sorted pairs\trios
+	 * @param numOfReviews the number of reviews
 	 * @throws IOException
 	 */
-	public InvertedIndex(boolean isPid, String mergedFile) throws IOException{
+	public InvertedIndex(boolean isPid, String mergedFile, int numOfReviews) throws IOException{
 		offset = 0;
+		this.numOfReviews = numOfReviews;
 		if (isPid) {
 			bufferSize = (int)(Math.floor(SharedUtils.MEM_BLOCK_SIZE / (2 * SharedUtils.SIZE_OF_INT))
 																					* (2 * SharedUtils.SIZE_OF_INT));
@@ -61,71 +91,63 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * This function reads a token's posting list from the disc, and returns it
-	 * @param dir the name of the directory in which the files of the index was created.
+	 * This function reads a token's encoded posting list from the disc, and returns a cursor which decodes it
+	 * lazily, one (review id, frequency) pair at a time.
 	 * @param postingPtr the pointer to the posting list - the file's offset
 	 * @param frequency the size of the posting list
-	 * @return the posting list
+	 * @return a PostingIterator over the posting list
 	 */
-	public ArrayList<Integer[]> readTokenPostingList(String dir, long postingPtr, int frequency) {
-		ArrayList<Integer[]> postingArray = new ArrayList<Integer[]>();
-		try {
-			RandomAccessFile in = new RandomAccessFile(dir + File.separator +
-					SharedUtils.TOKENS_INVERTED_FILE, "rw");
-			in.seek(postingPtr);
-			int sum = 0;
-			byte[] bytes = new byte[frequency * SharedUtils.SIZE_OF_INT * 2];
-			int bytesRead = in.read(bytes, 0, frequency * SharedUtils.SIZE_OF_INT * 2);
-			in.close();
-			ByteBuffer byteBuffer = ByteBuffer.allocate(bytesRead);
-			byteBuffer.put(bytes, 0, bytesRead);
-			byteBuffer.position(0);
-			for (int i = 0; i < frequency; ++i) {
-				Integer[] element = new Integer[2];
-				element[0] = SharedUtils.readIntegerFromBuffer(byteBuffer) + sum;
-				element[1] = SharedUtils.readIntegerFromBuffer(byteBuffer);
-				sum = element[0];
-				postingArray.add(element);
-			}
-		}
-		catch (IOException e) {
-			System.err.println("IO Exception error");
-			System.exit(1);
+	public PostingIterator getTokenPostingIterator(long postingPtr, int frequency) {
+		if (SharedUtils.isBitmapPostingList(frequency, numOfReviews)) {
+			int size = readFromDisc(postingPtr, SharedUtils.SIZE_OF_INT).getInt();
+			ByteBuffer byteBuffer = readFromDisc(postingPtr + SharedUtils.SIZE_OF_INT, size);
+			return new BitmapPostingIterator(byteBuffer, frequency);
 		}
-		return postingArray;
+		ByteBuffer byteBuffer = readFromDisc(postingPtr, frequency * SharedUtils.SIZE_OF_INT * 2);
+		return new CompressedPostingIterator(byteBuffer, frequency);
 	}
 
 	/**
 	 * This function reads a pid's posting list from the disc, and returns it
-	 * @param dir the name of the directory in which the files of the index was created.
 	 * @param postingPtr the pointer to the posting list - the file's offset
 	 * @param frequency the size of the posting list
 	 * @return the posting list
 	 */
-	public ArrayList<Integer> readPidPostingList(String dir, long postingPtr, int frequency) {
+	public ArrayList<Integer> readPidPostingList(long postingPtr, int frequency) {
 		ArrayList<Integer> postingArray = new ArrayList<Integer>();
+		ByteBuffer byteBuffer = readFromDisc(postingPtr, frequency * SharedUtils.SIZE_OF_INT);
+		int sum = 0;
+		for (int i = 0; i < frequency; ++i) {
+			Integer element = SharedUtils.readIntegerFromBuffer(byteBuffer) + sum;
+			sum = element;
+			postingArray.add(element);
+		}
+		return postingArray;
+	}
+
+	/**
+	 * Reads bytes of the posting lists file with positional reads, which neither use nor move the file's position,
+	 * so they may run concurrently.
+	 * @param position the file's offset to read from
+	 * @param maxLength the maximal number of bytes to read
+	 * @return a new buffer with the bytes which were read, up to maxLength or the end of the file
+	 */
+	private ByteBuffer readFromDisc(long position, int maxLength) {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(maxLength);
 		try {
-			RandomAccessFile in = new RandomAccessFile(dir + File.separator +
-					SharedUtils.PID_INVERTED_FILE, "rw");
-			in.seek(postingPtr);
-			int sum = 0;
-			byte[] bytes = new byte[frequency * SharedUtils.SIZE_OF_INT];
-			int bytesRead = in.read(bytes, 0, frequency * SharedUtils.SIZE_OF_INT);
-			in.close();
-			ByteBuffer byteBuffer = ByteBuffer.allocate(bytesRead);
-			byteBuffer.put(bytes, 0, bytesRead);
-			byteBuffer.position(0);
-			for (int i = 0; i < frequency; ++i) {
-				Integer element = SharedUtils.readIntegerFromBuffer(byteBuffer) + sum;
-				sum = element;
-				postingArray.add(element);
+			while (byteBuffer.hasRemaining()) {
+				int bytesRead = postingsFile.read(byteBuffer, position + byteBuffer.position());
+				if (bytesRead < 0) {
+					break;
+				}
 			}
 		}
 		catch (IOException e) {
 			System.err.println("IO Exception error");
 			System.exit(1);
 		}
-		return postingArray;
+		byteBuffer.flip();
+		return byteBuffer;
 	}
 
 	/**
@@ -146,41 +168,125 @@ public class InvertedIndex {
 				return;
 			}
 			postingPtrs[i] = offset;
-			Integer[] firstPair = new Integer[2];
 			int tokenId = bufferIn.getInt();
-			firstPair[0] = bufferIn.getInt();
-			firstPair[1] = bufferIn.getInt();
-			int sum = firstPair[0];
-			int length = 1;
-			int collecFreq = firstPair[1];
-			offset = SharedUtils.writeIntegerToDisc(firstPair[0], out, bufferOut, offset);
-			offset = SharedUtils.writeIntegerToDisc(firstPair[1], out, bufferOut, offset);
-			if (checkIfBufferDone() < 0) {
-				collectionFrequencies[i] = collecFreq;
-				frequencies[i] = length;
-				return;
-			}
-			while (bufferIn.getInt() == tokenId) {
+			int length = 0;
+			int collecFreq = 0;
+			boolean isInputDone = false;
+			// collect the token's list first, since its df decides how it's written
+			while (true) {
+				if (length == listReviewIds.length) {
+					listReviewIds = Arrays.copyOf(listReviewIds, Math.max(16, 2 * length));
+					listFrequencies = Arrays.copyOf(listFrequencies, listReviewIds.length);
+				}
+				listReviewIds[length] = bufferIn.getInt();
+				listFrequencies[length] = bufferIn.getInt();
+				collecFreq += listFrequencies[length];
 				++length;
-				Integer[] pair = new Integer[2];
-				pair[0] = bufferIn.getInt();
-				pair[1] = bufferIn.getInt();
-				offset = SharedUtils.writeIntegerToDisc(pair[0] - sum, out, bufferOut, offset);
-				offset = SharedUtils.writeIntegerToDisc(pair[1], out, bufferOut, offset);
-				collecFreq += pair[1];
 				if (checkIfBufferDone() < 0) {
-					collectionFrequencies[i] = collecFreq;
-					frequencies[i] = length;
-					return;
+					isInputDone = true;
+					break;
+				}
+				if (bufferIn.getInt() != tokenId) {
+					bufferIn.position(bufferIn.position() - SharedUtils.SIZE_OF_INT);
+					break;
+				}
+			}
+			if (SharedUtils.isBitmapPostingList(length, numOfReviews)) {
+				writeBitmapPostingList(out, length);
+			}
+			else {
+				int sum = 0;
+				for (int j = 0; j < length; ++j) {
+					offset = SharedUtils.writeIntegerToDisc(listReviewIds[j] - sum, out, bufferOut, offset);
+					offset = SharedUtils.writeIntegerToDisc(listFrequencies[j], out, bufferOut, offset);
+					sum = listReviewIds[j];
 				}
-				sum += (pair[0] - sum);
 			}
 			collectionFrequencies[i] = collecFreq;
 			frequencies[i] = length;
-			bufferIn.position(bufferIn.position() - SharedUtils.SIZE_OF_INT);
+			if (isInputDone) {
+				return;
+			}
 		}
 	}
 
+	/**
+	 * Writes the collected posting list as a roaring-style bitmap: its size in bytes, then the number of containers,
+	 * then a header for each container (the high 16 bits of its review ids, its cardinality - 1 and its number of
+	 * bitmap words, or 0 for an array container), then the containers' data - the low 16 bits of the review ids as a
+	 * bitmap, trimmed after its last set word, or as a sorted array of shorts, whichever is smaller - and then the
+	 * frequencies - 1, bit-packed in review id order with the bit width of the largest one.
+	 * @param out a BufferedOutputStream
+	 * @param length the number of pairs in the collected posting list
+	 * @throws IOException
+	 */
+	private void writeBitmapPostingList(BufferedOutputStream out, int length) throws IOException {
+		int numOfContainers = 0;
+		int[] containerStarts = new int[(listReviewIds[length - 1] >>> 16) + 2];
+		int maxFrequency = 1;
+		for (int j = 0; j < length; ++j) {
+			if (j == 0 || (listReviewIds[j] >>> 16) != (listReviewIds[j - 1] >>> 16)) {
+				containerStarts[numOfContainers++] = j;
+			}
+			maxFrequency = Math.max(maxFrequency, listFrequencies[j]);
+		}
+		containerStarts[numOfContainers] = length;
+		int bitWidth = 32 - Integer.numberOfLeadingZeros(maxFrequency - 1);
+
+		int[] numOfWords = new int[numOfContainers];
+		int dataSize = 0;
+		for (int c = 0; c < numOfContainers; ++c) {
+			int cardinality = containerStarts[c + 1] - containerStarts[c];
+			int words = ((listReviewIds[containerStarts[c + 1] - 1] & 0xFFFF) >>> 6) + 1;
+			numOfWords[c] = (words * SharedUtils.SIZE_OF_LONG < cardinality * 2) ? words : 0;
+			dataSize += (numOfWords[c] > 0) ? words * SharedUtils.SIZE_OF_LONG : cardinality * 2;
+		}
+		int numOfPackedWords = (int)(((long)length * bitWidth + 63) >>> 6);
+		int size = SharedUtils.SIZE_OF_INT + numOfContainers * BitmapPostingIterator.CONTAINER_HEADER_SIZE + dataSize +
+				1 + numOfPackedWords * SharedUtils.SIZE_OF_LONG;
+
+		ByteBuffer list = ByteBuffer.allocate(SharedUtils.SIZE_OF_INT + size);
+		list.putInt(size);
+		list.putInt(numOfContainers);
+		for (int c = 0; c < numOfContainers; ++c) {
+			list.putShort((short)(listReviewIds[containerStarts[c]] >>> 16));
+			list.putShort((short)(containerStarts[c + 1] - containerStarts[c] - 1));
+			list.putShort((short)numOfWords[c]);
+		}
+		for (int c = 0; c < numOfContainers; ++c) {
+			if (numOfWords[c] == 0) {
+				for (int j = containerStarts[c]; j < containerStarts[c + 1]; ++j) {
+					list.putShort((short)listReviewIds[j]);
+				}
+				continue;
+			}
+			long[] words = new long[numOfWords[c]];
+			for (int j = containerStarts[c]; j < containerStarts[c + 1]; ++j) {
+				int low = listReviewIds[j] & 0xFFFF;
+				words[low >>> 6] |= 1L << low;
+			}
+			for (long word : words) {
+				list.putLong(word);
+			}
+		}
+		list.put((byte)bitWidth);
+		long[] packed = new long[numOfPackedWords];
+		for (int j = 0; j < length && bitWidth > 0; ++j) {
+			long bitOffset = (long)j * bitWidth;
+			int index = (int)(bitOffset >>> 6);
+			int shift = (int)(bitOffset & 63);
+			long value = listFrequencies[j] - 1;
+			packed[index] |= value << shift;
+			if (shift + bitWidth > 64) {
+				packed[index + 1] |= value >>> (64 - shift);
+			}
+		}
+		for (long word : packed) {
+			list.putLong(word);
+		}
+		offset = SharedUtils.writeBytesToDisc(list.array(), list.position(), out, bufferOut, offset);
+	}
+
 	/**
 	 * This function checks if the output buffer has remaining, and if so, it write it the the output file.
 	 * @param out a BufferedOutputStream
@@ -240,6 +346,14 @@ public class InvertedIndex {
 		in.close();
 	}
 
+	/**
+	 * Closes the posting lists file (read phase only)
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		postingsFile.close();
+	}
+
 	/**
 	 * This function read the next chunk from the input file to he input buffer
 	 * @return the number of bytes which were read
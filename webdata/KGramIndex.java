@@ -0,0 +1,196 @@
+package webdata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A k-gram index for answering wildcard queries: every token, padded with '$' on both of its sides, is cut into its
+ * overlapping grams of k characters, and every gram has the sorted list of the ids of the tokens which contain it.
+ * Grams are hashed into a fixed number of gram ids, so the list of a gram id may also hold tokens of other grams with
+ * the same id - it's a superset, and the candidates are post-filtered anyway.
+ * The index is built in memory with a counting sort of the (gram id, token id) pairs, and its lists are written as
+ * gaps in Length-precoded Varint compression, after a flat table of their pointers. The reader maps both files, like
+ * the bigram index does, so its state is never changed and it can be shared between threads.
+ */
+public class KGramIndex {
+
+	/** The size of the pointers file's header: the grams' length and the number of gram ids **/
+	private static final int HEADER_SIZE = 2 * SharedUtils.SIZE_OF_INT;
+
+	/** The character which pads the tokens on both sides **/
+	private static final String PADDING = "$";
+
+	/** The length of the grams **/
+	private int gramLength;
+
+	/** The number of gram ids, a power of 2 **/
+	private int numOfGramIds;
+
+	/** The token ids lists of all the gram ids, one after the other (write phase) **/
+	private int[] tokenIds;
+
+	/** listStarts[g] is the index in tokenIds of the g-th gram id's list, the last entry is the end (write phase) **/
+	private int[] listStarts;
+
+	/**
+	 * The mapped pointers table, after the header: numOfGramIds + 1 longs, the g-th is the offset of the g-th gram
+	 * id's list, and the last one is the size of all the lists (read phase)
+	 */
+	private ByteBuffer pointersTable;
+
+	/** The concatenated token ids lists, mapped in segments of 2^SEGMENT_BITS bytes (read phase) **/
+	private ByteBuffer[] tokenIdsSegments;
+
+	/**
+	 * Constructor - for the IndexWriter, builds the index of the given tokens
+	 * @param tokens the sorted tokens, a token's id is its index
+	 * @param gramLength the length of the grams, at least 1
+	 * @param numOfGramIds the number of gram ids, a power of 2 which is at least 2
+	 */
+	public KGramIndex(ArrayList<String> tokens, int gramLength, int numOfGramIds) {
+		this.gramLength = gramLength;
+		this.numOfGramIds = numOfGramIds;
+		listStarts = new int[numOfGramIds + 1];
+		int[] lastTokenIds = new int[numOfGramIds];
+
+		// first pass: count the tokens of every gram id, every token once even if it has the gram several times
+		Arrays.fill(lastTokenIds, -1);
+		for (int id = 0; id < tokens.size(); ++id) {
+			byte[] padded = pad(tokens.get(id));
+			for (int i = 0; i + gramLength <= padded.length; ++i) {
+				int gramId = getGramId(padded, i);
+				if (lastTokenIds[gramId] != id) {
+					lastTokenIds[gramId] = id;
+					++listStarts[gramId + 1];
+				}
+			}
+		}
+		for (int gramId = 0; gramId < numOfGramIds; ++gramId) {
+			listStarts[gramId + 1] += listStarts[gramId];
+		}
+
+		// second pass: place every token in its gram ids' lists, which are sorted since the ids increase
+		tokenIds = new int[listStarts[numOfGramIds]];
+		int[] positions = Arrays.copyOf(listStarts, numOfGramIds);
+		Arrays.fill(lastTokenIds, -1);
+		for (int id = 0; id < tokens.size(); ++id) {
+			byte[] padded = pad(tokens.get(id));
+			for (int i = 0; i + gramLength <= padded.length; ++i) {
+				int gramId = getGramId(padded, i);
+				if (lastTokenIds[gramId] != id) {
+					lastTokenIds[gramId] = id;
+					tokenIds[positions[gramId]++] = id;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Constructor - for the IndexReader, maps the index from the disc
+	 * @param dir The index files' directory
+	 * @throws IOException
+	 */
+	public KGramIndex(String dir) throws IOException {
+		ByteBuffer file = SharedUtils.mapFile(dir + File.separator + SharedUtils.K_GRAM_POINTERS_FILE);
+		gramLength = file.getInt(0);
+		numOfGramIds = file.getInt(SharedUtils.SIZE_OF_INT);
+		file.position(HEADER_SIZE);
+		pointersTable = file.slice();
+		long size = getPointer(numOfGramIds);
+		tokenIdsSegments = SharedUtils.mapFileSegments(dir + File.separator + SharedUtils.K_GRAM_INDEX_FILE, size,
+				SharedUtils.SEGMENT_BITS);
+	}
+
+	/**
+	 * @param token a token
+	 * @return the UTF-8 bytes of the token, padded on both sides
+	 */
+	private static byte[] pad(String token) {
+		return (PADDING + token + PADDING).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the index to the disc: the pointers table to one file, and the lists to another.
+	 * @param dir The index files' directory
+	 * @throws IOException
+	 */
+	public void writeToDisc(String dir) throws IOException {
+		ByteBuffer pointers = ByteBuffer.allocate(HEADER_SIZE + (numOfGramIds + 1) * SharedUtils.SIZE_OF_LONG);
+		pointers.putInt(gramLength);
+		pointers.putInt(numOfGramIds);
+		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.K_GRAM_INDEX_FILE));
+		ByteBuffer bufferOut = ByteBuffer.allocate(SharedUtils.MEM_BLOCK_SIZE);
+		long offset = 0;
+		for (int gramId = 0; gramId < numOfGramIds; ++gramId) {
+			pointers.putLong(offset);
+			int previous = 0;
+			for (int i = listStarts[gramId]; i < listStarts[gramId + 1]; ++i) {
+				offset = SharedUtils.writeIntegerToDisc(tokenIds[i] - previous, out, bufferOut, offset);
+				previous = tokenIds[i];
+			}
+		}
+		pointers.putLong(offset);
+		out.write(bufferOut.array(), 0, bufferOut.position());
+		out.close();
+
+		out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.K_GRAM_POINTERS_FILE));
+		out.write(pointers.array(), 0, pointers.position());
+		out.close();
+	}
+
+	/**
+	 * @return the length of the grams
+	 */
+	public int getGramLength() {
+		return gramLength;
+	}
+
+	/**
+	 * Hashes a gram to its gram id
+	 * @param bytes the bytes which contain the gram
+	 * @param start the index of the gram's first byte
+	 * @return the gram's id
+	 */
+	public int getGramId(byte[] bytes, int start) {
+		int hash = 0;
+		for (int i = start; i < start + gramLength; ++i) {
+			hash = 31 * hash + (bytes[i] & 0xFF);
+		}
+		// the high bits of a multiplicative hash are the well mixed ones
+		return (hash * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(numOfGramIds - 1);
+	}
+
+	/**
+	 * @param gramId a gram id, or numOfGramIds for the end of the lists
+	 * @return the offset of the gram id's list
+	 */
+	private long getPointer(int gramId) {
+		return pointersTable.getLong(gramId * SharedUtils.SIZE_OF_LONG);
+	}
+
+	/**
+	 * @param gramId a gram id
+	 * @return the size in bytes of the gram id's list, which grows with its number of tokens
+	 */
+	public int getListSize(int gramId) {
+		return (int)(getPointer(gramId + 1) - getPointer(gramId));
+	}
+
+	/**
+	 * @param gramId a gram id
+	 * @return the ids of the tokens which contain a gram with this id, sorted, in an array of exactly their number
+	 */
+	public int[] readTokensList(int gramId) {
+		int size = getListSize(gramId);
+		if (size <= 0) {
+			return new int[0];
+		}
+		return SharedUtils.readIdsList(SharedUtils.getSegmentsBytes(tokenIdsSegments, SharedUtils.SEGMENT_BITS,
+				getPointer(gramId), size));
+	}
+}
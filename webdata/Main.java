@@ -1,7 +1,9 @@
 package webdata;
 
 import java.io.File;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
@@ -57,12 +59,25 @@ public class Main {
 	/**
 	 * Initializes an IndexWriter, IndexReader and a ReviewSearch.
 	 * @param isRotated a boolean value indicating whether a rotated index will be used or a bigram index.
+	 * @return true if the index was read, false if it couldn't be
 	 */
-	private static void initialize(boolean isRotated){
+	private static boolean initialize(boolean isRotated){
+		if (ir != null) {
+			ir.close();
+		}
 		w = new IndexWriter();
-		w.write(inputFile, dir, isRotated);
-		ir = new IndexReader(dir, isRotated);
+		w.write(inputFile, dir, new IndexWriter.Options().setRotated(isRotated)
+				.setKGramLength(SharedUtils.DEFAULT_K_GRAM_LENGTH).setPositions(true).setTexts(true));
+		try {
+			ir = new IndexReader(dir);
+		} catch (UncheckedIOException e) {
+			System.err.println("IO Exception error");
+			ir = null;
+			rs = null;
+			return false;
+		}
 		rs = new ReviewSearch(ir);
+		return true;
 	}
 
 	/**
@@ -292,7 +307,9 @@ public class Main {
 		startSearchButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				initialize(isRotated);
+				if (!initialize(isRotated)) {
+					return;
+				}
 				chooseProductsOrReviews();
 				welcomeFrame.setVisible(false);
 			}
@@ -354,15 +371,27 @@ public class Main {
 			}
 			else{
 				Enumeration<Integer> resultsEnumeration;
-				if(isUsingVectorSpaceSearch){
+				Collection<String> terms = query;
+				if(BooleanQuery.isBooleanQuery(str)){
+					resultsEnumeration = rs.rankedBooleanSearch(str, K);
+					terms = BooleanQuery.parse(str).getTerms();
+				}
+				else if(isUsingVectorSpaceSearch){
 					resultsEnumeration = rs.vectorSpaceSearch(query.elements(), K);
 				}
 				else{
 					resultsEnumeration = rs.languageModelSearch(query.elements(), LAMBDA, K);
 				}
-				while(resultsEnumeration.hasMoreElements()){
-					builder.append(resultsEnumeration.nextElement());
+				ArrayList<Integer> ids = Collections.list(resultsEnumeration);
+				// the snippets of the whole page are read at once, so every compressed block is inflated once
+				String[] snippets = ir.getSnippets(ids, terms);
+				for (int i = 0; i < ids.size(); ++i) {
+					builder.append(ids.get(i));
 					builder.append("\n");
+					if (snippets != null) {
+						builder.append(snippets[i]);
+						builder.append("\n\n");
+					}
 				}
 			}
 
@@ -419,6 +448,124 @@ public class Main {
 		}
 	}
 
+	/**
+	 * Queries a single IndexReader from many threads at once, and checks that every thread gets the same answers
+	 * that a single thread got.
+	 * @param ir an IndexReader
+	 * @param numOfThreads the number of threads
+	 * @param numOfRounds the number of times each thread queries all the tokens
+	 */
+	private static void concurrencyStressTest(IndexReader ir, int numOfThreads, int numOfRounds) {
+		String[] pids = {"B001E4KFG0", "B0019CW0HE", "B0019CW0HF"};
+		String[] expected = new String[tokens.length + pids.length];
+		for (int i = 0; i < tokens.length; ++i) {
+			expected[i] = describeToken(ir, tokens[i]);
+		}
+		for (int i = 0; i < pids.length; ++i) {
+			expected[tokens.length + i] = Collections.list(ir.getProductReviews(pids[i])).toString();
+		}
+		AtomicInteger mismatches = new AtomicInteger();
+		Thread[] threads = new Thread[numOfThreads];
+		for (int t = 0; t < numOfThreads; ++t) {
+			final int first = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int round = 0; round < numOfRounds; ++round) {
+						// every thread starts from a different query, so the threads query different tokens at once
+						for (int j = 0; j < expected.length; ++j) {
+							int i = (first + j) % expected.length;
+							String actual = (i < tokens.length) ? describeToken(ir, tokens[i]) :
+									Collections.list(ir.getProductReviews(pids[i - tokens.length])).toString();
+							if (!actual.equals(expected[i])) {
+								mismatches.incrementAndGet();
+							}
+						}
+					}
+				}
+			});
+		}
+		long startTime = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long totalTime = System.nanoTime() - startTime;
+		System.out.println(numOfThreads + " threads, " + numOfRounds + " rounds, time in ms: " + totalTime / MILLION);
+		System.out.println("Mismatches: " + mismatches.get());
+	}
+
+	/**
+	 * Checks that the MaxScore evaluation of BM25 returns the top-k reviews, for queries with broad wildcards, whose
+	 * merged posting lists are longer than the number of reviews. The reference scores every review which contains
+	 * a term, by accumulating the terms' scores per review; since the two may add the terms in different orders, the
+	 * results are compared by their reference scores rather than by their ids.
+	 * @param ir an IndexReader
+	 * @param k the number of results
+	 */
+	private static void bm25MaxScoreTest(IndexReader ir, int k) {
+		String[][] queries = {{"a", "e*", "the", "and", "love"}, {"*e*", "coffee"}, {"t*", "great", "*s"},
+				{"*ing", "*ed", "*ful"}, {"e*"}};
+		ReviewSearch rs = new ReviewSearch(ir);
+		double k1 = 1.2;
+		double b = 0.75;
+		double N = ir.getNumberOfReviews();
+		double averageLength = (N == 0) ? 1 : Math.max(ir.getTokenSizeOfReviews() / N, 1);
+		int mismatches = 0;
+		for (String[] query : queries) {
+			HashMap<String, Integer> queryFrequencies = new HashMap<String, Integer>();
+			for (String term : query) {
+				queryFrequencies.put(term, queryFrequencies.getOrDefault(term, 0) + 1);
+			}
+			HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+			for (Map.Entry<String, Integer> entry : queryFrequencies.entrySet()) {
+				double dft = ir.getTokenNumOfReviews(entry.getKey());
+				double weight = entry.getValue() * Math.log(1 + (N - dft + 0.5) / (dft + 0.5)) * (k1 + 1);
+				Enumeration<Integer> postings = ir.getReviewsWithToken(entry.getKey());
+				while (postings.hasMoreElements()) {
+					int reviewId = postings.nextElement();
+					int frequency = postings.nextElement();
+					double length = Reviews.decodeLengthNorm(ir.getReviewLengthNorm(reviewId));
+					double lengthNorm = k1 * (1 - b + b * length / averageLength);
+					scores.put(reviewId, scores.getOrDefault(reviewId, 0.0) +
+							weight * frequency / (frequency + lengthNorm));
+				}
+			}
+			ArrayList<Double> expected = new ArrayList<Double>(scores.values());
+			expected.sort(Collections.reverseOrder());
+			expected = new ArrayList<Double>(expected.subList(0, Math.min(k, expected.size())));
+			Vector<String> terms = new Vector<String>(Arrays.asList(query));
+			ArrayList<Integer> pruned = Collections.list(rs.bm25Search(terms.elements(), k));
+			boolean isMatch = pruned.size() == expected.size();
+			for (int i = 0; isMatch && i < pruned.size(); ++i) {
+				Double score = scores.get(pruned.get(i));
+				isMatch = score != null && Math.abs(score - expected.get(i)) <= 1e-9 * Math.max(1, expected.get(i));
+			}
+			if (!isMatch) {
+				System.out.println("Mismatch for " + terms + ": " + pruned + " whose top scores are " + expected);
+				++mismatches;
+			}
+		}
+		System.out.println("BM25 MaxScore mismatches: " + mismatches);
+	}
+
+	/**
+	 * @param ir an IndexReader
+	 * @param token a token, possibly with wildcards
+	 * @return the token's frequency, collection frequency and reviews, as a String
+	 */
+	private static String describeToken(IndexReader ir, String token) {
+		return ir.getTokenFrequency(token) + " " + ir.getTokenCollectionFrequency(token) + " " +
+				Collections.list(ir.getReviewsWithToken(token));
+	}
+
 	/**
 	 * The experiments we ran. In order to re-run one might need to change "dir" and "file prefix"'s values.
 	 */
@@ -431,6 +578,9 @@ public class Main {
 			for (boolean isRotated: indexTypes) {
 				String typeStr = isRotated ? "Rotated Lexicon Index" : "Bigram Index";
 				System.out.println("Experiment: " + typeStr + ", file: " + file);
+				if (ir != null) {
+					ir.close();
+				}
 				w = new IndexWriter();
 				long startWriteTime = System.nanoTime();
 				w.write(filePrefix + file, dir, isRotated);
@@ -486,6 +636,8 @@ public class Main {
 	public static void main(String[] args) {
 		enterPaths();
 //		experiments();
+//		concurrencyStressTest(new IndexReader(dir, false), 64, 10);
+//		bm25MaxScoreTest(new IndexReader(dir, false), 1);
 	}
 
 }
@@ -0,0 +1,215 @@
+package webdata;
+
+/**
+ * A PostingIterator over the union of several posting lists (such as the lists of the tokens matching a wildcard),
+ * which sums the frequencies of the lists that contain the same review. The lists are merged lazily with a min-heap
+ * of the lists keyed by their current review id, so the pairs are streamed in review id order without materializing
+ * them. When the lists are dense - their total length is large compared to the number of reviews - the heap's
+ * log(k) per pair costs more than a pass over the reviews, so they're ORed instead into a bitmap of the reviews and
+ * an array of the summed frequencies, which are then walked in review id order.
+ */
+public class MergedPostingIterator extends PostingIterator {
+
+	/** The lists which aren't exhausted, as a min-heap by their current review id (heap merge only) **/
+	private PostingIterator[] heap;
+
+	/** The number of lists in the heap **/
+	private int heapSize;
+
+	/** A bit per review id, set iff one of the lists contains it (dense merge only) **/
+	private long[] bitmap;
+
+	/** The summed frequencies by review id (dense merge only) **/
+	private int[] frequencies;
+
+	/**
+	 * The total number of pairs in the lists - an estimate of the merge's cost, which is not the size of the union
+	 * (see IndexReader.getTokenNumOfReviews)
+	 **/
+	private int cost;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/** The current summed frequency **/
+	private int frequency;
+
+	/**
+	 * Constructor - a heap merge of the lists
+	 * @param lists the lists, none of which was advanced yet
+	 * @param numOfLists the number of lists
+	 * @param cost the total number of pairs in the lists
+	 */
+	private MergedPostingIterator(PostingIterator[] lists, int numOfLists, int cost) {
+		this.cost = cost;
+		heap = new PostingIterator[numOfLists];
+		for (int i = 0; i < numOfLists; ++i) {
+			if (lists[i].nextReview() != NO_MORE_REVIEWS) {
+				heap[heapSize++] = lists[i];
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; --i) {
+			siftDown(i);
+		}
+		reviewId = -1;
+	}
+
+	/**
+	 * Constructor - a dense merge of the lists, which reads them all at once
+	 * @param lists the lists, none of which was advanced yet
+	 * @param numOfLists the number of lists
+	 * @param cost the total number of pairs in the lists
+	 * @param numOfReviews the biggest review id
+	 */
+	private MergedPostingIterator(PostingIterator[] lists, int numOfLists, int cost, int numOfReviews) {
+		this.cost = cost;
+		bitmap = new long[(numOfReviews >>> 6) + 1];
+		frequencies = new int[numOfReviews + 1];
+		for (int i = 0; i < numOfLists; ++i) {
+			PostingIterator list = lists[i];
+			if (list instanceof BitmapPostingIterator) {
+				// a bitmap list is ORed in word by word
+				((BitmapPostingIterator)list).orInto(bitmap, frequencies);
+				continue;
+			}
+			for (int id = list.nextReview(); id != NO_MORE_REVIEWS; id = list.nextReview()) {
+				bitmap[id >>> 6] |= 1L << id;
+				frequencies[id] += list.frequency();
+			}
+		}
+		reviewId = -1;
+	}
+
+	/**
+	 * Merges posting lists, with a heap or densely - whichever is estimated to be cheaper
+	 * @param lists the lists, none of which was advanced yet
+	 * @param numOfLists the number of lists
+	 * @param numOfReviews the biggest review id
+	 * @return a PostingIterator over the union of the lists
+	 */
+	public static MergedPostingIterator merge(PostingIterator[] lists, int numOfLists, int numOfReviews) {
+		long cost = 0;
+		for (int i = 0; i < numOfLists; ++i) {
+			cost += lists[i].cost();
+		}
+		// every pair costs about log(k) heap comparisons, against a single add and a pass over the bitmap's words
+		int log = 32 - Integer.numberOfLeadingZeros(numOfLists);
+		boolean isDense = cost * log > cost + (numOfReviews >>> 6) + numOfReviews / 4;
+		int intCost = (int)Math.min(cost, Integer.MAX_VALUE);
+		if (isDense) {
+			return new MergedPostingIterator(lists, numOfLists, intCost, numOfReviews);
+		}
+		return new MergedPostingIterator(lists, numOfLists, intCost);
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		return frequency;
+	}
+
+	@Override
+	public int nextReview() {
+		if (reviewId == NO_MORE_REVIEWS) {
+			return reviewId;
+		}
+		if (bitmap != null) {
+			return nextSetReview(reviewId + 1);
+		}
+		if (heapSize == 0) {
+			reviewId = NO_MORE_REVIEWS;
+			frequency = 0;
+			return reviewId;
+		}
+		reviewId = heap[0].reviewId();
+		frequency = 0;
+		while (heapSize > 0 && heap[0].reviewId() == reviewId) {
+			frequency += heap[0].frequency();
+			if (heap[0].nextReview() == NO_MORE_REVIEWS) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(0);
+		}
+		return reviewId;
+	}
+
+	@Override
+	public int advance(int target) {
+		if (reviewId >= target) {
+			return reviewId;
+		}
+		if (bitmap != null) {
+			return nextSetReview(target);
+		}
+		// every list skips on its own, so the lists which are far behind don't decode pair by pair through the heap
+		while (heapSize > 0 && heap[0].reviewId() < target) {
+			if (heap[0].advance(target) == NO_MORE_REVIEWS) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(0);
+		}
+		return nextReview();
+	}
+
+	@Override
+	public int cost() {
+		return cost;
+	}
+
+	/**
+	 * Moves the cursor of a dense merge to the first review id which is at least from and is set in the bitmap
+	 * @param from the review id to search from
+	 * @return the new review id, or NO_MORE_REVIEWS if there is none
+	 */
+	private int nextSetReview(int from) {
+		int word = from >>> 6;
+		if (from < 0 || word >= bitmap.length) {
+			reviewId = NO_MORE_REVIEWS;
+			frequency = 0;
+			return reviewId;
+		}
+		long bits = bitmap[word] & (-1L << from);
+		while (bits == 0) {
+			if (++word == bitmap.length) {
+				reviewId = NO_MORE_REVIEWS;
+				frequency = 0;
+				return reviewId;
+			}
+			bits = bitmap[word];
+		}
+		reviewId = (word << 6) + Long.numberOfTrailingZeros(bits);
+		frequency = frequencies[reviewId];
+		return reviewId;
+	}
+
+	/**
+	 * Moves the list at the given heap index down the heap until its current review id is not bigger than the
+	 * current review ids of its children
+	 */
+	private void siftDown(int index) {
+		if (index >= heapSize) {
+			return;
+		}
+		PostingIterator list = heap[index];
+		int value = list.reviewId();
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heap[child + 1].reviewId() < heap[child].reviewId()) {
+				++child;
+			}
+			if (value <= heap[child].reviewId()) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = list;
+	}
+}
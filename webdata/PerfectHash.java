@@ -0,0 +1,291 @@
+package webdata;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A minimal perfect hash function over the tokens of a dictionary, built with the hash-and-displace (CHD) method:
+ * the keys are split into buckets of about BUCKET_SIZE keys by their hash, and the buckets, from the biggest to the
+ * smallest, are each given the first displacement which places all of their keys in still free slots. Mapping a key
+ * to its slot costs two hash computations and a single displacement read, and the n keys fill exactly n slots.
+ * Every slot also keeps the dictionary index of its key and a one byte fingerprint of its hash, so most tokens which
+ * are not in the dictionary are rejected without touching the dictionary itself.
+ */
+public class PerfectHash {
+
+	/** The average number of keys in a bucket **/
+	private static final int BUCKET_SIZE = 4;
+
+	/** The odd constant which derives the seed of each displacement **/
+	private static final long DISPLACEMENT_SEED = 0x9E3779B97F4A7C15L;
+
+	/** The offset of the displacements in the file **/
+	private static final int HEADER_SIZE = 2 * SharedUtils.SIZE_OF_INT;
+
+	/** The displacement of every bucket (write phase only) **/
+	private int[] displacements;
+
+	/** The dictionary index of the key in every slot (write phase only) **/
+	private int[] slotToIndex;
+
+	/** The fingerprint of the key in every slot (write phase only) **/
+	private byte[] fingerprints;
+
+	/** The memory-mapped file (read phase only) **/
+	private ByteBuffer file;
+
+	/** The number of keys, which is also the number of slots **/
+	private int numOfKeys;
+
+	/** The number of buckets **/
+	private int numOfBuckets;
+
+	/** The offset of the slots' dictionary indices in the file **/
+	private int indicesOffset;
+
+	/** The offset of the slots' fingerprints in the file **/
+	private int fingerprintsOffset;
+
+	/**
+	 * A constructor for the write phase, builds the perfect hash of the given keys. The build fails only if two
+	 * keys have the same hash, since no displacement can separate them.
+	 * @param hashes hashes[i] is the hash of the i-th token in the dictionary
+	 */
+	public PerfectHash(long[] hashes) {
+		numOfKeys = hashes.length;
+		numOfBuckets = Math.max(1, (numOfKeys + BUCKET_SIZE - 1) / BUCKET_SIZE);
+		if (!build(hashes)) {
+			displacements = null;
+			slotToIndex = null;
+			return;
+		}
+		fingerprints = new byte[numOfKeys];
+		for (int i = 0; i < numOfKeys; ++i) {
+			fingerprints[i] = getFingerprint(hashes[slotToIndex[i]]);
+		}
+	}
+
+	/**
+	 * A constructor for the read phase
+	 * @param file the mapped file which writeToDisc wrote
+	 */
+	public PerfectHash(ByteBuffer file) {
+		this.file = file;
+		numOfKeys = file.getInt(0);
+		numOfBuckets = file.getInt(SharedUtils.SIZE_OF_INT);
+		indicesOffset = HEADER_SIZE + numOfBuckets * SharedUtils.SIZE_OF_INT;
+		fingerprintsOffset = indicesOffset + numOfKeys * SharedUtils.SIZE_OF_INT;
+	}
+
+	/**
+	 * Computes the 64 bits hash of a token's bytes
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return the hash
+	 */
+	public static long hash(byte[] key, int keyLength) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < keyLength; ++i) {
+			hash ^= key[i] & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * The finalizer of SplitMix64, spreads every bit of x over all the bits of the result
+	 */
+	private static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+
+	/**
+	 * @return the bucket of a key with the given hash
+	 */
+	private static int getBucket(long hash, int numOfBuckets) {
+		return (int)Long.remainderUnsigned(hash >>> 32, numOfBuckets);
+	}
+
+	/**
+	 * @return the slot of a key with the given hash, when its bucket has the given displacement
+	 */
+	private static int getSlot(long hash, int displacement, int numOfKeys) {
+		return (int)Long.remainderUnsigned(mix(hash + displacement * DISPLACEMENT_SEED), numOfKeys);
+	}
+
+	/**
+	 * @return the fingerprint of a key with the given hash
+	 */
+	private static byte getFingerprint(long hash) {
+		return (byte)hash;
+	}
+
+	/**
+	 * Places the keys in the slots, filling displacements and slotToIndex
+	 * @param hashes hashes[i] is the hash of the i-th token in the dictionary
+	 * @return false if two keys have the same hash, else true
+	 */
+	private boolean build(long[] hashes) {
+		// sort the keys by bucket, with counting sort
+		int[] bucketStarts = new int[numOfBuckets + 1];
+		for (long hash : hashes) {
+			++bucketStarts[getBucket(hash, numOfBuckets) + 1];
+		}
+		for (int i = 0; i < numOfBuckets; ++i) {
+			bucketStarts[i + 1] += bucketStarts[i];
+		}
+		int[] keysByBucket = new int[numOfKeys];
+		int[] next = Arrays.copyOf(bucketStarts, numOfBuckets);
+		for (int i = 0; i < numOfKeys; ++i) {
+			keysByBucket[next[getBucket(hashes[i], numOfBuckets)]++] = i;
+		}
+
+		// order the buckets from the biggest to the smallest, with counting sort
+		int maxBucketSize = 0;
+		for (int i = 0; i < numOfBuckets; ++i) {
+			maxBucketSize = Math.max(maxBucketSize, bucketStarts[i + 1] - bucketStarts[i]);
+		}
+		int[] sizeStarts = new int[maxBucketSize + 2];
+		for (int i = 0; i < numOfBuckets; ++i) {
+			++sizeStarts[maxBucketSize - (bucketStarts[i + 1] - bucketStarts[i]) + 1];
+		}
+		for (int i = 0; i <= maxBucketSize; ++i) {
+			sizeStarts[i + 1] += sizeStarts[i];
+		}
+		int[] bucketOrder = new int[numOfBuckets];
+		for (int i = 0; i < numOfBuckets; ++i) {
+			bucketOrder[sizeStarts[maxBucketSize - (bucketStarts[i + 1] - bucketStarts[i])]++] = i;
+		}
+
+		// place the buckets
+		displacements = new int[numOfBuckets];
+		slotToIndex = new int[numOfKeys];
+		Arrays.fill(slotToIndex, -1);
+		int[] bucketSlots = new int[maxBucketSize];
+		for (int bucket : bucketOrder) {
+			int start = bucketStarts[bucket];
+			int size = bucketStarts[bucket + 1] - start;
+			if (size == 0) {
+				break;
+			}
+			if (hasEqualHashes(hashes, keysByBucket, start, size)) {
+				return false;
+			}
+			int displacement = 0;
+			while (!tryPlace(hashes, keysByBucket, start, size, displacement, bucketSlots)) {
+				++displacement;
+			}
+			displacements[bucket] = displacement;
+			for (int i = 0; i < size; ++i) {
+				slotToIndex[bucketSlots[i]] = keysByBucket[start + i];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true iff the perfect hash was built, i.e. no two keys have the same hash
+	 */
+	public boolean isBuilt() {
+		return slotToIndex != null;
+	}
+
+	/**
+	 * Writes the perfect hash to the disc in a memory-efficient way, using a buffer. The file holds the number of
+	 * keys and of buckets, then the displacement of every bucket, the dictionary index of every slot and the
+	 * fingerprint of every slot.
+	 * @param out a BufferedOutputStream object
+	 * @throws IOException
+	 */
+	public void writeToDisc(BufferedOutputStream out) throws IOException {
+		ByteBuffer outBuffer = ByteBuffer.allocate(Math.min(SharedUtils.MAIN_MEMORY_SIZE,
+				HEADER_SIZE + (numOfBuckets + numOfKeys) * SharedUtils.SIZE_OF_INT));
+		outBuffer.putInt(numOfKeys);
+		outBuffer.putInt(numOfBuckets);
+		for (int displacement : displacements) {
+			putInt(out, outBuffer, displacement);
+		}
+		for (int index : slotToIndex) {
+			putInt(out, outBuffer, index);
+		}
+		out.write(outBuffer.array(), 0, outBuffer.position());
+		out.write(fingerprints);
+		out.close();
+	}
+
+	/**
+	 * Checks whether all the keys of a bucket can be placed with the given displacement, i.e. whether their slots
+	 * are free and different from each other.
+	 * @param hashes the keys' hashes
+	 * @param keysByBucket the keys, ordered by bucket
+	 * @param start the index of the bucket's first key in keysByBucket
+	 * @param size the number of keys in the bucket
+	 * @param displacement the displacement
+	 * @param bucketSlots where the slots of the bucket's keys are written
+	 * @return true iff the bucket can be placed
+	 */
+	private boolean tryPlace(long[] hashes, int[] keysByBucket, int start, int size, int displacement,
+							 int[] bucketSlots) {
+		for (int i = 0; i < size; ++i) {
+			int slot = getSlot(hashes[keysByBucket[start + i]], displacement, numOfKeys);
+			if (slotToIndex[slot] != -1) {
+				return false;
+			}
+			for (int j = 0; j < i; ++j) {
+				if (bucketSlots[j] == slot) {
+					return false;
+				}
+			}
+			bucketSlots[i] = slot;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true iff two keys of the bucket have the same hash, so no displacement can separate them
+	 */
+	private static boolean hasEqualHashes(long[] hashes, int[] keysByBucket, int start, int size) {
+		for (int i = start; i < start + size; ++i) {
+			for (int j = start; j < i; ++j) {
+				if (hashes[keysByBucket[i]] == hashes[keysByBucket[j]]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Puts an int in the buffer, after writing the buffer to out if it's full
+	 */
+	private static void putInt(BufferedOutputStream out, ByteBuffer outBuffer, int value) throws IOException {
+		if (outBuffer.remaining() < SharedUtils.SIZE_OF_INT) {
+			out.write(outBuffer.array(), 0, outBuffer.position());
+			outBuffer.position(0);
+		}
+		outBuffer.putInt(value);
+	}
+
+	/**
+	 * Returns the dictionary index of the only token which may have the given hash. The caller must still compare
+	 * the token at this index with its key, since a token which isn't in the dictionary is mapped to an arbitrary
+	 * slot, and its fingerprint matches with probability 1/256.
+	 * @param hash the key's hash
+	 * @return the candidate dictionary index, or -1 if the key is surely not in the dictionary
+	 */
+	public int getCandidate(long hash) {
+		if (numOfKeys == 0) {
+			return -1;
+		}
+		int displacement = file.getInt(HEADER_SIZE + getBucket(hash, numOfBuckets) * SharedUtils.SIZE_OF_INT);
+		int slot = getSlot(hash, displacement, numOfKeys);
+		if (file.get(fingerprintsOffset + slot) != getFingerprint(hash)) {
+			return -1;
+		}
+		return file.getInt(indicesOffset + slot * SharedUtils.SIZE_OF_INT);
+	}
+}
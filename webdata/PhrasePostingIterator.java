@@ -0,0 +1,163 @@
+package webdata;
+
+import java.util.Arrays;
+
+/**
+ * A PostingIterator over the reviews which contain a phrase - its terms in order - with at most slop extra tokens
+ * between the first and the last of them (a slop of 0 is an exact phrase), and the number of the phrase's matches in
+ * each review as its frequency. The candidates are the reviews of the conjunction of the terms' posting lists (see
+ * ConjunctionPostingIterator), and only their positions are read: the terms' positions cursors skip the positions of
+ * all the other reviews without decoding them.
+ * A term with wildcards has a cursor for each of its matching tokens, and its positions in a review are their union.
+ */
+public class PhrasePostingIterator extends PostingIterator {
+
+	/** The conjunction of the terms' posting lists **/
+	private ConjunctionPostingIterator candidates;
+
+	/** The positions cursors of each term, in the phrase's order **/
+	private PositionsIndex.Cursor[][] cursors;
+
+	/** The maximal number of extra tokens in a match **/
+	private int slop;
+
+	/** The positions of each term in the current candidate **/
+	private int[][] positions;
+
+	/** The number of positions of each term in the current candidate **/
+	private int[] numOfPositions;
+
+	/** The current review id **/
+	private int reviewId;
+
+	/** The number of matches in the current review **/
+	private int frequency;
+
+	/**
+	 * Constructor
+	 * @param lists the posting lists of the terms, none of which was advanced yet
+	 * @param cursors the positions cursors of each term, in the phrase's order, none of which was moved yet
+	 * @param numOfTerms the number of terms, at least 1
+	 * @param slop the maximal number of extra tokens between the phrase's first and last terms
+	 */
+	public PhrasePostingIterator(PostingIterator[] lists, PositionsIndex.Cursor[][] cursors, int numOfTerms,
+								 int slop) {
+		candidates = new ConjunctionPostingIterator(lists, numOfTerms);
+		this.cursors = cursors;
+		this.slop = slop;
+		positions = new int[numOfTerms][8];
+		numOfPositions = new int[numOfTerms];
+		reviewId = -1;
+	}
+
+	@Override
+	public int reviewId() {
+		return reviewId;
+	}
+
+	@Override
+	public int frequency() {
+		return frequency;
+	}
+
+	@Override
+	public int nextReview() {
+		if (reviewId == NO_MORE_REVIEWS) {
+			return reviewId;
+		}
+		return toMatch(candidates.nextReview());
+	}
+
+	@Override
+	public int advance(int target) {
+		if (reviewId >= target) {
+			return reviewId;
+		}
+		return toMatch(candidates.advance(target));
+	}
+
+	@Override
+	public int cost() {
+		return candidates.cost();
+	}
+
+	/**
+	 * Moves to the first candidate, starting from the given one, which contains the phrase
+	 * @param candidate a review id of the conjunction
+	 * @return the new review id, or NO_MORE_REVIEWS if there is none
+	 */
+	private int toMatch(int candidate) {
+		frequency = 0;
+		while (candidate != NO_MORE_REVIEWS) {
+			frequency = countMatches(candidate);
+			if (frequency > 0) {
+				break;
+			}
+			candidate = candidates.nextReview();
+		}
+		reviewId = candidate;
+		return reviewId;
+	}
+
+	/**
+	 * Counts the matches of the phrase in a review: the positions of the first term from which the next terms can
+	 * be found, in order, within the slop. For every start the next terms are taken at their first positions after
+	 * the previous term's, which is the tightest match from it; since these positions only grow with the start, every
+	 * term's positions are passed over once.
+	 * @param candidate a review id which contains all the terms
+	 * @return the number of matches
+	 */
+	private int countMatches(int candidate) {
+		for (int i = 0; i < cursors.length; ++i) {
+			if (!readPositions(i, candidate)) {
+				return 0;
+			}
+		}
+		int[] indexes = new int[cursors.length];
+		int matches = 0;
+		for (int start = 0; start < numOfPositions[0]; ++start) {
+			int previous = positions[0][start];
+			for (int i = 1; i < cursors.length; ++i) {
+				while (indexes[i] < numOfPositions[i] && positions[i][indexes[i]] <= previous) {
+					++indexes[i];
+				}
+				if (indexes[i] == numOfPositions[i]) {
+					// no later start can be completed either
+					return matches;
+				}
+				previous = positions[i][indexes[i]];
+			}
+			if (previous - positions[0][start] - (cursors.length - 1) <= slop) {
+				++matches;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Reads the positions of a term in a review, the union of the positions of all of its tokens
+	 * @param term the index of the term
+	 * @param candidate the review id
+	 * @return true iff the term has positions in the review
+	 */
+	private boolean readPositions(int term, int candidate) {
+		int size = 0;
+		for (PositionsIndex.Cursor cursor : cursors[term]) {
+			if (!cursor.advance(candidate)) {
+				continue;
+			}
+			int[] tokenPositions = cursor.getPositions();
+			int numOfTokenPositions = cursor.getNumOfPositions();
+			if (positions[term].length < size + numOfTokenPositions) {
+				positions[term] = Arrays.copyOf(positions[term], 2 * (size + numOfTokenPositions));
+			}
+			System.arraycopy(tokenPositions, 0, positions[term], size, numOfTokenPositions);
+			size += numOfTokenPositions;
+		}
+		if (cursors[term].length > 1) {
+			size = SortedIntArrays.sortDistinct(positions[term], size);
+		}
+		numOfPositions[term] = size;
+		return size > 0;
+	}
+}
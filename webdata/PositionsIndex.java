@@ -0,0 +1,241 @@
+package webdata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The optional positions of the tokens in the reviews, for phrase and proximity queries. They're kept apart from the
+ * posting lists, in a file of their own, so queries which don't need them never read them: for every token, in
+ * increasing review id order, the gap from the previous review id, the number of the token's positions in the review
+ * and the positions themselves as gaps - all in Length-precoded Varint compression - after a flat table of the
+ * tokens' pointers. A position is the index of the token among the review's tokens.
+ * The writer reads the (token id, review id, position) trios which the IndexWriter sorted and merged, and the reader
+ * maps both files, like the k-gram index does, so its state is never changed and it can be shared between threads.
+ */
+public class PositionsIndex {
+
+	/**
+	 * A cursor over the positions of a single token, review by review, in increasing review id order
+	 */
+	public static class Cursor {
+
+		/** the token's positions, decoded with their own position **/
+		private ByteBuffer buffer;
+
+		/** the current review id, -1 before the first review **/
+		private int reviewId;
+
+		/** the number of positions of the current review which weren't decoded yet **/
+		private int numOfUndecoded;
+
+		/** the positions of the current review, once they're decoded **/
+		private int[] positions = new int[8];
+
+		/** the number of the current review's positions **/
+		private int numOfPositions;
+
+		/**
+		 * Constructor
+		 * @param buffer the token's encoded positions
+		 */
+		Cursor(ByteBuffer buffer) {
+			this.buffer = buffer;
+			reviewId = -1;
+		}
+
+		/**
+		 * Moves the cursor to a review, skipping the positions of the reviews before it
+		 * @param target a review id which is not smaller than the ones the cursor was moved to before
+		 * @return true iff the token appears in the review
+		 */
+		public boolean advance(int target) {
+			while (reviewId < target) {
+				// skip the undecoded positions of the current review
+				for (; numOfUndecoded > 0; --numOfUndecoded) {
+					SharedUtils.readIntegerFromBuffer(buffer);
+				}
+				numOfPositions = 0;
+				if (!buffer.hasRemaining()) {
+					reviewId = PostingIterator.NO_MORE_REVIEWS;
+					return false;
+				}
+				int gap = SharedUtils.readIntegerFromBuffer(buffer);
+				reviewId = (reviewId < 0) ? gap : reviewId + gap;
+				numOfUndecoded = SharedUtils.readIntegerFromBuffer(buffer);
+			}
+			return reviewId == target;
+		}
+
+		/**
+		 * @return the positions of the token in the review the cursor was moved to, sorted, in the first
+		 * getNumOfPositions() entries of an array which is reused by the next calls
+		 */
+		public int[] getPositions() {
+			if (numOfUndecoded > 0) {
+				if (positions.length < numOfUndecoded) {
+					positions = new int[numOfUndecoded];
+				}
+				int position = 0;
+				for (int i = 0; i < numOfUndecoded; ++i) {
+					position += SharedUtils.readIntegerFromBuffer(buffer);
+					positions[i] = position;
+				}
+				numOfPositions = numOfUndecoded;
+				numOfUndecoded = 0;
+			}
+			return positions;
+		}
+
+		/**
+		 * @return the number of positions of the token in the review the cursor was moved to
+		 */
+		public int getNumOfPositions() {
+			return numOfPositions + numOfUndecoded;
+		}
+	}
+
+	/** The number of tokens **/
+	private int numOfTokens;
+
+	/** The sorted and merged (token id, review id, position) trios file (write phase) **/
+	private String mergedFile;
+
+	/** The mapped pointers table: numOfTokens + 1 longs, the last one is the size of all the positions (read phase) **/
+	private ByteBuffer pointersTable;
+
+	/** The concatenated positions of all the tokens, mapped in segments of 2^SEGMENT_BITS bytes (read phase) **/
+	private ByteBuffer[] positionsSegments;
+
+	/**
+	 * Constructor - for the IndexWriter
+	 * @param mergedFile the sorted and merged (token id, review id, position) trios file
+	 * @param numOfTokens the number of tokens
+	 */
+	public PositionsIndex(String mergedFile, int numOfTokens) {
+		this.mergedFile = mergedFile;
+		this.numOfTokens = numOfTokens;
+	}
+
+	/**
+	 * Constructor - for the IndexReader, maps the positions from the disc
+	 * @param dir The index files' directory
+	 * @throws IOException
+	 */
+	public PositionsIndex(String dir) throws IOException {
+		pointersTable = SharedUtils.mapFile(dir + File.separator + SharedUtils.POSITIONS_POINTERS_FILE);
+		numOfTokens = pointersTable.capacity() / SharedUtils.SIZE_OF_LONG - 1;
+		positionsSegments = SharedUtils.mapFileSegments(dir + File.separator + SharedUtils.POSITIONS_FILE,
+				getPointer(numOfTokens), SharedUtils.SEGMENT_BITS);
+	}
+
+	/**
+	 * Writes the positions to the disc, reading the merged trios file sequentially: the positions to one file, and
+	 * the tokens' pointers to another.
+	 * @param dir The index files' directory
+	 * @throws IOException
+	 */
+	public void writeToDisc(String dir) throws IOException {
+		long[] pointers = new long[numOfTokens + 1];
+		File file = new File(mergedFile);
+		long numOfTrios = file.exists() ? file.length() / (3 * SharedUtils.SIZE_OF_INT) : 0;
+		DataInputStream in = file.exists() ? new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+				: null;
+		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.POSITIONS_FILE));
+		ByteBuffer bufferOut = ByteBuffer.allocate(SharedUtils.MEM_BLOCK_SIZE);
+		long offset = 0;
+		int nextToken = 0;
+		int tokenId = -1;
+		int reviewId = -1;
+		int previousReviewId = 0;
+		int[] positions = new int[8];
+		int numOfPositions = 0;
+		for (long i = 0; i <= numOfTrios; ++i) {
+			int newTokenId = numOfTokens;
+			int newReviewId = -1;
+			int position = 0;
+			if (i < numOfTrios) {
+				newTokenId = in.readInt();
+				newReviewId = in.readInt();
+				position = in.readInt();
+			}
+			if (newTokenId != tokenId || newReviewId != reviewId) {
+				if (numOfPositions > 0) {
+					offset = writeReviewPositions(reviewId - previousReviewId, positions, numOfPositions, out,
+							bufferOut, offset);
+					previousReviewId = reviewId;
+					numOfPositions = 0;
+				}
+				if (newTokenId != tokenId) {
+					// the tokens without positions before the new token get empty lists
+					for (; nextToken <= newTokenId && nextToken <= numOfTokens; ++nextToken) {
+						pointers[nextToken] = offset;
+					}
+					previousReviewId = 0;
+				}
+				tokenId = newTokenId;
+				reviewId = newReviewId;
+			}
+			if (numOfPositions == positions.length) {
+				positions = Arrays.copyOf(positions, 2 * numOfPositions);
+			}
+			positions[numOfPositions++] = position;
+		}
+		if (in != null) {
+			in.close();
+		}
+		out.write(bufferOut.array(), 0, bufferOut.position());
+		out.close();
+
+		ByteBuffer table = ByteBuffer.allocate(pointers.length * SharedUtils.SIZE_OF_LONG);
+		for (long pointer : pointers) {
+			table.putLong(pointer);
+		}
+		out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.POSITIONS_POINTERS_FILE));
+		out.write(table.array(), 0, table.position());
+		out.close();
+	}
+
+	/**
+	 * Writes the positions of a token in a single review
+	 * @param gap the gap from the previous review id of the token (the review id itself for its first review)
+	 * @param positions the positions, sorted
+	 * @param numOfPositions the number of positions
+	 * @return the file's offset after the positions
+	 * @throws IOException
+	 */
+	private static long writeReviewPositions(int gap, int[] positions, int numOfPositions, BufferedOutputStream out,
+											 ByteBuffer bufferOut, long offset) throws IOException {
+		offset = SharedUtils.writeIntegerToDisc(gap, out, bufferOut, offset);
+		offset = SharedUtils.writeIntegerToDisc(numOfPositions, out, bufferOut, offset);
+		int previous = 0;
+		for (int i = 0; i < numOfPositions; ++i) {
+			offset = SharedUtils.writeIntegerToDisc(positions[i] - previous, out, bufferOut, offset);
+			previous = positions[i];
+		}
+		return offset;
+	}
+
+	/**
+	 * @param tokenId a token id, or numOfTokens for the end of the positions
+	 * @return the offset of the token's positions
+	 */
+	private long getPointer(int tokenId) {
+		return pointersTable.getLong(tokenId * SharedUtils.SIZE_OF_LONG);
+	}
+
+	/**
+	 * @param tokenId a token id
+	 * @return a cursor over the positions of the token, review by review
+	 */
+	public Cursor getCursor(int tokenId) {
+		long pointer = getPointer(tokenId);
+		int size = (int)(getPointer(tokenId + 1) - pointer);
+		if (size <= 0) {
+			return new Cursor(ByteBuffer.allocate(0));
+		}
+		return new Cursor(SharedUtils.getSegmentsBytes(positionsSegments, SharedUtils.SEGMENT_BITS, pointer, size));
+	}
+}
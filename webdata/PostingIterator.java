@@ -0,0 +1,47 @@
+package webdata;
+
+/**
+ * A cursor over a posting list of the tokens' inverted index. The cursor walks the (review id, frequency) pairs of
+ * the list in increasing review id order, without materializing the list as objects. Before the first call to
+ * nextReview() the cursor is not positioned on any review, and after the last pair it is positioned on
+ * NO_MORE_REVIEWS.
+ */
+public abstract class PostingIterator {
+
+	/** The review id the cursor is positioned on once the posting list is exhausted **/
+	public static final int NO_MORE_REVIEWS = Integer.MAX_VALUE;
+
+	/**
+	 * @return the review id the cursor is currently positioned on, -1 before the first call to nextReview()
+	 */
+	public abstract int reviewId();
+
+	/**
+	 * @return the number of times the token appears in the current review
+	 */
+	public abstract int frequency();
+
+	/**
+	 * Moves the cursor to the next review in the posting list
+	 * @return the new review id, or NO_MORE_REVIEWS if the posting list is exhausted
+	 */
+	public abstract int nextReview();
+
+	/**
+	 * @return the number of reviews in the posting list (an upper bound of the number of nextReview() calls)
+	 */
+	public abstract int cost();
+
+	/**
+	 * Moves the cursor to the first review whose id is at least target
+	 * @param target the review id to advance to
+	 * @return the new review id, or NO_MORE_REVIEWS if there is no such review
+	 */
+	public int advance(int target) {
+		int current = reviewId();
+		while (current < target) {
+			current = nextReview();
+		}
+		return current;
+	}
+}
@@ -4,44 +4,141 @@ import java.util.*;
 
 public class ReviewSearch {
 
-	/** the index reader **/
-	private IndexReader reader;
-
-	/** a comparator of Map.Entry<Integer, Double> which compares first by value and then by key **/
-	private SortByValue<Integer> compInt;
+	/** the BM25 term frequency saturation parameter **/
+	private static final double BM25_K1 = 1.2;
 
-	/** a comparator of Map.Entry<String, Double> which compares first by value and then by key **/
-	private SortByValue<String> compStr;
+	/** the BM25 length normalization parameter **/
+	private static final double BM25_B = 0.75;
 
+	/** the index reader **/
+	private IndexReader reader;
 
 	/**
 	 * Constructor
 	 */
 	public ReviewSearch(IndexReader iReader) {
 		reader = iReader;
-		compInt = new SortByValue<>();
-		compStr = new SortByValue<>();
 	}
 
 	/**
-	 * A class which implements a Map.Entry<T, Double> comparator
-	 * @param <T> a class type which extends Comparable
+	 * A Scorer which implements the lnn part of the lnn.ltc ranking function (using the SMART notation)
 	 */
-	class SortByValue<T extends Comparable<T>> implements Comparator<Map.Entry<T, Double>>
-	{
+	class VectorSpaceScorer extends DocumentAtATimeEvaluator.Scorer {
+
+		/** the weights of the query's terms, according to the query's ltc vector **/
+		private double[] weights;
+
 		/**
-		 * A function which compare between two map entries
-		 * @param a first map entry
-		 * @param b second map entry
-		 * @return positive number if a is bigger than b, negative number if b is bigger, and 0 id they are
-		 * equals.
+		 * Constructor
+		 * @param weights the weights of the query's terms
 		 */
-		public int compare(Map.Entry<T, Double> a, Map.Entry<T, Double> b)
-		{
-			if (a.getValue().compareTo(b.getValue()) == 0) {
-				return b.getKey().compareTo(a.getKey());
+		VectorSpaceScorer(double[] weights) {
+			this.weights = weights;
+		}
+
+		@Override
+		public double score(int reviewId, int[] frequencies) {
+			double rank = 0.0;
+			for (int i = 0; i < frequencies.length; ++i) {
+				if (frequencies[i] > 0) {
+					double tf = 1 + Math.log10(frequencies[i]);
+					rank += tf * weights[i];
+				}
 			}
-			return a.getValue().compareTo(b.getValue());
+			return rank;
+		}
+	}
+
+	/**
+	 * A Scorer which implements the language model ranking function, smoothed using a mixture model. The rank is
+	 * computed in log space, so it is the sum of the logs of the terms' factors rather than their product: a term
+	 * which appears in the review contributes qf * log(lambda * P(t|Md) + (1 - lambda) * P(t|Mc)), and a term which
+	 * doesn't appear in it contributes the constant qf * log((1 - lambda) * P(t|Mc)), which is computed once.
+	 */
+	class LanguageModelScorer extends DocumentAtATimeEvaluator.Scorer {
+
+		/** the smoothing parameter **/
+		private double lambda;
+
+		/** the frequencies of the query's terms in the query **/
+		private int[] queryFrequencies;
+
+		/** (1 - lambda) * P(t|Mc) of each of the query's terms, when Mc is the language model for the corpus **/
+		private double[] smoothedPtMc;
+
+		/** the contribution of each term to the rank of a review which doesn't contain it **/
+		private double[] logBackgrounds;
+
+		/**
+		 * Constructor
+		 * @param lambda the smoothing parameter
+		 * @param queryFrequencies the frequencies of the query's terms in the query
+		 * @param ptMc P(t|Mc) of each of the query's terms
+		 */
+		LanguageModelScorer(double lambda, int[] queryFrequencies, double[] ptMc) {
+			this.lambda = lambda;
+			this.queryFrequencies = queryFrequencies;
+			smoothedPtMc = new double[ptMc.length];
+			logBackgrounds = new double[ptMc.length];
+			for (int i = 0; i < ptMc.length; ++i) {
+				smoothedPtMc[i] = (1 - lambda) * ptMc[i];
+				logBackgrounds[i] = queryFrequencies[i] * Math.log(smoothedPtMc[i]);
+			}
+		}
+
+		@Override
+		public double score(int reviewId, int[] frequencies) {
+			double rank = 0.0;
+			double reviewLength = reader.getReviewLength(reviewId);
+			for (int i = 0; i < frequencies.length; ++i) {
+				if (frequencies[i] > 0) {
+					double newRank = (lambda * (frequencies[i] / reviewLength)) + smoothedPtMc[i];
+					rank += queryFrequencies[i] * Math.log(newRank);
+				}
+				else {
+					rank += logBackgrounds[i];
+				}
+			}
+			return rank;
+		}
+	}
+
+	/**
+	 * A Scorer which implements the Okapi BM25 ranking function. The length normalization of a review depends only
+	 * on its quantized length, so it is precomputed for all 256 length codes, and scoring a posting costs a table
+	 * lookup and a few arithmetic operations.
+	 */
+	class BM25Scorer extends DocumentAtATimeEvaluator.AdditiveScorer {
+
+		/** qf * idf * (k1 + 1) of each of the query's terms **/
+		private double[] weights;
+
+		/** k1 * (1 - b + b * length / averageLength) of each length code **/
+		private double[] lengthNorms;
+
+		/**
+		 * Constructor
+		 * @param weights qf * idf * (k1 + 1) of each of the query's terms
+		 * @param averageLength the average length of a review
+		 */
+		BM25Scorer(double[] weights, double averageLength) {
+			this.weights = weights;
+			lengthNorms = new double[256];
+			for (int code = 0; code < lengthNorms.length; ++code) {
+				double length = Reviews.decodeLengthNorm((byte)code);
+				lengthNorms[code] = BM25_K1 * (1 - BM25_B + BM25_B * length / averageLength);
+			}
+		}
+
+		@Override
+		public double termScore(int term, int reviewId, int frequency) {
+			double lengthNorm = lengthNorms[reader.getReviewLengthNorm(reviewId) & 0xFF];
+			return weights[term] * frequency / (frequency + lengthNorm);
+		}
+
+		@Override
+		public double getMaxScore(int term) {
+			return weights[term];
 		}
 	}
 
@@ -52,65 +149,42 @@ public class ReviewSearch {
 	 * The list should be sorted by the ranking
 	 */
 	public Enumeration<Integer> vectorSpaceSearch(Enumeration<String> query, int k) {
-		HashMap<Integer, Double> docRanks = getVectorSpaceReviewRank(query);
-		return getMaxK(k, docRanks);
+		TopKHeap topReviews = new TopKHeap(k);
+		evaluateVectorSpace(query, topReviews);
+		return getIdsEnumeration(topReviews.getSortedIds());
 	}
 
 	/**
-	 * This function ranks each review which contains at least one word of the query, by the VectorSpace rank
+	 * This function ranks each review which contains at least one word of the query, by the VectorSpace rank, and
+	 * hands the ranks to the given collector
 	 * @param query the input query
-	 * @return a hashMap of all the ranks of each review
+	 * @param collector the receiver of the ranks of the reviews, in increasing review id order
 	 */
-	private HashMap<Integer, Double> getVectorSpaceReviewRank(Enumeration<String> query) {
+	private void evaluateVectorSpace(Enumeration<String> query, DocumentAtATimeEvaluator.Collector collector) {
 		HashMap<String, Double> queryVector = createQueryVector(query);
-		HashMap<Integer, Double> docRanks = new HashMap<>();
-
-		for (String token : queryVector.keySet()) {
-			Enumeration<Integer> postList = reader.getReviewsWithToken(token);
-			while (postList.hasMoreElements()) {
-				int reviewId = postList.nextElement();
-				double frequency = postList.nextElement();
-				double tf = 1 + Math.log10(frequency);
-				double newRank = tf * queryVector.get(token);
-				double rank = docRanks.getOrDefault(reviewId, 0.0);
-				docRanks.put(reviewId, rank + newRank);
-			}
+		PostingIterator[] iterators = new PostingIterator[queryVector.size()];
+		double[] weights = new double[queryVector.size()];
+		int i = 0;
+		for (Map.Entry<String, Double> entry : queryVector.entrySet()) {
+			iterators[i] = reader.getPostingIterator(entry.getKey());
+			weights[i] = entry.getValue();
+			++i;
 		}
-		return docRanks;
+		new DocumentAtATimeEvaluator(iterators).evaluate(new VectorSpaceScorer(weights), collector);
 	}
 
 	/**
-	 * Returns the K elements with the highest values in docRanks
-	 * @param k the maximal number of items to return
-	 * @param docRanks a map whose keys are review ids and its' values are ranks
-	 * @return the K elements with the highest values in docRanks
+	 * @param ids review ids
+	 * @return an Enumeration of the ids, in the same order
 	 */
-	private Enumeration<Integer> getMaxK(int k, HashMap<Integer, Double> docRanks) {
-		ArrayList<Map.Entry<Integer, Double>> reviewsRank = new ArrayList<>(docRanks.entrySet());
-		reviewsRank.sort(compInt);
-		Vector<Integer> result = new Vector<>();
-		for (int i = reviewsRank.size() - 1; (i >= 0) && (i >= reviewsRank.size() - k); --i) {
-			result.add(reviewsRank.get(i).getKey());
+	private Enumeration<Integer> getIdsEnumeration(int[] ids) {
+		Vector<Integer> result = new Vector<>(ids.length);
+		for (int id : ids) {
+			result.add(id);
 		}
 		return result.elements();
 	}
 
-	/**
-	 * Returns the K elements with the highest values in docRanks
-	 * @param k the maximal number of items to return
-	 * @param docRanks a map whose keys are review ids and its' values are ranks
-	 * @return the K elements with the highest values in docRanks
-	 */
-	private Collection<String> getMaxKStr(int k, HashMap<String, Double> docRanks) {
-		ArrayList<Map.Entry<String, Double>> reviewsRank = new ArrayList<>(docRanks.entrySet());
-		reviewsRank.sort(compStr);
-		Vector<String> result = new Vector<>();
-		for (int i = reviewsRank.size() - 1; (i >= 0) && (i >= reviewsRank.size() - k); --i) {
-			result.add(reviewsRank.get(i).getKey());
-		}
-		return result;
-	}
-
 	/**
 	 * Creates the query's vector using the vector space ranking function ltc (using the SMART notation)
 	 * @param query the query
@@ -158,69 +232,113 @@ public class ReviewSearch {
 	 */
 	public Enumeration<Integer> languageModelSearch(Enumeration<String> query, double lambda, int k) {
 		HashMap<String, Integer> queryFrequencies = getQueryFrequencies(query);
-		HashMap<Integer, Double> reviewsRank = new HashMap<>();
 		double totalTokens = reader.getTokenSizeOfReviews();
-		HashSet<Integer> visitedReviews = new HashSet<>();
-		HashSet<String> visitedTokens = new HashSet<>();
+		PostingIterator[] iterators = new PostingIterator[queryFrequencies.size()];
+		int[] frequencies = new int[queryFrequencies.size()];
+		double[] ptMc = new double[queryFrequencies.size()];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : queryFrequencies.entrySet()) {
+			iterators[i] = reader.getPostingIterator(entry.getKey());
+			frequencies[i] = entry.getValue();
+			ptMc[i] = ((double)reader.getTokenCollectionFrequency(entry.getKey())) / totalTokens;
+			++i;
+		}
+		TopKHeap topReviews = new TopKHeap(k);
+		new DocumentAtATimeEvaluator(iterators).evaluate(new LanguageModelScorer(lambda, frequencies, ptMc),
+															topReviews);
+		return getIdsEnumeration(topReviews.getSortedIds());
+	}
 
-		for (String token : queryFrequencies.keySet()) {
-			Enumeration<Integer> postList = reader.getReviewsWithToken(token);
-			double ptMc = ((double)reader.getTokenCollectionFrequency(token)) / totalTokens;
-			HashMap<Integer, Double> postListDict = new HashMap<>();
-			while (postList.hasMoreElements()) {
-				postListDict.put(postList.nextElement(), (double)postList.nextElement());
-			}
-			updateRidsRank(lambda, queryFrequencies, reviewsRank, totalTokens, visitedReviews, visitedTokens,
-																				token, ptMc, postListDict);
-			visitedTokens.add(token);
+	/**
+	 * Returns a list of the id-s of the k most highly ranked reviews for the
+	 * given query, using the Okapi BM25 ranking function (with k1 = 1.2 and b = 0.75)
+	 * The list is sorted by the ranking
+	 */
+	public Enumeration<Integer> bm25Search(Enumeration<String> query, int k) {
+		HashMap<String, Integer> queryFrequencies = getQueryFrequencies(query);
+		PostingIterator[] iterators = new PostingIterator[queryFrequencies.size()];
+		BM25Scorer scorer = createBM25Scorer(queryFrequencies, iterators);
+		TopKHeap topReviews = new TopKHeap(k);
+		new DocumentAtATimeEvaluator(iterators).evaluate(scorer, topReviews);
+		return getIdsEnumeration(topReviews.getSortedIds());
+	}
+
+	/**
+	 * Opens the posting lists of the query's terms, and creates the BM25 scorer of the query
+	 * @param queryFrequencies the frequencies of the query's terms in the query
+	 * @param iterators an array, of the number of terms, which is filled with the posting lists of the terms
+	 * @return the scorer, whose i-th term is the term of iterators[i]
+	 */
+	private BM25Scorer createBM25Scorer(HashMap<String, Integer> queryFrequencies, PostingIterator[] iterators) {
+		double N = reader.getNumberOfReviews();
+		double averageLength = (N == 0) ? 1 : Math.max(reader.getTokenSizeOfReviews() / N, 1);
+		double[] weights = new double[queryFrequencies.size()];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : queryFrequencies.entrySet()) {
+			iterators[i] = reader.getPostingIterator(entry.getKey());
+			// the number of reviews containing the term, which for a wildcard is the size of the union - the union's
+			// cost() is the total length of the merged lists, which may exceed N and make the idf negative
+			double dft = reader.getTokenNumOfReviews(entry.getKey());
+			double idf = Math.log(1 + (N - dft + 0.5) / (dft + 0.5));
+			weights[i] = entry.getValue() * idf * (BM25_K1 + 1);
+			++i;
 		}
-		return getMaxK(k, reviewsRank);
+		return new BM25Scorer(weights, averageLength);
 	}
 
 	/**
-	 * Updates the rank of each review id according to token
-	 * @param lambda the given value of lambda
-	 * @param queryFrequencies a map which contains the frequency of each token in the query
-	 * @param reviewsRank a map which contains the rank of each review id
-	 * @param totalTokens the total number of tokens in the corpus
-	 * @param visitedReviews a set containing all the reviews we've already seen
-	 * @param visitedTokens a set containing all the tokens we've iterated
-	 * @param token the token the rank is updated by
-	 * @param ptMc P(t|Mc) when t is the token and Mc is the language model for the corpus
-	 * @param postListDict a dictionary containing the content of token's posting list - when its' keys are
-	 *                       review ids and its values are frequencies.
+	 * Returns the id-s of all the reviews which match the given Boolean query (see BooleanQuery), such as
+	 * "battery AND life NOT charger"
+	 * The list is sorted by id
 	 */
-	private void updateRidsRank(double lambda, HashMap<String, Integer> queryFrequencies,
-								HashMap<Integer, Double> reviewsRank, double totalTokens,
-								HashSet<Integer> visitedReviews, HashSet<String> visitedTokens,
-								String token, double ptMc, HashMap<Integer, Double> postListDict) {
-		HashSet<Integer> reviewIds = new HashSet<>(visitedReviews);
-		reviewIds.addAll(postListDict.keySet());
-		for (Integer rid : reviewIds) {
-			if (postListDict.get(rid) != null) {
-				double newRank = (lambda * (postListDict.get(rid) / (double)reader.getReviewLength(rid)))
-						+ ((1 - lambda) * ptMc);
-				newRank = Math.pow(newRank, queryFrequencies.get(token));
-				double rank = reviewsRank.getOrDefault(rid, 1.0);
-				reviewsRank.put(rid, rank * newRank);
-				if (!visitedReviews.contains(rid)) {
-					for (String str : visitedTokens) {
-						double localPtMc = ((double)reader.getTokenCollectionFrequency(str)) / totalTokens;
-						double newRank2 = ((1 - lambda) * localPtMc);
-						newRank2 = Math.pow(newRank2, queryFrequencies.get(str));
-						double rank2 = reviewsRank.getOrDefault(rid, 1.0);
-						reviewsRank.put(rid, rank2 * newRank2);
-					}
+	public Enumeration<Integer> booleanSearch(String query) {
+		PostingIterator matches = BooleanQuery.parse(query).getPostingIterator(reader);
+		Vector<Integer> result = new Vector<>();
+		while (matches.nextReview() != PostingIterator.NO_MORE_REVIEWS) {
+			result.add(matches.reviewId());
+		}
+		return result.elements();
+	}
+
+	/**
+	 * Returns the id-s of all the reviews which contain the given phrase - its tokens in order - with at most slop
+	 * extra tokens between its first and last tokens; a slop of 0 matches the exact phrase. The positions of the
+	 * tokens are only read for the reviews which contain all of them (see PhrasePostingIterator). If the index was
+	 * written without positions, the reviews which contain all the tokens are returned.
+	 * The list is sorted by id
+	 */
+	public Enumeration<Integer> phraseSearch(String phrase, int slop) {
+		return booleanSearch("\"" + phrase.replace('"', ' ') + "\"~" + slop);
+	}
+
+	/**
+	 * Returns a list of the id-s of the k most highly ranked reviews which match the given Boolean query (see
+	 * BooleanQuery), using the Okapi BM25 ranking function over the query's terms which aren't excluded. Only the
+	 * matching reviews are scored: the posting lists of the terms are skipped with advance() to every match.
+	 * The list is sorted by the ranking
+	 */
+	public Enumeration<Integer> rankedBooleanSearch(String query, int k) {
+		BooleanQuery booleanQuery = BooleanQuery.parse(query);
+		PostingIterator matches = booleanQuery.getPostingIterator(reader);
+		HashMap<String, Integer> queryFrequencies = getQueryFrequencies(Collections.enumeration(
+				booleanQuery.getTerms()));
+		PostingIterator[] iterators = new PostingIterator[queryFrequencies.size()];
+		BM25Scorer scorer = createBM25Scorer(queryFrequencies, iterators);
+		TopKHeap topReviews = new TopKHeap(k);
+		while (matches.nextReview() != PostingIterator.NO_MORE_REVIEWS) {
+			int reviewId = matches.reviewId();
+			double rank = 0.0;
+			for (int i = 0; i < iterators.length; ++i) {
+				if (iterators[i].reviewId() < reviewId) {
+					iterators[i].advance(reviewId);
+				}
+				if (iterators[i].reviewId() == reviewId) {
+					rank += scorer.termScore(i, reviewId, iterators[i].frequency());
 				}
 			}
-			else {
-				double newRank = ((1 - lambda) * ptMc);
-				newRank = Math.pow(newRank, queryFrequencies.get(token));
-				double rank = reviewsRank.getOrDefault(rid, 1.0);
-				reviewsRank.put(rid, rank * newRank);
-			}
-			visitedReviews.add(rid);
+			topReviews.collect(reviewId, rank);
 		}
+		return getIdsEnumeration(topReviews.getSortedIds());
 	}
 
 	/**
@@ -229,40 +347,35 @@ public class ReviewSearch {
 	 * The list should be sorted by the ranking
 	 */
 	public Collection<String> productSearch(Enumeration<String> query, int k) {
-
-		HashMap<Integer, Double> reviewRanks = getVectorSpaceReviewRank(query);
-		HashMap<String, Double[]> productToRank = new HashMap<>();
-		HashMap<String, Double> finalProductToRank = new HashMap<>();
+		ScoreAccumulator productRanks = ScoreAccumulator.acquire(reader.getNumberOfProducts());
+		ScoreAccumulator productCounts = ScoreAccumulator.acquire(reader.getNumberOfProducts());
 		double lambda = 0.8;
 
-		for(int reviewID : reviewRanks.keySet()){
-			String pid = reader.getProductId(reviewID);
-			double score = reader.getReviewScore(reviewID);
-			double helpfulnessNumerator = reader.getReviewHelpfulnessNumerator(reviewID);
-			double helpfulnessDenominator = reader.getReviewHelpfulnessDenominator(reviewID);
-
-			double help = (helpfulnessDenominator == 0) ? 0.5 : helpfulnessNumerator / helpfulnessDenominator;
-			double rank = reviewRanks.get(reviewID);
-			double newRank = lambda * (rank * score / 5.0) + (1 - lambda) * (help * rank);
-
-			if(productToRank.containsKey(pid)){
-				Double[] pidRank = productToRank.get(pid);
-				pidRank[0] += newRank;
-				pidRank[1] += 1.0;
-				productToRank.put(pid, pidRank);
-			}
-			else{
-				Double[] pidRank = new Double[2];
-				pidRank[0] = newRank;
-				pidRank[1] = 1.0;
-				productToRank.put(pid, pidRank);
+		evaluateVectorSpace(query, new DocumentAtATimeEvaluator.Collector() {
+			@Override
+			public void collect(int reviewID, double rank) {
+				int pidIndex = reader.getProductIndex(reviewID);
+				double score = reader.getReviewScore(reviewID);
+				double helpfulnessNumerator = reader.getReviewHelpfulnessNumerator(reviewID);
+				double helpfulnessDenominator = reader.getReviewHelpfulnessDenominator(reviewID);
+
+				double help = (helpfulnessDenominator == 0) ? 0.5 : helpfulnessNumerator / helpfulnessDenominator;
+				double newRank = lambda * (rank * score / 5.0) + (1 - lambda) * (help * rank);
+				productRanks.add(pidIndex, newRank);
+				productCounts.add(pidIndex, 1.0);
 			}
+		});
+		TopKHeap topProducts = new TopKHeap(k);
+		for (int i = 0; i < productRanks.size(); ++i) {
+			int pidIndex = productRanks.getTouchedId(i);
+			topProducts.collect(pidIndex, productRanks.get(pidIndex) / productCounts.get(pidIndex));
 		}
-		for(String pid : productToRank.keySet()){
-			Double[] rank = productToRank.get(pid);
-			double newRank = rank[0] / rank[1];
-			finalProductToRank.put(pid, newRank);
+		productRanks.release();
+		productCounts.release();
+		Vector<String> result = new Vector<>();
+		for (int pidIndex : topProducts.getSortedIds()) {
+			result.add(reader.getProductIdOfIndex(pidIndex));
 		}
-		return getMaxKStr(k, finalProductToRank);
+		return result;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+package webdata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The original summaries and texts of the reviews, for showing the results of a search. The reviews are stored in
+ * review id order in blocks of about TEXT_BLOCK_SIZE bytes, every block compressed with Deflate on its own, so a
+ * review is read by inflating its block only. A flat table holds the blocks' offsets and inflated sizes, and the
+ * offset of every review: its block and its offset in the inflated block. In a block, a review is the length of its
+ * summary's UTF-8 bytes, the bytes, the length of its text's bytes and the bytes.
+ * The writer streams the blocks to the disc as the reviews are added, and the reader maps both files, like the
+ * k-gram index does, so its state is never changed and it can be shared between threads.
+ */
+public class ReviewTextStore {
+
+	/** The size of the pointers file's header: the number of reviews and the number of blocks **/
+	private static final int HEADER_SIZE = 2 * SharedUtils.SIZE_OF_INT;
+
+	/** The number of reviews **/
+	private int numOfReviews;
+
+	/** The number of blocks **/
+	private int numOfBlocks;
+
+	/** The compressed blocks' file (write phase) **/
+	private BufferedOutputStream out;
+
+	/** The current block, before it's compressed (write phase) **/
+	private ByteArrayOutputStream block;
+
+	/** Writes the reviews to the current block (write phase) **/
+	private DataOutputStream blockOut;
+
+	/** Compresses the blocks (write phase) **/
+	private Deflater deflater;
+
+	/** The offsets of the blocks in the compressed file, the last one is its size (write phase) **/
+	private long[] blockOffsets;
+
+	/** The inflated sizes of the blocks (write phase) **/
+	private int[] blockSizes;
+
+	/** The block of every review (write phase) **/
+	private int[] reviewBlocks;
+
+	/** The offset of every review in its inflated block (write phase) **/
+	private int[] reviewOffsets;
+
+	/** The index files' directory (write phase) **/
+	private String dir;
+
+	/**
+	 * The mapped pointers table, after the header: numOfBlocks + 1 longs of the blocks' offsets, numOfBlocks ints of
+	 * their inflated sizes, and two ints - the block and the offset in it - for every review (read phase)
+	 */
+	private ByteBuffer pointersTable;
+
+	/** The compressed blocks, mapped in segments of 2^SEGMENT_BITS bytes (read phase) **/
+	private ByteBuffer[] blocksSegments;
+
+	/**
+	 * Constructor - for the IndexWriter, starts writing the store
+	 * @param dir The index files' directory
+	 * @param numOfReviews the number of reviews which will be added
+	 * @throws IOException
+	 */
+	public ReviewTextStore(String dir, int numOfReviews) throws IOException {
+		this.dir = dir;
+		this.numOfReviews = numOfReviews;
+		out = new BufferedOutputStream(new FileOutputStream(dir + File.separator + SharedUtils.REVIEW_TEXTS_FILE));
+		block = new ByteArrayOutputStream(2 * SharedUtils.TEXT_BLOCK_SIZE);
+		blockOut = new DataOutputStream(block);
+		deflater = new Deflater();
+		blockOffsets = new long[16];
+		blockSizes = new int[16];
+		reviewBlocks = new int[numOfReviews];
+		reviewOffsets = new int[numOfReviews];
+	}
+
+	/**
+	 * Constructor - for the IndexReader, maps the store from the disc
+	 * @param dir The index files' directory
+	 * @throws IOException
+	 */
+	public ReviewTextStore(String dir) throws IOException {
+		pointersTable = SharedUtils.mapFile(dir + File.separator + SharedUtils.REVIEW_TEXTS_POINTERS_FILE);
+		numOfReviews = pointersTable.getInt(0);
+		numOfBlocks = pointersTable.getInt(SharedUtils.SIZE_OF_INT);
+		blocksSegments = SharedUtils.mapFileSegments(dir + File.separator + SharedUtils.REVIEW_TEXTS_FILE,
+				getBlockOffset(numOfBlocks), SharedUtils.SEGMENT_BITS);
+	}
+
+	/**
+	 * Adds the next review to the store, and compresses the current block to the disc when it's full
+	 * @param reviewId the review's id, one more than the previous one's
+	 * @param summary the review's summary
+	 * @param text the review's text
+	 * @throws IOException
+	 */
+	public void addReview(int reviewId, String summary, String text) throws IOException {
+		reviewBlocks[reviewId - 1] = numOfBlocks;
+		reviewOffsets[reviewId - 1] = block.size();
+		byte[] summaryBytes = summary.getBytes(StandardCharsets.UTF_8);
+		byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+		blockOut.writeInt(summaryBytes.length);
+		blockOut.write(summaryBytes);
+		blockOut.writeInt(textBytes.length);
+		blockOut.write(textBytes);
+		if (block.size() >= SharedUtils.TEXT_BLOCK_SIZE) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Compresses the current block to the disc
+	 * @throws IOException
+	 */
+	private void writeBlock() throws IOException {
+		if (numOfBlocks + 1 == blockOffsets.length) {
+			blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockOffsets.length);
+			blockSizes = Arrays.copyOf(blockSizes, 2 * blockSizes.length);
+		}
+		blockOut.flush();
+		byte[] bytes = block.toByteArray();
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		byte[] buffer = new byte[SharedUtils.MEM_BLOCK_SIZE];
+		long offset = blockOffsets[numOfBlocks];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buffer);
+			out.write(buffer, 0, length);
+			offset += length;
+		}
+		blockSizes[numOfBlocks] = bytes.length;
+		blockOffsets[++numOfBlocks] = offset;
+		block.reset();
+	}
+
+	/**
+	 * Compresses the last block, and writes the pointers table to the disc
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (block.size() > 0) {
+			writeBlock();
+		}
+		out.close();
+		deflater.end();
+		ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + (numOfBlocks + 1) * SharedUtils.SIZE_OF_LONG +
+				(numOfBlocks + 2 * numOfReviews) * SharedUtils.SIZE_OF_INT);
+		table.putInt(numOfReviews);
+		table.putInt(numOfBlocks);
+		for (int i = 0; i <= numOfBlocks; ++i) {
+			table.putLong(blockOffsets[i]);
+		}
+		for (int i = 0; i < numOfBlocks; ++i) {
+			table.putInt(blockSizes[i]);
+		}
+		for (int i = 0; i < numOfReviews; ++i) {
+			table.putInt(reviewBlocks[i]);
+			table.putInt(reviewOffsets[i]);
+		}
+		BufferedOutputStream tableOut = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
+				SharedUtils.REVIEW_TEXTS_POINTERS_FILE));
+		tableOut.write(table.array());
+		tableOut.close();
+		block = null;
+		blockOut = null;
+		reviewBlocks = null;
+		reviewOffsets = null;
+	}
+
+	/**
+	 * @param blockIndex a block's index, or numOfBlocks for the end of the blocks
+	 * @return the offset of the block in the compressed file
+	 */
+	private long getBlockOffset(int blockIndex) {
+		return pointersTable.getLong(HEADER_SIZE + blockIndex * SharedUtils.SIZE_OF_LONG);
+	}
+
+	/**
+	 * @param blockIndex a block's index
+	 * @return the inflated size of the block
+	 */
+	private int getBlockSize(int blockIndex) {
+		return pointersTable.getInt(HEADER_SIZE + (numOfBlocks + 1) * SharedUtils.SIZE_OF_LONG +
+				blockIndex * SharedUtils.SIZE_OF_INT);
+	}
+
+	/**
+	 * @param reviewId a review id
+	 * @return the offset in the pointers table of the review's block and offset
+	 */
+	private int getReviewPointer(int reviewId) {
+		return HEADER_SIZE + (numOfBlocks + 1) * SharedUtils.SIZE_OF_LONG + numOfBlocks * SharedUtils.SIZE_OF_INT +
+				(reviewId - 1) * 2 * SharedUtils.SIZE_OF_INT;
+	}
+
+	/**
+	 * Inflates a block
+	 * @param blockIndex the block's index
+	 * @return the inflated block
+	 */
+	private byte[] inflateBlock(int blockIndex) {
+		long offset = getBlockOffset(blockIndex);
+		int size = (int)(getBlockOffset(blockIndex + 1) - offset);
+		ByteBuffer compressed = SharedUtils.getSegmentsBytes(blocksSegments, SharedUtils.SEGMENT_BITS, offset, size);
+		byte[] input = new byte[size];
+		compressed.get(input);
+		byte[] bytes = new byte[getBlockSize(blockIndex)];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(input);
+			int length = 0;
+			while (length < bytes.length && !inflater.finished()) {
+				length += inflater.inflate(bytes, length, bytes.length - length);
+			}
+		}
+		catch (DataFormatException e) {
+			System.err.println("Corrupted review texts block " + blockIndex);
+			System.exit(1);
+		}
+		finally {
+			inflater.end();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of reviews in the store
+	 */
+	public int getNumOfReviews() {
+		return numOfReviews;
+	}
+
+	/**
+	 * Returns the summaries and texts of several reviews, inflating every block they're in once
+	 * @param reviewIds the ids of the reviews, in any order, each between 1 and the number of reviews
+	 * @param numOfIds the number of ids
+	 * @return for every review, in the same order, an array of its summary and its text
+	 */
+	public String[][] getReviews(int[] reviewIds, int numOfIds) {
+		HashMap<Integer, byte[]> blocks = new HashMap<Integer, byte[]>();
+		String[][] reviews = new String[numOfIds][];
+		for (int i = 0; i < numOfIds; ++i) {
+			int pointer = getReviewPointer(reviewIds[i]);
+			int blockIndex = pointersTable.getInt(pointer);
+			byte[] bytes = blocks.get(blockIndex);
+			if (bytes == null) {
+				bytes = inflateBlock(blockIndex);
+				blocks.put(blockIndex, bytes);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			buffer.position(pointersTable.getInt(pointer + SharedUtils.SIZE_OF_INT));
+			reviews[i] = new String[2];
+			reviews[i][0] = readString(buffer);
+			reviews[i][1] = readString(buffer);
+		}
+		return reviews;
+	}
+
+	/**
+	 * Reads a string and its length from a buffer
+	 * @param buffer the buffer, positioned at the string's length
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+}
@@ -9,6 +9,9 @@ import java.nio.ByteBuffer;
  */
 public class Reviews {
 
+	/** the number of length norm codes per unit of ln(1 + length) **/
+	private static final double LENGTH_NORM_SCALE = 16.0;
+
 	/** the product id's block number in the pid's dictionary **/
 	private int[] numOfBlock;
 
@@ -27,6 +30,9 @@ public class Reviews {
 	/** the reviews' lengths of text **/
 	private int[] lengths;
 
+	/** the reviews' lengths of text, quantized to a single byte (see encodeLengthNorm) **/
+	private byte[] lengthNorms;
+
 	/** number of reviews in the input **/
 	private int numOfReviews;
 
@@ -45,6 +51,7 @@ public class Reviews {
 		helpfulnessDenominators = new short[numOfReviews];
 		scores = new byte[numOfReviews];
 		lengths = new int[numOfReviews];
+		lengthNorms = new byte[numOfReviews];
 		this.numOfReviews = numOfReviews;
 		this.totalNumOfTokens = totalNumOfTokens;
 	}
@@ -75,6 +82,58 @@ public class Reviews {
 			lengths[i] = buffer.getInt();
 		}
 		in.close();
+		readLengthNorms(dir);
+	}
+
+	/**
+	 * reads the quantized lengths of the reviews from the disc. If the index was created without them, they are
+	 * computed from the lengths.
+	 * @param dir the directory in which all index files was created.
+	 * @throws IOException
+	 */
+	private void readLengthNorms(String dir) throws IOException {
+		File normsFile = new File(dir + File.separator + SharedUtils.REVIEW_NORMS_FILE);
+		if (!normsFile.exists()) {
+			for (int i = 0; i < numOfReviews; ++i) {
+				lengthNorms[i] = encodeLengthNorm(lengths[i]);
+			}
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(normsFile)));
+		in.readFully(lengthNorms, 0, numOfReviews);
+		in.close();
+	}
+
+	/**
+	 * writes the quantized lengths of the reviews to the disc
+	 * @param out a BufferedOutputStream
+	 * @throws IOException
+	 */
+	public void writeLengthNormsToDisc(BufferedOutputStream out) throws IOException {
+		for (int i = 0; i < numOfReviews; ++i) {
+			lengthNorms[i] = encodeLengthNorm(lengths[i]);
+		}
+		out.write(lengthNorms, 0, numOfReviews);
+		out.close();
+	}
+
+	/**
+	 * Quantizes a review's length to a single byte, on a logarithmic scale: the code is round(16 * ln(1 + length)),
+	 * so the relative error of the decoded length is about 3%, and lengths up to about 8 million are represented.
+	 * @param length a review's length
+	 * @return the length's code, to be read as an unsigned byte
+	 */
+	public static byte encodeLengthNorm(int length) {
+		long code = Math.round(Math.log1p(Math.max(length, 0)) * LENGTH_NORM_SCALE);
+		return (byte)Math.min(code, 255);
+	}
+
+	/**
+	 * @param code a length's code, as returned by encodeLengthNorm
+	 * @return the (approximate) length which the code represents
+	 */
+	public static double decodeLengthNorm(byte code) {
+		return Math.expm1((code & 0xFF) / LENGTH_NORM_SCALE);
 	}
 
 	/**
@@ -148,6 +207,10 @@ public class Reviews {
 		return lengths[reviewId];
 	}
 
+	public byte getLengthNorm(int reviewId) {
+		return lengthNorms[reviewId];
+	}
+
 	public int getNumOfReviews() {
 		return numOfReviews;
 	}
@@ -6,13 +6,36 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+/**
+ * The rotated lexicon index: all the rotations of all the tokens (each token prefixed by '$'), sorted. Every
+ * rotation has a row of a fixed size in the file - its token's id, its rotation number and the first KEY_PREFIX_SIZE
+ * bytes of the rotation itself - so the reader memory-maps the file and binary searches it in place. The rotations
+ * starting with a prefix are a contiguous range of rows, found with a lower bound and an upper bound search.
+ * The tokens consist of ASCII letters and digits only, so a rotation's bytes are its characters, and they sort in
+ * the same order as the rotation Strings.
+ * Only a searched prefix longer than KEY_PREFIX_SIZE, which ties with a row's stored bytes, needs the rest of the
+ * rotation, and it's compared on the token's bytes from the dictionary. The reader's state is never changed, so it
+ * can be shared between threads.
+ */
 public class RotatedLexicon {
 
-    /** An array of tokens ids of the rotated lexicon index (the first part of token id, i-rotation */
-    private int[] tokenIds;
+    /** The number of leading bytes of every rotation which are stored in its row, padded with zeros **/
+    private static final int KEY_PREFIX_SIZE = 8;
 
-    /** An array of token's rotation numbers of the rotated lexicon index (the second part of token id, i-rotation */
-    private byte[] iRotations;
+    /** The size of a row: the token id, the rotation number and the rotation's leading bytes **/
+    private static final int ROW_SIZE = SharedUtils.SIZE_OF_INT + 1 + KEY_PREFIX_SIZE;
+
+    /** The character which is added to the beginning of every token before it's rotated **/
+    private static final byte TOKEN_START = '$';
+
+    /** The mapped rows, after the number of rows (read phase) **/
+    private ByteBuffer table;
+
+    /** The number of rows **/
+    private int size;
+
+    /** The dictionary of the tokens, for comparing beyond the stored bytes of a rotation (read phase) **/
+    private Dictionary tokensDict;
 
     /**
      * The constructor of the rotated lexicon of the writer component, calls to the method that writes the rotated
@@ -26,12 +49,13 @@ public class RotatedLexicon {
     }
 
     /**
-     * The constructor of the rotated lexicon of the reader component, calls to the method that reads the rotated
-     * lexicon from the disc
+     * The constructor of the rotated lexicon of the reader component, maps the rotated lexicon from the disc
      * @param dir the directory in which all index files will be created
+     * @param tokensDict the dictionary of the tokens
      * @throws IOException
      */
-    public RotatedLexicon(String dir) throws IOException{
+    public RotatedLexicon(String dir, Dictionary tokensDict) throws IOException{
+        this.tokensDict = tokensDict;
         readFromDisc(dir);
     }
 
@@ -44,11 +68,15 @@ public class RotatedLexicon {
     private void writeRotatedLexiconToDisc(ArrayList<Pair<String, Pair<Integer, Byte>>> lexiconWithStrings, String dir)
             throws IOException {
         int length = lexiconWithStrings.size();
-        ByteBuffer buffer = ByteBuffer.allocate(length * (SharedUtils.SIZE_OF_INT + 1) + SharedUtils.SIZE_OF_INT);
+        ByteBuffer buffer = ByteBuffer.allocate(length * ROW_SIZE + SharedUtils.SIZE_OF_INT);
         buffer.putInt(length);
         for (Pair<String, Pair<Integer, Byte>> pair : lexiconWithStrings) {
             buffer.putInt(pair.getValue().getKey());
             buffer.put(pair.getValue().getValue());
+            String rotation = pair.getKey();
+            for (int i = 0; i < KEY_PREFIX_SIZE; ++i) {
+                buffer.put((i < rotation.length()) ? (byte)rotation.charAt(i) : 0);
+            }
         }
         BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(dir + File.separator +
                 SharedUtils.ROTATED_LEXICON_FILE));
@@ -57,35 +85,15 @@ public class RotatedLexicon {
     }
 
     /**
-     * Reads the rotated lexicon index from the disc
+     * Maps the rotated lexicon index from the disc
      * @param dir the directory in which all index files will be created
-     * @throws FileNotFoundException
      * @throws IOException
      */
-    private void readFromDisc(String dir) throws FileNotFoundException, IOException{
-        BufferedInputStream in = new BufferedInputStream(new FileInputStream(dir + File.separator +
-                SharedUtils.ROTATED_LEXICON_FILE));
-        byte[] smallBuffer = new byte[SharedUtils.SIZE_OF_INT];
-        ByteBuffer smallByteBuffer = ByteBuffer.allocate(SharedUtils.SIZE_OF_INT);
-        int offset = in.read(smallBuffer, 0, SharedUtils.SIZE_OF_INT);
-        smallByteBuffer.put(smallBuffer, 0, SharedUtils.SIZE_OF_INT);
-        smallByteBuffer.position(0);
-        int size = smallByteBuffer.getInt();
-
-        byte[] localBuffer = new byte[size * (SharedUtils.SIZE_OF_INT + 1)];
-        offset = in.read(localBuffer, 0, size * (SharedUtils.SIZE_OF_INT + 1));
-        ByteBuffer buffer = ByteBuffer.allocate(size * (SharedUtils.SIZE_OF_INT + 1));
-        buffer.put(localBuffer, 0,size * (SharedUtils.SIZE_OF_INT + 1));
-        buffer.position(0);
-
-        tokenIds = new int[size];
-        iRotations = new byte[size];
-
-        for (int i = 0; i < size; ++i) {
-            tokenIds[i] = buffer.getInt();
-            iRotations[i] = buffer.get();
-        }
-        in.close();
+    private void readFromDisc(String dir) throws IOException{
+        ByteBuffer file = SharedUtils.mapFile(dir + File.separator + SharedUtils.ROTATED_LEXICON_FILE);
+        size = file.getInt(0);
+        file.position(SharedUtils.SIZE_OF_INT);
+        table = file.slice();
     }
 
     /**
@@ -94,16 +102,95 @@ public class RotatedLexicon {
      * @return the token's index
      */
     public int getTokenIndex(int index) {
-        return tokenIds[index];
+        return table.getInt(index * ROW_SIZE);
     }
 
     /**
-     * returns the i-rotation of the rotated token by index
+     * returns the i-rotation of the rotated token by index: the rotation starts at the (i-1)-th character of the
+     * token prefixed by '$'
      * @param index the index of the rotated token
      * @return the i-rotation
      */
-    public byte getIRotation(int index) {
-        return iRotations[index];
+    public int getIRotation(int index) {
+        return table.get(index * ROW_SIZE + SharedUtils.SIZE_OF_INT) & 0xFF;
+    }
+
+    /**
+     * Compares the beginning of a rotation with a prefix, byte by byte, without building the rotation.
+     * @param index the index of the rotated token
+     * @param prefix the prefix's bytes
+     * @param prefixLength the number of bytes of the prefix
+     * @return zero if the rotation starts with the prefix, otherwise a negative number or a positive number if the
+     *         rotation is smaller or bigger than the prefix
+     */
+    public int comparePrefix(int index, byte[] prefix, int prefixLength) {
+        int rowOffset = index * ROW_SIZE + SharedUtils.SIZE_OF_INT + 1;
+        int storedLength = Math.min(prefixLength, KEY_PREFIX_SIZE);
+        for (int i = 0; i < storedLength; ++i) {
+            // a zero byte is a padding after the end of a short rotation, so it's smaller than any character
+            int compare = (table.get(rowOffset + i) & 0xFF) - (prefix[i] & 0xFF);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        if (prefixLength <= KEY_PREFIX_SIZE) {
+            return 0;
+        }
+        byte[] token = tokensDict.getTokenBytes(getTokenIndex(index));
+        int rotationLength = token.length + 1;
+        int start = getIRotation(index) - 1;
+        int minLength = Math.min(rotationLength, prefixLength);
+        for (int i = KEY_PREFIX_SIZE; i < minLength; ++i) {
+            int position = (start + i) % rotationLength;
+            byte b = (position == 0) ? TOKEN_START : token[position - 1];
+            int compare = (b & 0xFF) - (prefix[i] & 0xFF);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return (rotationLength < prefixLength) ? -1 : 0;
+    }
+
+    /**
+     * @param prefix the prefix's bytes
+     * @param prefixLength the number of bytes of the prefix
+     * @return the index of the first rotation which isn't smaller than the prefix: the first rotation which starts
+     *         with it, if there's one
+     */
+    public int lowerBound(byte[] prefix, int prefixLength) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(mid, prefix, prefixLength) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param prefix the prefix's bytes
+     * @param prefixLength the number of bytes of the prefix
+     * @return the index of the first rotation which is bigger than the prefix and doesn't start with it, so the
+     *         rotations which start with the prefix are [lowerBound(prefix), upperBound(prefix))
+     */
+    public int upperBound(byte[] prefix, int prefixLength) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(mid, prefix, prefixLength) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     /**
@@ -111,7 +198,7 @@ public class RotatedLexicon {
      * @return the size
      */
     public int getSize() {
-        return tokenIds.length;
+        return size;
     }
 
 }
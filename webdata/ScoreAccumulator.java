@@ -0,0 +1,137 @@
+package webdata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A dense accumulator of double values keyed by small non-negative integer ids (review ids, product indices in the
+ * product ids' dictionary). The values are kept in pages of primitive doubles which are allocated only when one of
+ * their ids is touched, so a sparse query over a huge corpus doesn't allocate an array of the corpus' size. The
+ * touched ids are remembered, so clearing the accumulator costs only as much as the query which filled it.
+ * Accumulators are pooled per thread: after warm-up, acquire() and release() don't allocate.
+ */
+public class ScoreAccumulator {
+
+	/** log2 of the number of values in a page **/
+	private static final int PAGE_BITS = 16;
+
+	/** the number of values in a page **/
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	/** The released accumulators of each thread **/
+	private static final ThreadLocal<ArrayList<ScoreAccumulator>> POOL =
+			ThreadLocal.withInitial(ArrayList::new);
+
+	/** The pages of values, a page is null until one of its ids is touched **/
+	private double[][] pages;
+
+	/** A bit per id, set iff the id was touched **/
+	private long[] touchedBits;
+
+	/** The touched ids, in the order they were touched **/
+	private int[] touched;
+
+	/** The number of touched ids **/
+	private int numOfTouched;
+
+	/**
+	 * Constructor
+	 * @param capacity the number of ids, i.e. all ids should be in the range [0, capacity)
+	 */
+	private ScoreAccumulator(int capacity) {
+		pages = new double[0][];
+		touchedBits = new long[0];
+		touched = new int[16];
+		numOfTouched = 0;
+		ensureCapacity(capacity);
+	}
+
+	/**
+	 * Returns an empty accumulator for ids in the range [0, capacity), reusing one released by this thread if
+	 * possible.
+	 * @param capacity the number of ids
+	 * @return an empty accumulator
+	 */
+	public static ScoreAccumulator acquire(int capacity) {
+		ArrayList<ScoreAccumulator> pool = POOL.get();
+		if (pool.isEmpty()) {
+			return new ScoreAccumulator(capacity);
+		}
+		ScoreAccumulator accumulator = pool.remove(pool.size() - 1);
+		accumulator.ensureCapacity(capacity);
+		return accumulator;
+	}
+
+	/**
+	 * Clears this accumulator and returns it to the calling thread's pool. The accumulator must not be used after
+	 * it was released.
+	 */
+	public void release() {
+		for (int i = 0; i < numOfTouched; ++i) {
+			int id = touched[i];
+			pages[id >>> PAGE_BITS][id & (PAGE_SIZE - 1)] = 0;
+			touchedBits[id >>> 6] = 0;
+		}
+		numOfTouched = 0;
+		POOL.get().add(this);
+	}
+
+	/**
+	 * Grows the accumulator so it can hold ids in the range [0, capacity)
+	 * @param capacity the number of ids
+	 */
+	private void ensureCapacity(int capacity) {
+		int numOfPages = (capacity + PAGE_SIZE - 1) >>> PAGE_BITS;
+		if (numOfPages > pages.length) {
+			pages = Arrays.copyOf(pages, numOfPages);
+		}
+		int numOfWords = (capacity + 63) >>> 6;
+		if (numOfWords > touchedBits.length) {
+			touchedBits = Arrays.copyOf(touchedBits, numOfWords);
+		}
+	}
+
+	/**
+	 * Adds value to the value of id
+	 * @param id the id
+	 * @param value the value to add
+	 */
+	public void add(int id, double value) {
+		long bit = 1L << id;
+		if ((touchedBits[id >>> 6] & bit) == 0) {
+			touchedBits[id >>> 6] |= bit;
+			if (numOfTouched == touched.length) {
+				touched = Arrays.copyOf(touched, touched.length * 2);
+			}
+			touched[numOfTouched++] = id;
+			if (pages[id >>> PAGE_BITS] == null) {
+				pages[id >>> PAGE_BITS] = new double[PAGE_SIZE];
+			}
+		}
+		pages[id >>> PAGE_BITS][id & (PAGE_SIZE - 1)] += value;
+	}
+
+	/**
+	 * @param id the id
+	 * @return the accumulated value of id, 0 if it was never touched
+	 */
+	public double get(int id) {
+		double[] page = pages[id >>> PAGE_BITS];
+		return (page == null) ? 0 : page[id & (PAGE_SIZE - 1)];
+	}
+
+	/**
+	 * @return the number of touched ids
+	 */
+	public int size() {
+		return numOfTouched;
+	}
+
+	/**
+	 * @param index an index in the range [0, size())
+	 * @return the index-th touched id
+	 */
+	public int getTouchedId(int index) {
+		return touched[index];
+	}
+}
@@ -4,6 +4,11 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -39,9 +44,27 @@ public class SharedUtils {
 	public static final String PID_STR_DICT_FILE = "pidStrDictionary";
 	public static final String TOKEN_TABLE_DICT_FILE = "tokenTableDictionary";
 	public static final String PID_TABLE_DICT_FILE = "pidTableDictionary";
+	public static final String TOKEN_HASH_DICT_FILE = "tokenHashDictionary";
+	public static final String PID_HASH_DICT_FILE = "pidHashDictionary";
+	public static final String TOKEN_FST_DICT_FILE = "tokenFstDictionary";
+	public static final String PID_FST_DICT_FILE = "pidFstDictionary";
 	public static final String BIGRAM_INDEX_FILE = "bigramIndex";
 	public static final String BIGRAM_POINTERS_FILE = "bigramPointers";
+	public static final String K_GRAM_INDEX_FILE = "kGramIndex";
+	public static final String K_GRAM_POINTERS_FILE = "kGramPointers";
+	public static final String POSITION_TRIOS_FILE = "positionTriosFile";
+	public static final String POSITIONS_FILE = "positions";
+	public static final String POSITIONS_POINTERS_FILE = "positionsPointers";
+	public static final String REVIEW_TEXTS_FILE = "reviewTexts";
+	public static final String REVIEW_TEXTS_POINTERS_FILE = "reviewTextsPointers";
+	public static final int DEFAULT_K_GRAM_LENGTH = 3;
+	public static final int NUM_OF_K_GRAM_IDS = 1 << 16;
+	public static final int SEGMENT_BITS = 30;
+	public static final int BITMAP_POSTINGS_RATIO = 16;
+	public static final int TEXT_BLOCK_SIZE = 1 << 14;
+	public static final int SNIPPET_LENGTH = 30;
 	public static final String REVIEWS_FILE = "reviewsFile";
+	public static final String REVIEW_NORMS_FILE = "reviewNormsFile";
 	public static final String ROTATED_LEXICON_FILE = "rotatedLexiconFile";
 
 
@@ -93,6 +116,43 @@ public class SharedUtils {
 		return offset;
 	}
 
+	/**
+	 * This function writes bytes to the disc through the output buffer
+	 * @param bytes the bytes to be written
+	 * @param length the number of bytes to write, from the beginning of the array
+	 * @param out the output file
+	 * @param bufferOut the output buffer
+	 * @param offset the file's offset before the bytes
+	 * @return the file's offset after the bytes
+	 * @throws IOException
+	 */
+	static public long writeBytesToDisc(byte[] bytes, int length, BufferedOutputStream out, ByteBuffer bufferOut,
+										long offset) throws IOException {
+		int written = 0;
+		while (written < length) {
+			if (!bufferOut.hasRemaining()) {
+				out.write(bufferOut.array(), 0, bufferOut.position());
+				bufferOut.position(0);
+			}
+			int chunk = Math.min(bufferOut.remaining(), length - written);
+			bufferOut.put(bytes, written, chunk);
+			written += chunk;
+		}
+		return offset + length;
+	}
+
+	/**
+	 * Decides whether a token's posting list is written as a bitmap: iff the token appears in at least
+	 * 1 / BITMAP_POSTINGS_RATIO of the reviews, where a bitmap takes about as many bits per review as the gaps and
+	 * frequencies take in Varint compression. Both the writer and the reader ask this, with the list's size.
+	 * @param frequency the number of reviews containing the token
+	 * @param numOfReviews the number of reviews
+	 * @return true iff the posting list is a bitmap
+	 */
+	static public boolean isBitmapPostingList(int frequency, int numOfReviews) {
+		return frequency > 0 && (long)frequency * BITMAP_POSTINGS_RATIO >= numOfReviews;
+	}
+
 	/**
 	 * Creates a mapping from bigram string to bigram index, the keys of the mapping are all the possible bigrams.
 	 * @param bigramDict the aforementioned mapping.
@@ -115,7 +175,7 @@ public class SharedUtils {
 	 * @param byteBuffer a RandomAccessFile of the Inverted Index file
 	 * @return the number which been read
 	 */
-	static public Integer readIntegerFromBuffer(ByteBuffer byteBuffer) {
+	static public int readIntegerFromBuffer(ByteBuffer byteBuffer) {
 		int first = byteBuffer.get() & 0xFF;
 		int bytesToRead = first >> 6;
 		if (bytesToRead == 0) {
@@ -138,4 +198,91 @@ public class SharedUtils {
 		}
 	}
 
+	/**
+	 * Maps a whole file to memory, read only. The file is closed, but the mapping stays valid, and its pages are
+	 * loaded by the operating system only when they are accessed.
+	 * @param path the file's path
+	 * @return the mapped file, positioned at its beginning
+	 * @throws IOException
+	 */
+	static public MappedByteBuffer mapFile(String path) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		channel.close();
+		return buffer;
+	}
+
+	/**
+	 * Maps the beginning of a file to memory, read only, in segments of 2^segmentBits bytes, since a single mapping
+	 * can't be larger than 2GB.
+	 * @param path the file's path
+	 * @param size the number of bytes to map
+	 * @param segmentBits the log2 of the segments' size, at most 30
+	 * @return the mapped segments, all of them full except maybe the last one
+	 * @throws IOException
+	 */
+	static public ByteBuffer[] mapFileSegments(String path, long size, int segmentBits) throws IOException {
+		long segmentSize = 1L << segmentBits;
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		ByteBuffer[] segments = new ByteBuffer[(int)((size + segmentSize - 1) >>> segmentBits)];
+		for (int i = 0; i < segments.length; ++i) {
+			long start = (long)i << segmentBits;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+		}
+		channel.close();
+		return segments;
+	}
+
+	/**
+	 * @param segments a file mapped with mapFileSegments
+	 * @param segmentBits the log2 of the segments' size
+	 * @param ptr the file's offset of the bytes
+	 * @param size the number of bytes
+	 * @return a buffer whose remaining bytes are the requested ones: a view of the segment which holds them, or a
+	 *         copy if they cross segments. It's never shared, so several threads may read the same bytes at once.
+	 */
+	static public ByteBuffer getSegmentsBytes(ByteBuffer[] segments, int segmentBits, long ptr, int size) {
+		int segment = (int)(ptr >>> segmentBits);
+		int start = (int)(ptr & ((1L << segmentBits) - 1));
+		if (start + (long)size <= segments[segment].capacity()) {
+			ByteBuffer byteBuffer = segments[segment].duplicate();
+			byteBuffer.limit(start + size);
+			byteBuffer.position(start);
+			return byteBuffer;
+		}
+		byte[] bytes = new byte[size];
+		int copied = 0;
+		while (copied < size) {
+			ByteBuffer byteBuffer = segments[segment++].duplicate();
+			byteBuffer.position(start);
+			int length = Math.min(size - copied, byteBuffer.remaining());
+			byteBuffer.get(bytes, copied, length);
+			copied += length;
+			start = 0;
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Decodes a list of ids which is written as gaps in Length-precoded Varint compression. Zero gaps (an id which
+	 * is listed more than once) are skipped.
+	 * @param byteBuffer a buffer whose remaining bytes are the list
+	 * @return the distinct ids, sorted, in an array of exactly their number
+	 */
+	static public int[] readIdsList(ByteBuffer byteBuffer) {
+		// every id takes at least one byte
+		int[] ids = new int[byteBuffer.remaining()];
+		int numOfIds = 0;
+		int sum = 0;
+		while (byteBuffer.hasRemaining()) {
+			int gap = readIntegerFromBuffer(byteBuffer);
+			if (gap == 0 && numOfIds > 0) {
+				continue;
+			}
+			sum += gap;
+			ids[numOfIds++] = sum;
+		}
+		return Arrays.copyOf(ids, numOfIds);
+	}
+
 }
@@ -0,0 +1,131 @@
+package webdata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the snippets of the results of a query: the window of a review's text, of a fixed number of tokens, which
+ * has the most distinct query terms (and then the most appearances of them), with the terms' appearances
+ * highlighted. The text is tokenized as the IndexWriter tokenizes it, and the terms may have wildcards.
+ */
+public class SnippetBuilder {
+
+	/** The marks around a highlighted token **/
+	public static final String HIGHLIGHT_START = "[";
+	public static final String HIGHLIGHT_END = "]";
+
+	/** The mark of a cut text **/
+	private static final String ELLIPSIS = "...";
+
+	/** A token of the text, as the IndexWriter splits the texts by [\W|_]+ **/
+	private static final Pattern TOKEN = Pattern.compile("[a-zA-Z0-9]+");
+
+	/** The query's terms **/
+	private WildcardPattern[] terms;
+
+	/** The number of tokens in a snippet **/
+	private int windowLength;
+
+	/**
+	 * Constructor
+	 * @param queryTerms the query's terms, possibly with wildcards
+	 * @param windowLength the number of tokens in a snippet, at least 1
+	 */
+	public SnippetBuilder(Collection<String> queryTerms, int windowLength) {
+		terms = new WildcardPattern[queryTerms.size()];
+		int i = 0;
+		for (String term : queryTerms) {
+			terms[i++] = new WildcardPattern(term.toLowerCase());
+		}
+		this.windowLength = windowLength;
+	}
+
+	/**
+	 * @param token a lower cased token
+	 * @return the index of the first query term it matches, or -1 if it matches none
+	 */
+	private int getTerm(String token) {
+		byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < terms.length; ++i) {
+			if (terms[i].matches(bytes, bytes.length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds the snippet of a text
+	 * @param text a review's text
+	 * @return the text's best window, with the query terms in it highlighted, and with ELLIPSIS where it was cut
+	 */
+	public String build(String text) {
+		// the tokens' character ranges, and the query term each of them matches
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int[] matchedTerms = new int[16];
+		int numOfTokens = 0;
+		Matcher matcher = TOKEN.matcher(text);
+		while (matcher.find()) {
+			if (numOfTokens == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * numOfTokens);
+				ends = Arrays.copyOf(ends, 2 * numOfTokens);
+				matchedTerms = Arrays.copyOf(matchedTerms, 2 * numOfTokens);
+			}
+			starts[numOfTokens] = matcher.start();
+			ends[numOfTokens] = matcher.end();
+			matchedTerms[numOfTokens] = getTerm(matcher.group().toLowerCase());
+			++numOfTokens;
+		}
+		if (numOfTokens == 0) {
+			return text.trim();
+		}
+
+		// slides the window over the tokens, counting the appearances of every term in it
+		int[] counts = new int[terms.length];
+		int numOfDistinct = 0;
+		int numOfMatches = 0;
+		int bestStart = 0;
+		int bestDistinct = -1;
+		int bestMatches = -1;
+		for (int end = 0; end < numOfTokens; ++end) {
+			if (matchedTerms[end] >= 0) {
+				numOfDistinct += (counts[matchedTerms[end]]++ == 0) ? 1 : 0;
+				++numOfMatches;
+			}
+			int start = end - windowLength + 1;
+			if (start > 0 && matchedTerms[start - 1] >= 0) {
+				numOfDistinct -= (--counts[matchedTerms[start - 1]] == 0) ? 1 : 0;
+				--numOfMatches;
+			}
+			if (numOfDistinct > bestDistinct || (numOfDistinct == bestDistinct && numOfMatches > bestMatches)) {
+				bestDistinct = numOfDistinct;
+				bestMatches = numOfMatches;
+				bestStart = Math.max(start, 0);
+			}
+		}
+		int bestEnd = Math.min(bestStart + windowLength, numOfTokens);
+
+		StringBuilder snippet = new StringBuilder();
+		if (bestStart > 0) {
+			snippet.append(ELLIPSIS);
+		}
+		int from = (bestStart > 0) ? starts[bestStart] : 0;
+		for (int i = bestStart; i < bestEnd; ++i) {
+			if (matchedTerms[i] < 0) {
+				continue;
+			}
+			snippet.append(text, from, starts[i]).append(HIGHLIGHT_START).append(text, starts[i], ends[i])
+					.append(HIGHLIGHT_END);
+			from = ends[i];
+		}
+		snippet.append(text, from, (bestEnd < numOfTokens) ? ends[bestEnd - 1] : text.length());
+		if (bestEnd < numOfTokens) {
+			snippet.append(ELLIPSIS);
+		}
+		return snippet.toString().trim().replaceAll("\\s+", " ");
+	}
+}
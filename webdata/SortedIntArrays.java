@@ -0,0 +1,167 @@
+package webdata;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on sorted arrays of distinct non-negative ints (such as token id lists), which keep their results
+ * sorted and never box the ids.
+ */
+public class SortedIntArrays {
+
+	/** When one list is this many times longer than the other, the shorter one gallops through it **/
+	private static final int GALLOP_RATIO = 16;
+
+	/**
+	 * Intersects two sorted arrays. If one of them is much shorter than the other, each of its elements is searched
+	 * for in the longer one with galloping (exponential and then binary search), otherwise the two are merged.
+	 * @param a the first array
+	 * @param aSize the number of elements of a
+	 * @param b the second array
+	 * @param bSize the number of elements of b
+	 * @param out the array the intersection is written to, at least min(aSize, bSize) long. It may be a or b,
+	 *            since the i-th common element is written only after the i-th elements of both arrays were read.
+	 * @return the number of elements in the intersection
+	 */
+	public static int intersect(int[] a, int aSize, int[] b, int bSize, int[] out) {
+		if (aSize > bSize) {
+			return intersect(b, bSize, a, aSize, out);
+		}
+		int size = 0;
+		if ((long)aSize * GALLOP_RATIO < bSize) {
+			int j = 0;
+			for (int i = 0; i < aSize && j < bSize; ++i) {
+				j = gallop(b, j, bSize, a[i]);
+				if (j < bSize && b[j] == a[i]) {
+					out[size++] = a[i];
+				}
+			}
+			return size;
+		}
+		int i = 0;
+		int j = 0;
+		while (i < aSize && j < bSize) {
+			int x = a[i];
+			int y = b[j];
+			if (x == y) {
+				out[size++] = x;
+			}
+			i += (x <= y) ? 1 : 0;
+			j += (y <= x) ? 1 : 0;
+		}
+		return size;
+	}
+
+	/**
+	 * Finds the first element which is not smaller than target, by doubling the step from the start until an
+	 * element which is not smaller is passed, and then searching the last step binary.
+	 * @param array a sorted array
+	 * @param from the index to start from
+	 * @param size the number of elements of the array
+	 * @param target the searched value
+	 * @return the index of the first element in [from, size) which is not smaller than target, size if there's none
+	 */
+	public static int gallop(int[] array, int from, int size, int target) {
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && array[high] < target) {
+			low = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (array[mid] < target) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Sorts the first elements of an array in place and removes their duplicates, so they become a sorted set.
+	 * @param array the array
+	 * @param size the number of elements to sort
+	 * @return the number of distinct elements, which are now the first elements of the array
+	 */
+	public static int sortDistinct(int[] array, int size) {
+		Arrays.sort(array, 0, size);
+		int numOfDistinct = 0;
+		for (int i = 0; i < size; ++i) {
+			if (numOfDistinct == 0 || array[numOfDistinct - 1] != array[i]) {
+				array[numOfDistinct++] = array[i];
+			}
+		}
+		return numOfDistinct;
+	}
+
+	/**
+	 * Unites several sorted arrays with a k-way merge: a min-heap holds the index of every array which isn't
+	 * exhausted, keyed by its current element, and every element is written once even if it's in several arrays.
+	 * @param arrays the arrays
+	 * @param numOfArrays the number of arrays
+	 * @return the sorted union, in a new array of exactly its size
+	 */
+	public static int[] unionAll(int[][] arrays, int numOfArrays) {
+		int total = 0;
+		int[] heap = new int[numOfArrays];
+		int[] positions = new int[numOfArrays];
+		int heapSize = 0;
+		for (int i = 0; i < numOfArrays; ++i) {
+			total += arrays[i].length;
+			if (arrays[i].length > 0) {
+				heap[heapSize++] = i;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; --i) {
+			siftDown(heap, heapSize, i, arrays, positions);
+		}
+		int[] result = new int[total];
+		int size = 0;
+		while (heapSize > 0) {
+			int top = heap[0];
+			int value = arrays[top][positions[top]];
+			if (size == 0 || result[size - 1] != value) {
+				result[size++] = value;
+			}
+			if (++positions[top] == arrays[top].length) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(heap, heapSize, 0, arrays, positions);
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Moves the array at the given heap index down the heap until its current element is not bigger than the
+	 * current elements of its children
+	 */
+	private static void siftDown(int[] heap, int heapSize, int index, int[][] arrays, int[] positions) {
+		int array = heap[index];
+		int value = (heapSize > index) ? arrays[array][positions[array]] : 0;
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			int childValue = arrays[heap[child]][positions[heap[child]]];
+			if (child + 1 < heapSize) {
+				int rightValue = arrays[heap[child + 1]][positions[heap[child + 1]]];
+				if (rightValue < childValue) {
+					++child;
+					childValue = rightValue;
+				}
+			}
+			if (value <= childValue) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = array;
+	}
+}
@@ -0,0 +1,551 @@
+package webdata;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A term dictionary encoded as a minimal acyclic finite-state transducer, which maps the UTF-8 bytes of every token
+ * to its ordinal, i.e. its index in the sorted dictionary. Common prefixes and common suffixes of the tokens are
+ * both shared, and the ordinal of a token is the sum of the outputs of the arcs along its path: the output of an arc
+ * is the number of tokens which are reached through the previous arcs of its node, plus one if the node itself ends
+ * a token. Since the ordinals follow the order of the bytes, every prefix and every range of tokens is a contiguous
+ * range of ordinals.
+ * The nodes are written children first, each as a header byte, which holds the final flag and the number of arcs
+ * (or NUM_OF_ARCS_ESCAPE, and then the number of arcs in the next byte), and then the arcs sorted by label - the
+ * label byte, the output, and the distance back to the target node. The output of the first arc is always 1 if the
+ * node is final and 0 otherwise, so it's not written. All the numbers are in Length-precoded Varint compression, so
+ * the transducer must be smaller than 1GB.
+ */
+public class TermFst {
+
+	/** The flag of a node which ends a token **/
+	private static final int FINAL_FLAG = 1;
+
+	/** The number of arcs in the header byte of a node which has more arcs than it can hold **/
+	private static final int NUM_OF_ARCS_ESCAPE = 127;
+
+	/** The size of the file's header - the number of tokens and the root's address **/
+	private static final int HEADER_SIZE = 2 * SharedUtils.SIZE_OF_INT;
+
+	/**
+	 * A node on the path of the last added token, whose arcs may still change (write phase only)
+	 */
+	private static class UnfrozenNode {
+
+		/** true iff the node ends a token **/
+		boolean isFinal;
+
+		/** the labels of the arcs **/
+		int[] labels = new int[4];
+
+		/** the addresses of the arcs' targets, the last one is unknown until its target is frozen **/
+		int[] targets = new int[4];
+
+		/** the number of tokens below each arc's target **/
+		int[] targetCounts = new int[4];
+
+		/** the number of arcs **/
+		int numOfArcs;
+
+		/**
+		 * Empties the node
+		 */
+		void clear() {
+			isFinal = false;
+			numOfArcs = 0;
+		}
+
+		/**
+		 * Adds an arc whose target is not frozen yet
+		 * @param label the arc's label
+		 */
+		void addArc(int label) {
+			if (numOfArcs == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * numOfArcs);
+				targets = Arrays.copyOf(targets, 2 * numOfArcs);
+				targetCounts = Arrays.copyOf(targetCounts, 2 * numOfArcs);
+			}
+			labels[numOfArcs++] = label;
+		}
+	}
+
+	/**
+	 * Collects ordinals into a growing array
+	 */
+	private static class OrdinalCollector {
+
+		/** the collected ordinals **/
+		int[] ordinals = new int[16];
+
+		/** the number of collected ordinals **/
+		int size = 0;
+
+		/**
+		 * @param ordinal the ordinal to add
+		 */
+		void add(int ordinal) {
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, 2 * size);
+			}
+			ordinals[size++] = ordinal;
+		}
+	}
+
+	/** The encoded nodes (write phase only) **/
+	private byte[] nodeBytes;
+
+	/** The number of used bytes in nodeBytes (write phase only) **/
+	private int numOfNodeBytes;
+
+	/** The frozen nodes, from their encoding with absolute target addresses to their address (write phase only) **/
+	private HashMap<ByteBuffer, Integer> register;
+
+	/** The nodes along the path of the last added token, frontier[i] is at depth i (write phase only) **/
+	private UnfrozenNode[] frontier;
+
+	/** The memory-mapped nodes (read phase only) **/
+	private ByteBuffer nodes;
+
+	/** The number of tokens **/
+	private int numOfTerms;
+
+	/** The address of the root node **/
+	private int root;
+
+	/**
+	 * A constructor for the write phase, builds the transducer of the given tokens
+	 * @param tokens a sorted ArrayList of distinct tokens
+	 */
+	public TermFst(ArrayList<String> tokens) {
+		nodeBytes = new byte[1024];
+		numOfNodeBytes = 0;
+		register = new HashMap<>();
+		frontier = new UnfrozenNode[0];
+		ensureDepth(0);
+		byte[] lastToken = new byte[0];
+		for (String token : tokens) {
+			byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+			addToken(lastToken, bytes);
+			lastToken = bytes;
+		}
+		freezeSuffix(lastToken.length, 0);
+		root = freeze(frontier[0]);
+		numOfTerms = tokens.size();
+		register = null;
+		frontier = null;
+	}
+
+	/**
+	 * A constructor for the read phase
+	 * @param file the mapped file which writeToDisc wrote
+	 */
+	public TermFst(ByteBuffer file) {
+		numOfTerms = file.getInt(0);
+		root = file.getInt(SharedUtils.SIZE_OF_INT);
+		file.position(HEADER_SIZE);
+		nodes = file.slice();
+		file.position(0);
+	}
+
+	/**
+	 * Makes sure frontier has nodes up to the given depth
+	 * @param depth the depth
+	 */
+	private void ensureDepth(int depth) {
+		if (depth >= frontier.length) {
+			int oldLength = frontier.length;
+			frontier = Arrays.copyOf(frontier, Math.max(depth + 1, 2 * oldLength));
+			for (int i = oldLength; i < frontier.length; ++i) {
+				frontier[i] = new UnfrozenNode();
+			}
+		}
+	}
+
+	/**
+	 * Adds a token, which is bigger than the previously added one, to the transducer
+	 * @param lastToken the previously added token's bytes
+	 * @param token the token's bytes
+	 */
+	private void addToken(byte[] lastToken, byte[] token) {
+		int prefix = 0;
+		int minLength = Math.min(lastToken.length, token.length);
+		while (prefix < minLength && lastToken[prefix] == token[prefix]) {
+			++prefix;
+		}
+		freezeSuffix(lastToken.length, prefix);
+		ensureDepth(token.length);
+		for (int i = prefix; i < token.length; ++i) {
+			frontier[i].addArc(token[i] & 0xFF);
+			frontier[i + 1].clear();
+		}
+		frontier[token.length].isFinal = true;
+	}
+
+	/**
+	 * Freezes the nodes of the previous token's path which are deeper than the common prefix with the next token,
+	 * since no arc will be added to them anymore.
+	 * @param depth the depth of the deepest unfrozen node
+	 * @param prefix the size of the common prefix
+	 */
+	private void freezeSuffix(int depth, int prefix) {
+		for (int i = depth; i > prefix; --i) {
+			UnfrozenNode parent = frontier[i - 1];
+			int count = frontier[i].isFinal ? 1 : 0;
+			for (int j = 0; j < frontier[i].numOfArcs; ++j) {
+				count += frontier[i].targetCounts[j];
+			}
+			parent.targets[parent.numOfArcs - 1] = freeze(frontier[i]);
+			parent.targetCounts[parent.numOfArcs - 1] = count;
+		}
+	}
+
+	/**
+	 * Writes a node whose arcs are final to nodeBytes, unless an equivalent node was already written
+	 * @param node the node
+	 * @return the node's address
+	 */
+	private int freeze(UnfrozenNode node) {
+		ByteBuffer key = ByteBuffer.allocate(1 + node.numOfArcs * (1 + SharedUtils.SIZE_OF_INT));
+		key.put((byte)(node.isFinal ? FINAL_FLAG : 0));
+		for (int i = 0; i < node.numOfArcs; ++i) {
+			key.put((byte)node.labels[i]);
+			key.putInt(node.targets[i]);
+		}
+		key.flip();
+		Integer registered = register.get(key);
+		if (registered != null) {
+			return registered;
+		}
+
+		int address = numOfNodeBytes;
+		int flags = node.isFinal ? FINAL_FLAG : 0;
+		if (node.numOfArcs < NUM_OF_ARCS_ESCAPE) {
+			putByte(flags | (node.numOfArcs << 1));
+		}
+		else {
+			putByte(flags | (NUM_OF_ARCS_ESCAPE << 1));
+			putByte(node.numOfArcs - 1);
+		}
+		int output = node.isFinal ? 1 : 0;
+		for (int i = 0; i < node.numOfArcs; ++i) {
+			putByte(node.labels[i]);
+			if (i > 0) {
+				putVarint(output);
+			}
+			putVarint(address - node.targets[i]);
+			output += node.targetCounts[i];
+		}
+		register.put(key, address);
+		return address;
+	}
+
+	/**
+	 * Appends a byte to nodeBytes
+	 * @param value the byte
+	 */
+	private void putByte(int value) {
+		if (numOfNodeBytes == nodeBytes.length) {
+			nodeBytes = Arrays.copyOf(nodeBytes, 2 * nodeBytes.length);
+		}
+		nodeBytes[numOfNodeBytes++] = (byte)value;
+	}
+
+	/**
+	 * Appends a number to nodeBytes in Length-precoded Varint compression
+	 * @param number the number, smaller than 2^30
+	 */
+	private void putVarint(int number) {
+		if (number < 64) {
+			putByte(number);
+		}
+		else if (number < 16384) {
+			putByte((number >>> 8) | 0x40);
+			putByte(number);
+		}
+		else if (number < 4194304) {
+			putByte((number >>> 16) | 0x80);
+			putByte(number >>> 8);
+			putByte(number);
+		}
+		else {
+			putByte((number >>> 24) | 0xC0);
+			putByte(number >>> 16);
+			putByte(number >>> 8);
+			putByte(number);
+		}
+	}
+
+	/**
+	 * Writes the transducer to the disc
+	 * @param out a BufferedOutputStream object
+	 * @throws IOException
+	 */
+	public void writeToDisc(BufferedOutputStream out) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(numOfTerms);
+		header.putInt(root);
+		out.write(header.array());
+		out.write(nodeBytes, 0, numOfNodeBytes);
+		out.close();
+	}
+
+	////////////////////////////////////////// read phase ///////////////////////////////////////////////////////////
+
+	/**
+	 * @param position a position in the nodes
+	 * @return the number in Length-precoded Varint compression which starts at position
+	 */
+	private int varintAt(int position) {
+		int first = nodes.get(position) & 0xFF;
+		int value = first & 63;
+		for (int i = 1; i <= (first >> 6); ++i) {
+			value = (value << 8) | (nodes.get(position + i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * @param position a position in the nodes
+	 * @return the number of bytes of the number in Length-precoded Varint compression which starts at position
+	 */
+	private int varintLength(int position) {
+		return ((nodes.get(position) & 0xFF) >> 6) + 1;
+	}
+
+	/**
+	 * @param node a node's address
+	 * @return true iff the node ends a token
+	 */
+	private boolean isFinal(int node) {
+		return (nodes.get(node) & FINAL_FLAG) != 0;
+	}
+
+	/**
+	 * @param node a node's address
+	 * @return the number of the node's arcs
+	 */
+	private int getNumOfArcs(int node) {
+		int numOfArcs = (nodes.get(node) & 0xFF) >> 1;
+		return (numOfArcs < NUM_OF_ARCS_ESCAPE) ? numOfArcs : (nodes.get(node + 1) & 0xFF) + 1;
+	}
+
+	/**
+	 * @param node a node's address
+	 * @return the position of the node's first arc
+	 */
+	private int getFirstArcPosition(int node) {
+		return (((nodes.get(node) & 0xFF) >> 1) < NUM_OF_ARCS_ESCAPE) ? node + 1 : node + 2;
+	}
+
+	/**
+	 * Finds the number of tokens below a node, by following its last arcs down to a node without arcs.
+	 * @param node a node's address
+	 * @return the number of tokens below the node, including the one it ends
+	 */
+	private int getCount(int node) {
+		int count = 0;
+		while (true) {
+			int numOfArcs = getNumOfArcs(node);
+			if (numOfArcs == 0) {
+				return count + (isFinal(node) ? 1 : 0);
+			}
+			int position = getFirstArcPosition(node);
+			int output = isFinal(node) ? 1 : 0;
+			int distance = 0;
+			for (int j = 0; j < numOfArcs; ++j) {
+				++position;
+				if (j > 0) {
+					output = varintAt(position);
+					position += varintLength(position);
+				}
+				distance = varintAt(position);
+				position += varintLength(position);
+			}
+			count += output;
+			node -= distance;
+		}
+	}
+
+	/**
+	 * Finds the ordinal of a token
+	 * @param key the token's bytes
+	 * @param keyLength the number of bytes of the token in key
+	 * @return the token's ordinal, or -1 if it's not in the dictionary
+	 */
+	public int getOrdinal(byte[] key, int keyLength) {
+		if (numOfTerms == 0) {
+			return -1;
+		}
+		int node = root;
+		int ordinal = 0;
+		for (int i = 0; i < keyLength; ++i) {
+			int label = key[i] & 0xFF;
+			int numOfArcs = getNumOfArcs(node);
+			int position = getFirstArcPosition(node);
+			int output = isFinal(node) ? 1 : 0;
+			int target = -1;
+			for (int j = 0; j < numOfArcs; ++j) {
+				int arcLabel = nodes.get(position) & 0xFF;
+				if (arcLabel > label) {
+					break;
+				}
+				++position;
+				if (j > 0) {
+					output = varintAt(position);
+					position += varintLength(position);
+				}
+				int distance = varintAt(position);
+				position += varintLength(position);
+				if (arcLabel == label) {
+					ordinal += output;
+					target = node - distance;
+					break;
+				}
+			}
+			if (target < 0) {
+				return -1;
+			}
+			node = target;
+		}
+		return isFinal(node) ? ordinal : -1;
+	}
+
+	/**
+	 * Finds the number of tokens which are smaller than a key, which is the ordinal of the key if it's in the
+	 * dictionary, and otherwise the ordinal of the first token bigger than it.
+	 * @param key the key's bytes
+	 * @param keyLength the number of bytes of the key
+	 * @return the ordinal of the first token which is not smaller than the key, numOfTerms if there isn't any
+	 */
+	public int lowerBound(byte[] key, int keyLength) {
+		if (numOfTerms == 0) {
+			return 0;
+		}
+		int node = root;
+		int ordinal = 0;
+		for (int i = 0; i < keyLength; ++i) {
+			int label = key[i] & 0xFF;
+			int numOfArcs = getNumOfArcs(node);
+			int position = getFirstArcPosition(node);
+			int output = isFinal(node) ? 1 : 0;
+			int target = -1;
+			for (int j = 0; j < numOfArcs; ++j) {
+				int arcLabel = nodes.get(position) & 0xFF;
+				++position;
+				if (j > 0) {
+					output = varintAt(position);
+					position += varintLength(position);
+				}
+				if (arcLabel > label) {
+					return ordinal + output;
+				}
+				int distance = varintAt(position);
+				position += varintLength(position);
+				if (arcLabel == label) {
+					ordinal += output;
+					target = node - distance;
+					break;
+				}
+			}
+			if (target < 0) {
+				return ordinal + getCount(node);
+			}
+			node = target;
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Decodes the token with the given ordinal
+	 * @param ordinal the token's ordinal, in the range [0, numOfTerms)
+	 * @return the token
+	 */
+	public String getTerm(int ordinal) {
+		byte[] token = new byte[16];
+		int length = 0;
+		int node = root;
+		int remaining = ordinal;
+		while (remaining > 0 || !isFinal(node)) {
+			int numOfArcs = getNumOfArcs(node);
+			int position = getFirstArcPosition(node);
+			int output = isFinal(node) ? 1 : 0;
+			int label = -1;
+			int target = -1;
+			int targetOutput = 0;
+			for (int j = 0; j < numOfArcs; ++j) {
+				int arcLabel = nodes.get(position) & 0xFF;
+				++position;
+				if (j > 0) {
+					output = varintAt(position);
+					position += varintLength(position);
+				}
+				if (output > remaining) {
+					break;
+				}
+				int distance = varintAt(position);
+				position += varintLength(position);
+				label = arcLabel;
+				target = node - distance;
+				targetOutput = output;
+			}
+			if (length == token.length) {
+				token = Arrays.copyOf(token, 2 * length);
+			}
+			token[length++] = (byte)label;
+			remaining -= targetOutput;
+			node = target;
+		}
+		return new String(token, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Finds all the tokens which the automaton accepts, by walking the transducer and the automaton together and
+	 * leaving every path on which the automaton dies.
+	 * @param automaton the automaton
+	 * @return the ordinals of the accepted tokens, sorted
+	 */
+	public int[] intersect(ByteAutomaton automaton) {
+		OrdinalCollector collector = new OrdinalCollector();
+		long start = automaton.getStartState();
+		if (numOfTerms > 0 && start != ByteAutomaton.DEAD_STATE) {
+			intersect(automaton, root, start, 0, collector);
+		}
+		return Arrays.copyOf(collector.ordinals, collector.size);
+	}
+
+	/**
+	 * Finds all the tokens below a node which the automaton accepts
+	 * @param automaton the automaton
+	 * @param node the node's address
+	 * @param state the automaton's state at the node
+	 * @param ordinal the sum of the outputs on the path to the node
+	 * @param collector the receiver of the accepted tokens' ordinals
+	 */
+	private void intersect(ByteAutomaton automaton, int node, long state, int ordinal, OrdinalCollector collector) {
+		if (isFinal(node) && automaton.isAccept(state)) {
+			collector.add(ordinal);
+		}
+		int numOfArcs = getNumOfArcs(node);
+		int position = getFirstArcPosition(node);
+		int output = isFinal(node) ? 1 : 0;
+		for (int j = 0; j < numOfArcs; ++j) {
+			int label = nodes.get(position) & 0xFF;
+			++position;
+			if (j > 0) {
+				output = varintAt(position);
+				position += varintLength(position);
+			}
+			int distance = varintAt(position);
+			position += varintLength(position);
+			long nextState = automaton.step(state, label);
+			if (nextState != ByteAutomaton.DEAD_STATE) {
+				intersect(automaton, node - distance, nextState, ordinal + output, collector);
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package webdata;
+
+/**
+ * A set of token ids (indices in the tokens' dictionary), sorted in increasing order. The tokens matching a prefix
+ * are a contiguous range of the sorted dictionary, so such a set is kept as its bounds only; any other set is kept
+ * as a sorted array of ids.
+ */
+public class TokenIdSet {
+
+	/** The first id of a range set **/
+	private int first;
+
+	/** The ids of an array set, null for a range set **/
+	private int[] ids;
+
+	/** The number of ids in the set **/
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param first the first id of a range set
+	 * @param ids the ids of an array set, null for a range set
+	 * @param size the number of ids in the set
+	 */
+	private TokenIdSet(int first, int[] ids, int size) {
+		this.first = first;
+		this.ids = ids;
+		this.size = size;
+	}
+
+	/**
+	 * @param first the first id in the range
+	 * @param end the id after the last id in the range
+	 * @return the set of the ids in the range [first, end), empty if end isn't bigger than first
+	 */
+	public static TokenIdSet range(int first, int end) {
+		return new TokenIdSet(first, null, Math.max(0, end - first));
+	}
+
+	/**
+	 * @param ids distinct ids, sorted in increasing order
+	 * @param size the number of valid ids in the array
+	 * @return the set of the given ids
+	 */
+	public static TokenIdSet of(int[] ids, int size) {
+		return new TokenIdSet(0, ids, size);
+	}
+
+	/**
+	 * @return the number of ids in the set
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index an index in the range [0, size())
+	 * @return the index-th smallest id in the set
+	 */
+	public int get(int index) {
+		return (ids == null) ? first + index : ids[index];
+	}
+
+	/**
+	 * @return true iff the set is a contiguous range of ids
+	 */
+	public boolean isRange() {
+		return ids == null;
+	}
+}
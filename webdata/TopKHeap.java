@@ -0,0 +1,146 @@
+package webdata;
+
+import java.util.Arrays;
+
+/**
+ * Selects the k (id, score) pairs with the highest scores out of a stream of pairs, in O(n log k) time and without
+ * allocating per pair. The pairs are kept in a min-heap stored in two parallel primitive arrays, so the worst of
+ * the kept pairs is always at the root. A pair is better than another if its score is higher, or if the scores are
+ * equal and its id is lower.
+ */
+public class TopKHeap extends DocumentAtATimeEvaluator.Collector {
+
+	/** the initial capacity of the arrays, they grow up to k as needed **/
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** the maximal number of pairs to keep **/
+	private int k;
+
+	/** the kept ids, in heap order **/
+	private int[] ids;
+
+	/** the kept scores, scores[i] is the score of ids[i] **/
+	private double[] scores;
+
+	/** the number of kept pairs **/
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param k the maximal number of pairs to keep
+	 */
+	public TopKHeap(int k) {
+		this.k = Math.max(k, 0);
+		int capacity = Math.min(this.k, INITIAL_CAPACITY);
+		ids = new int[capacity];
+		scores = new double[capacity];
+		size = 0;
+	}
+
+	@Override
+	public void collect(int id, double score) {
+		if (size < k) {
+			if (size == ids.length) {
+				int capacity = (int)Math.min(k, 2L * ids.length);
+				ids = Arrays.copyOf(ids, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+			}
+			ids[size] = id;
+			scores[size] = score;
+			siftUp(size);
+			++size;
+		}
+		else if (k > 0 && isWorse(ids[0], scores[0], id, score)) {
+			ids[0] = id;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @return true iff k pairs are already kept, so a new pair is kept only if it's better than minScore()
+	 */
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * @return the score of the worst kept pair, negative infinity if no pair is kept
+	 */
+	public double minScore() {
+		return (size == 0) ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Empties the heap and returns the kept ids, sorted from the best pair to the worst
+	 * @return the kept ids
+	 */
+	public int[] getSortedIds() {
+		int[] result = new int[size];
+		for (int i = result.length - 1; i >= 0; --i) {
+			result[i] = ids[0];
+			--size;
+			ids[0] = ids[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		return result;
+	}
+
+	/**
+	 * @return true iff the pair (id1, score1) is worse than the pair (id2, score2)
+	 */
+	private static boolean isWorse(int id1, double score1, int id2, double score2) {
+		int compare = Double.compare(score1, score2);
+		if (compare == 0) {
+			return id1 > id2;
+		}
+		return compare < 0;
+	}
+
+	/**
+	 * Moves the pair at index up the heap until its parent is worse than it
+	 * @param index the pair's index in the arrays
+	 */
+	private void siftUp(int index) {
+		int id = ids[index];
+		double score = scores[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!isWorse(id, score, ids[parent], scores[parent])) {
+				break;
+			}
+			ids[index] = ids[parent];
+			scores[index] = scores[parent];
+			index = parent;
+		}
+		ids[index] = id;
+		scores[index] = score;
+	}
+
+	/**
+	 * Moves the pair at index down the heap until both its children are better than it
+	 * @param index the pair's index in the arrays
+	 */
+	private void siftDown(int index) {
+		int id = ids[index];
+		double score = scores[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && isWorse(ids[child + 1], scores[child + 1], ids[child], scores[child])) {
+				++child;
+			}
+			if (!isWorse(ids[child], scores[child], id, score)) {
+				break;
+			}
+			ids[index] = ids[child];
+			scores[index] = scores[child];
+			index = child;
+		}
+		ids[index] = id;
+		scores[index] = score;
+	}
+}
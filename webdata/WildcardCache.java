@@ -0,0 +1,196 @@
+package webdata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded least-recently-used cache of wildcard expansions: from a normalised pattern to the ids of the tokens
+ * which match it and their summed frequencies. The cache is bounded by the total weight of its entries rather than
+ * by their number - an expansion weighs about as many ints as it holds - so a few huge expansions can't push the
+ * memory up, and an expansion which alone is heavier than a fraction of the bound is never cached.
+ * Its methods are synchronized, since it's shared by all the threads which query a reader.
+ */
+public class WildcardCache {
+
+	/** The default bound of the total weight of the cached expansions (about 4MB of ids) **/
+	public static final long DEFAULT_MAX_WEIGHT = 1 << 20;
+
+	/** The weight of an expansion besides its ids: its key, its map entry and its object headers **/
+	private static final long ENTRY_WEIGHT = 16;
+
+	/** An expansion which is heavier than maxWeight / MAX_ENTRY_FRACTION isn't cached **/
+	private static final long MAX_ENTRY_FRACTION = 8;
+
+	/**
+	 * The tokens matching a pattern, with the sums of their frequencies
+	 */
+	public static class Expansion {
+
+		/** the ids of the matching tokens **/
+		private final TokenIdSet tokenIds;
+
+		/** the sum of the matching tokens' frequencies (the number of reviews containing each) **/
+		private final int frequency;
+
+		/** the sum of the matching tokens' collection frequencies **/
+		private final int collectionFrequency;
+
+		/**
+		 * the number of distinct reviews containing any of the matching tokens, -1 until it's counted. It's counted
+		 * lazily, since it takes a pass over the tokens' posting lists; a race only counts it twice, to the same value
+		 **/
+		private volatile int numOfReviews = -1;
+
+		/**
+		 * Constructor
+		 * @param tokenIds the ids of the matching tokens
+		 * @param frequency the sum of their frequencies
+		 * @param collectionFrequency the sum of their collection frequencies
+		 */
+		public Expansion(TokenIdSet tokenIds, int frequency, int collectionFrequency) {
+			this.tokenIds = tokenIds;
+			this.frequency = frequency;
+			this.collectionFrequency = collectionFrequency;
+		}
+
+		/**
+		 * @return the ids of the matching tokens
+		 */
+		public TokenIdSet getTokenIds() {
+			return tokenIds;
+		}
+
+		/**
+		 * @return the sum of the matching tokens' frequencies
+		 */
+		public int getFrequency() {
+			return frequency;
+		}
+
+		/**
+		 * @return the sum of the matching tokens' collection frequencies
+		 */
+		public int getCollectionFrequency() {
+			return collectionFrequency;
+		}
+
+		/**
+		 * @return the number of distinct reviews containing any of the matching tokens, or -1 if it wasn't counted
+		 */
+		public int getNumOfReviews() {
+			return numOfReviews;
+		}
+
+		/**
+		 * @param numOfReviews the number of distinct reviews containing any of the matching tokens
+		 */
+		public void setNumOfReviews(int numOfReviews) {
+			this.numOfReviews = numOfReviews;
+		}
+
+		/**
+		 * @return the weight of the expansion in the cache, about the number of ints it holds
+		 */
+		long getWeight() {
+			return ENTRY_WEIGHT + (tokenIds.isRange() ? 0 : tokenIds.size());
+		}
+	}
+
+	/** The cached expansions by their normalised patterns, from the least recently used to the most recently used **/
+	private final LinkedHashMap<String, Expansion> expansions = new LinkedHashMap<String, Expansion>(16, 0.75f, true);
+
+	/** The bound of the total weight of the cached expansions **/
+	private final long maxWeight;
+
+	/** The total weight of the cached expansions **/
+	private long weight = 0;
+
+	/** The number of lookups which found their pattern in the cache **/
+	private LongAdder hits = new LongAdder();
+
+	/** The number of lookups which didn't **/
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Constructor
+	 * @param maxWeight the bound of the total weight of the cached expansions, 0 for no caching
+	 */
+	public WildcardCache(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Normalises a wildcard pattern, so the patterns which match the same tokens share an entry: the pattern is lower
+	 * cased, and every run of wildcards is replaced with a single one (they match exactly the same strings).
+	 * @param pattern a word with wildcards
+	 * @return the normalised pattern
+	 */
+	public static String normalise(String pattern) {
+		pattern = pattern.toLowerCase();
+		if (!pattern.contains("**")) {
+			return pattern;
+		}
+		StringBuilder builder = new StringBuilder(pattern.length());
+		for (int i = 0; i < pattern.length(); ++i) {
+			char c = pattern.charAt(i);
+			if (c != '*' || builder.length() == 0 || builder.charAt(builder.length() - 1) != '*') {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @param pattern a normalised pattern
+	 * @return the cached expansion of the pattern, which becomes the most recently used one, or null if it isn't cached
+	 */
+	public synchronized Expansion get(String pattern) {
+		Expansion expansion = expansions.get(pattern);
+		if (expansion == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return expansion;
+	}
+
+	/**
+	 * Caches the expansion of a pattern, and evicts the least recently used expansions until the cache is within its
+	 * bound again. Does nothing if the expansion is too heavy to be cached.
+	 * @param pattern a normalised pattern
+	 * @param expansion its expansion
+	 */
+	public synchronized void put(String pattern, Expansion expansion) {
+		long expansionWeight = expansion.getWeight();
+		if (expansionWeight > maxWeight / MAX_ENTRY_FRACTION) {
+			return;
+		}
+		Expansion previous = expansions.put(pattern, expansion);
+		if (previous != null) {
+			weight -= previous.getWeight();
+		}
+		weight += expansionWeight;
+		Iterator<Map.Entry<String, Expansion>> iterator = expansions.entrySet().iterator();
+		while (weight > maxWeight && iterator.hasNext()) {
+			weight -= iterator.next().getValue().getWeight();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @return the number of lookups which found their pattern in the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups which had to expand their pattern
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+}
@@ -0,0 +1,175 @@
+package webdata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A word with '*' wildcards (each matching any sequence of characters, possibly empty), compiled once so it can be
+ * matched against the UTF-8 bytes of many tokens without building Strings or regular expressions. The pattern is
+ * split by its wildcards into literal segments: the first segment must be a prefix of the token (unless the pattern
+ * starts with a wildcard), the last one must be a suffix (unless it ends with one), and the middle segments are
+ * searched for one after the other, each at its leftmost occurrence after the previous one.
+ * The pattern is also a ByteAutomaton - a bit-parallel (shift-and) simulation of its nondeterministic automaton,
+ * in which bit i of the state is set iff the first i literal bytes were matched - so a term dictionary can intersect
+ * it with its tokens. This works for patterns with at most MAX_AUTOMATON_LENGTH literal bytes.
+ */
+public class WildcardPattern extends ByteAutomaton {
+
+	/** The maximal number of literal bytes of a pattern which can be used as an automaton **/
+	public static final int MAX_AUTOMATON_LENGTH = 62;
+
+	/** The wildcard character **/
+	private static final byte WILDCARD = '*';
+
+	/** The literal bytes of the pattern, without the wildcards **/
+	private byte[] literals;
+
+	/** segmentStarts[i] is the index in literals of the i-th segment's first byte, the last entry is the end **/
+	private int[] segmentStarts;
+
+	/** byteMasks[b] has bit i set iff the i-th literal byte is b **/
+	private long[] byteMasks;
+
+	/** Has bit i set iff a wildcard follows the first i literal bytes **/
+	private long wildcardMask;
+
+	/**
+	 * Compiles a pattern
+	 * @param pattern a word with wildcards
+	 */
+	public WildcardPattern(String pattern) {
+		byte[] bytes = pattern.getBytes(StandardCharsets.UTF_8);
+		literals = new byte[bytes.length];
+		int numOfLiterals = 0;
+		int numOfSegments = 1;
+		for (byte b : bytes) {
+			if (b == WILDCARD) {
+				++numOfSegments;
+			}
+			else {
+				literals[numOfLiterals++] = b;
+			}
+		}
+		segmentStarts = new int[numOfSegments + 1];
+		int segment = 0;
+		numOfLiterals = 0;
+		for (byte b : bytes) {
+			if (b == WILDCARD) {
+				if (numOfLiterals <= MAX_AUTOMATON_LENGTH) {
+					wildcardMask |= 1L << numOfLiterals;
+				}
+				segmentStarts[++segment] = numOfLiterals;
+			}
+			else {
+				++numOfLiterals;
+			}
+		}
+		segmentStarts[numOfSegments] = numOfLiterals;
+
+		byteMasks = new long[256];
+		for (int i = 0; i < Math.min(numOfLiterals, MAX_AUTOMATON_LENGTH); ++i) {
+			byteMasks[literals[i] & 0xFF] |= 1L << i;
+		}
+		literals = Arrays.copyOf(literals, numOfLiterals);
+	}
+
+	/**
+	 * Checks whether a token matches the pattern
+	 * @param token the token's bytes
+	 * @param length the number of bytes of the token
+	 * @return true iff the token matches the pattern
+	 */
+	public boolean matches(byte[] token, int length) {
+		int numOfSegments = segmentStarts.length - 1;
+		if (numOfSegments == 1) {
+			return length == literals.length && regionMatches(token, 0, 0, length);
+		}
+		int firstLength = segmentStarts[1];
+		int lastStart = segmentStarts[numOfSegments - 1];
+		int lastLength = literals.length - lastStart;
+		if (firstLength + lastLength > length || !regionMatches(token, 0, 0, firstLength) ||
+				!regionMatches(token, length - lastLength, lastStart, lastLength)) {
+			return false;
+		}
+		int position = firstLength;
+		int end = length - lastLength;
+		for (int segment = 1; segment < numOfSegments - 1; ++segment) {
+			int start = segmentStarts[segment];
+			int segmentLength = segmentStarts[segment + 1] - start;
+			position = indexOf(token, position, end, start, segmentLength);
+			if (position < 0) {
+				return false;
+			}
+			position += segmentLength;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true iff token[offset, offset + segmentLength) equals literals[start, start + segmentLength)
+	 */
+	private boolean regionMatches(byte[] token, int offset, int start, int segmentLength) {
+		for (int i = 0; i < segmentLength; ++i) {
+			if (token[offset + i] != literals[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the leftmost occurrence of a segment in a range of the token
+	 * @param token the token's bytes
+	 * @param from the start of the range
+	 * @param to the end of the range
+	 * @param start the index in literals of the segment's first byte
+	 * @param segmentLength the segment's length
+	 * @return the index of the occurrence, -1 if there's none
+	 */
+	private int indexOf(byte[] token, int from, int to, int start, int segmentLength) {
+		for (int i = from; i + segmentLength <= to; ++i) {
+			if (regionMatches(token, i, start, segmentLength)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true iff the pattern can be used as a ByteAutomaton
+	 */
+	public boolean isAutomaton() {
+		return literals.length <= MAX_AUTOMATON_LENGTH;
+	}
+
+	/**
+	 * @return true iff the pattern has wildcards, and they are all at its end, so the matching tokens are exactly
+	 * 		   the tokens starting with getPrefix()
+	 */
+	public boolean isPrefix() {
+		return segmentStarts.length > 2 && segmentStarts[1] == literals.length;
+	}
+
+	/**
+	 * @return the pattern's literals before its first wildcard
+	 */
+	public String getPrefix() {
+		return new String(literals, 0, segmentStarts[Math.min(1, segmentStarts.length - 1)],
+				StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public long getStartState() {
+		return 1L;
+	}
+
+	@Override
+	public long step(long state, int label) {
+		return ((state & byteMasks[label]) << 1) | (state & wildcardMask);
+	}
+
+	@Override
+	public boolean isAccept(long state) {
+		return isAutomaton() && (state & (1L << literals.length)) != 0;
+	}
+}
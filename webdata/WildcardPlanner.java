@@ -0,0 +1,477 @@
+package webdata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Answers wildcard queries with whichever of the index's wildcard structures is the cheapest for the query's
+ * pattern. For every pattern, each available strategy is planned: its number of candidate tokens and its cost are
+ * estimated from the sizes of the ranges and lists it would read - which are found with binary searches and pointer
+ * lookups only - and the plan with the lowest cost is executed. The strategies are:
+ * a range of the sorted dictionary (the tokens starting with the pattern's literal prefix), a walk of the dictionary's
+ * transducer with the pattern, a range of the rotated lexicon, an intersection of k-gram lists and an intersection
+ * (or union) of bigram lists.
+ */
+public class WildcardPlanner {
+
+	/** The estimated cost of decoding an entry of a tokens list (per byte) or a row of the rotated lexicon **/
+	private static final long DECODE_COST = 1;
+
+	/** The estimated cost of checking a candidate token against the pattern **/
+	private static final long FILTER_COST = 4;
+
+	/** The estimated cost of visiting a token while walking the dictionary's transducer with the pattern **/
+	private static final long WALK_COST = 1;
+
+	/**
+	 * The wildcard strategies
+	 */
+	enum Strategy {
+		PREFIX_RANGE,
+		TRANSDUCER,
+		ROTATED,
+		K_GRAM,
+		BIGRAM
+	}
+
+	/**
+	 * A strategy planned for a pattern, with what's needed for executing it
+	 */
+	static class Plan {
+
+		/** the plan's strategy **/
+		final Strategy strategy;
+
+		/** the estimated number of candidate tokens (an upper bound), which are checked against the pattern **/
+		long candidates;
+
+		/** the estimated cost of executing the plan **/
+		long cost;
+
+		/** true iff the candidates are exactly the matching tokens, so they aren't checked **/
+		boolean isExact;
+
+		/** the range of a range strategy: of dictionary ids or of rotated lexicon rows **/
+		int from;
+		int to;
+
+		/** the k-gram ids and the bigram ids whose lists are read **/
+		int[] gramIds = new int[0];
+		int[] bigramIds = new int[0];
+
+		/**
+		 * the lists to read: a list's size in the high bits and its index in the low bits (grams first, then
+		 * bigrams), sorted so the rarest list is the first
+		 */
+		long[] lists;
+
+		/** true iff the lists are united rather than intersected **/
+		boolean isUnion;
+
+		/** the searched key, for explaining the plan **/
+		String key = "";
+
+		/**
+		 * Constructor
+		 * @param strategy the plan's strategy
+		 */
+		Plan(Strategy strategy) {
+			this.strategy = strategy;
+		}
+
+		@Override
+		public String toString() {
+			return strategy + " key=\"" + key + "\" candidates=" + candidates + " cost=" + cost +
+					(isExact ? " exact" : "");
+		}
+	}
+
+	/** The dictionary part of the index of the tokens */
+	private Dictionary tokensDict;
+
+	/** The rotated lexicon index part, null if the index has none */
+	private RotatedLexicon rotatedLexicon;
+
+	/** The bigram index part, null if the index has none */
+	private BigramIndex bigramIndex;
+
+	/** Maps the bigram's String to its bigram's index */
+	private final HashMap<String, Integer> bigramDict = new HashMap<String, Integer>();
+
+	/** The k-gram index part, null if the index has none */
+	private KGramIndex kGramIndex;
+
+	/**
+	 * Constructor
+	 * @param tokensDict the dictionary of the tokens
+	 * @param rotatedLexicon the rotated lexicon, or null
+	 * @param bigramIndex the bigram index, or null
+	 * @param kGramIndex the k-gram index, or null
+	 */
+	public WildcardPlanner(Dictionary tokensDict, RotatedLexicon rotatedLexicon, BigramIndex bigramIndex,
+						   KGramIndex kGramIndex) {
+		this.tokensDict = tokensDict;
+		this.rotatedLexicon = rotatedLexicon;
+		this.bigramIndex = bigramIndex;
+		this.kGramIndex = kGramIndex;
+		if (bigramIndex != null) {
+			SharedUtils.createBigramDictionary(bigramDict);
+		}
+	}
+
+	/**
+	 * Returns the ids of the tokens that match a word with wildcards, with the cheapest plan for it
+	 * @param token a word with wildcards
+	 * @return the ids of the tokens that match the word
+	 */
+	public TokenIdSet getMatchingTokens(String token) {
+		WildcardPattern pattern = new WildcardPattern(token);
+		return execute(plan(token, pattern)[0], pattern);
+	}
+
+	/**
+	 * Describes the plans of all the available strategies for a word with wildcards, from the cheapest (the one
+	 * which is executed) to the most expensive.
+	 * @param token a word with wildcards
+	 * @return a line for each plan: its strategy, key, estimated number of candidates and estimated cost
+	 */
+	public String explain(String token) {
+		Plan[] plans = plan(token, new WildcardPattern(token));
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < plans.length; ++i) {
+			builder.append(i == 0 ? "* " : "  ");
+			builder.append(plans[i]);
+			builder.append("\n");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Plans all the available strategies for a pattern
+	 * @param token a word with wildcards
+	 * @param pattern the compiled token
+	 * @return the plans, sorted by their cost
+	 */
+	private Plan[] plan(String token, WildcardPattern pattern) {
+		Plan[] plans = new Plan[Strategy.values().length];
+		int numOfPlans = 0;
+		plans[numOfPlans++] = planPrefixRange(pattern);
+		if (tokensDict.isTransducer() && pattern.isAutomaton()) {
+			Plan plan = new Plan(Strategy.TRANSDUCER);
+			// the walk never leaves the literal prefix's range, and the automaton prunes most of it
+			plan.key = plans[0].key;
+			plan.candidates = plans[0].candidates;
+			plan.cost = plan.candidates * WALK_COST;
+			plan.isExact = true;
+			plans[numOfPlans++] = plan;
+		}
+		if (rotatedLexicon != null) {
+			plans[numOfPlans++] = planRotated(token);
+		}
+		if (kGramIndex != null) {
+			Plan plan = planKGram(token);
+			if (plan != null) {
+				plans[numOfPlans++] = plan;
+			}
+		}
+		if (bigramIndex != null) {
+			plans[numOfPlans++] = planBigram(token);
+		}
+		plans = Arrays.copyOf(plans, numOfPlans);
+		Arrays.sort(plans, new Comparator<Plan>() {
+			@Override
+			public int compare(Plan plan1, Plan plan2) {
+				return Long.compare(plan1.cost, plan2.cost);
+			}
+		});
+		return plans;
+	}
+
+	/**
+	 * Plans the dictionary range of the tokens which start with the pattern's literal prefix. It's exact (and
+	 * free) if the pattern's wildcards are all at its end, otherwise every token of the range is a candidate.
+	 */
+	private Plan planPrefixRange(WildcardPattern pattern) {
+		Plan plan = new Plan(Strategy.PREFIX_RANGE);
+		plan.key = pattern.getPrefix();
+		plan.from = tokensDict.lowerBound(plan.key);
+		plan.to = tokensDict.prefixUpperBound(plan.key);
+		plan.candidates = Math.max(0, plan.to - plan.from);
+		plan.isExact = pattern.isPrefix();
+		plan.cost = plan.isExact ? 0 : plan.candidates * FILTER_COST;
+		return plan;
+	}
+
+	/**
+	 * Plans the rotated lexicon range of the rotations which start with the longest part of the pattern's rotation
+	 * that ends with a wildcard. If that rotation has a single wildcard, at its end, the range is exact.
+	 */
+	private Plan planRotated(String token) {
+		Plan plan = new Plan(Strategy.ROTATED);
+		String newToken = "$" + token;
+		int firstWildcard = newToken.indexOf('*');
+		String rotated = newToken.substring(firstWildcard + 1) + newToken.substring(0, firstWildcard + 1);
+		String[] parts = rotated.split("\\*");
+		for (String part : parts) {
+			if (part.length() > plan.key.length()) {
+				plan.key = part;
+			}
+		}
+		byte[] prefix = plan.key.getBytes(StandardCharsets.UTF_8);
+		plan.from = rotatedLexicon.lowerBound(prefix, prefix.length);
+		plan.to = rotatedLexicon.upperBound(prefix, prefix.length);
+		plan.candidates = Math.max(0, plan.to - plan.from);
+		plan.isExact = rotated.indexOf('*') == rotated.length() - 1;
+		plan.cost = plan.candidates * (DECODE_COST + (plan.isExact ? 0 : FILTER_COST));
+		return plan;
+	}
+
+	/**
+	 * Plans the intersection of the lists of the k-grams of the pattern's parts between the wildcards (padded with
+	 * '$'), and of the bigrams of its parts which are shorter than a gram, if there's a bigram index.
+	 * @return the plan, or null if none of the pattern's parts is as long as a gram
+	 */
+	private Plan planKGram(String token) {
+		Plan plan = new Plan(Strategy.K_GRAM);
+		byte[] padded = ("$" + token + "$").getBytes(StandardCharsets.UTF_8);
+		int gramLength = kGramIndex.getGramLength();
+		int[] gramIds = new int[padded.length];
+		int numOfGrams = 0;
+		int[] bigramIds = new int[padded.length];
+		int numOfBigrams = 0;
+		int partStart = 0;
+		for (int i = 0; i <= padded.length; ++i) {
+			if (i < padded.length && padded[i] != '*') {
+				continue;
+			}
+			if (i - partStart >= gramLength) {
+				for (int j = partStart; j + gramLength <= i; ++j) {
+					gramIds[numOfGrams++] = kGramIndex.getGramId(padded, j);
+				}
+				plan.key += (plan.key.isEmpty() ? "" : "*") + new String(padded, partStart, i - partStart,
+						StandardCharsets.UTF_8);
+			}
+			else if (bigramIndex != null) {
+				for (int j = partStart; j + 2 <= i; ++j) {
+					Integer bigramId = bigramDict.get(new String(padded, j, 2, StandardCharsets.UTF_8));
+					if (bigramId == null) {
+						// a bigram which no token contains
+						return emptyPlan(plan);
+					}
+					bigramIds[numOfBigrams++] = bigramId;
+				}
+			}
+			partStart = i + 1;
+		}
+		if (numOfGrams == 0) {
+			return null;
+		}
+		plan.gramIds = Arrays.copyOf(gramIds, SortedIntArrays.sortDistinct(gramIds, numOfGrams));
+		plan.bigramIds = Arrays.copyOf(bigramIds, SortedIntArrays.sortDistinct(bigramIds, numOfBigrams));
+		return estimateLists(plan);
+	}
+
+	/**
+	 * Plans the intersection of the lists of the pattern's bigrams (padded with '$'), or if it has no bigrams, the
+	 * union of the lists of all the bigrams of its single character.
+	 */
+	private Plan planBigram(String token) {
+		Plan plan = new Plan(Strategy.BIGRAM);
+		String newToken = "$" + token + "$";
+		String[] parts = newToken.split("\\*");
+		boolean noBigram = true;
+		String partToBeCompleted = null;
+		for(String part: parts){
+			if(part.length() >= 2){
+				noBigram = false;
+			}
+			else if(!part.equals("$")){
+				partToBeCompleted = part;
+			}
+		}
+		if(noBigram){
+			if (partToBeCompleted == null) {
+				partToBeCompleted = "$";
+			}
+			parts = new String[2 * SharedUtils.alphaNumericChars.length];
+			int i = 0;
+			for(char c : SharedUtils.alphaNumericChars){
+				parts[i] = c + partToBeCompleted;
+				parts[i + 1] = partToBeCompleted + c;
+				i += 2;
+			}
+		}
+		plan.key = noBigram ? "*" + partToBeCompleted + "*" : newToken;
+		plan.isUnion = noBigram;
+		int[] bigramIds = new int[newToken.length() + parts.length];
+		int numOfBigrams = 0;
+		for (String part : parts) {
+			for (int i = 0; i < part.length() - 1; i++) {
+				Integer bigramId = bigramDict.get(part.substring(i, i + 2));
+				if (bigramId != null) {
+					bigramIds[numOfBigrams++] = bigramId;
+				}
+				else if (!noBigram) {
+					// a bigram which no token contains
+					return emptyPlan(plan);
+				}
+			}
+		}
+		plan.bigramIds = Arrays.copyOf(bigramIds, SortedIntArrays.sortDistinct(bigramIds, numOfBigrams));
+		return estimateLists(plan);
+	}
+
+	/**
+	 * Makes a plan exact and empty, for a pattern which no token can match
+	 * @param plan the plan
+	 * @return the plan
+	 */
+	private Plan emptyPlan(Plan plan) {
+		plan.gramIds = new int[0];
+		plan.bigramIds = new int[0];
+		plan.lists = new long[0];
+		plan.isExact = true;
+		return plan;
+	}
+
+	/**
+	 * Sorts a plan's lists by their sizes, and estimates its cost: all the lists are decoded, and the candidates are
+	 * the shortest list (of an intersection) or all the lists (of a union).
+	 * @param plan the plan, with its gram ids and bigram ids
+	 * @return the plan
+	 */
+	private Plan estimateLists(Plan plan) {
+		int numOfGrams = plan.gramIds.length;
+		plan.lists = new long[numOfGrams + plan.bigramIds.length];
+		long totalSize = 0;
+		for (int i = 0; i < plan.lists.length; ++i) {
+			long size = (i < numOfGrams) ? kGramIndex.getListSize(plan.gramIds[i]) :
+					getBigramListSize(plan.bigramIds[i - numOfGrams]);
+			plan.lists[i] = (size << 32) | i;
+			totalSize += size;
+		}
+		Arrays.sort(plan.lists);
+		if (plan.lists.length > 0) {
+			plan.candidates = plan.isUnion ? totalSize : (plan.lists[0] >>> 32);
+		}
+		plan.cost = totalSize * DECODE_COST + plan.candidates * FILTER_COST;
+		return plan;
+	}
+
+	/**
+	 * @param bigramId a bigram's index
+	 * @return the size in bytes of the bigram's tokens ids list
+	 */
+	private long getBigramListSize(int bigramId) {
+		return bigramIndex.getBigramPointer(bigramId + 1) - bigramIndex.getBigramPointer(bigramId);
+	}
+
+	/**
+	 * Executes a plan
+	 * @param plan the plan
+	 * @param pattern the compiled token
+	 * @return the ids of the tokens that match the pattern
+	 */
+	private TokenIdSet execute(Plan plan, WildcardPattern pattern) {
+		switch (plan.strategy) {
+			case PREFIX_RANGE:
+				if (plan.isExact) {
+					return TokenIdSet.range(plan.from, plan.to);
+				}
+				int[] ids = new int[(int)plan.candidates];
+				for (int i = 0; i < ids.length; ++i) {
+					ids[i] = plan.from + i;
+				}
+				return filterTokens(ids, pattern);
+			case TRANSDUCER:
+				int[] matches = tokensDict.intersect(pattern);
+				return TokenIdSet.of(matches, matches.length);
+			case ROTATED:
+				int[] tokensIndex = getRotatedRangeTokens(plan.from, plan.to);
+				return plan.isExact ? TokenIdSet.of(tokensIndex, tokensIndex.length) :
+						filterTokens(tokensIndex, pattern);
+			default:
+				int[] candidates = plan.isUnion ? uniteLists(plan) : intersectLists(plan);
+				return plan.isExact ? TokenIdSet.of(candidates, candidates.length) :
+						filterTokens(candidates, pattern);
+		}
+	}
+
+	/**
+	 * @param from the first row of a range of the rotated lexicon
+	 * @param to the row after the last row of the range
+	 * @return the sorted distinct ids of the tokens of the range's rotations
+	 */
+	private int[] getRotatedRangeTokens(int from, int to) {
+		int[] tokensIndex = new int[Math.max(0, to - from)];
+		for (int j = from; j < to; ++j) {
+			tokensIndex[j - from] = rotatedLexicon.getTokenIndex(j);
+		}
+		int numOfIds = SortedIntArrays.sortDistinct(tokensIndex, tokensIndex.length);
+		return Arrays.copyOf(tokensIndex, numOfIds);
+	}
+
+	/**
+	 * @param plan a plan of lists
+	 * @param list the index of one of the plan's lists
+	 * @return the sorted tokens ids of the list
+	 */
+	private int[] readList(Plan plan, int list) {
+		if (list < plan.gramIds.length) {
+			return kGramIndex.readTokensList(plan.gramIds[list]);
+		}
+		int bigramId = plan.bigramIds[list - plan.gramIds.length];
+		return bigramIndex.readBigramTokensList(bigramIndex.getBigramPointer(bigramId),
+				(int)getBigramListSize(bigramId));
+	}
+
+	/**
+	 * Intersects a plan's lists from the rarest one (the shortest list) up, and stops as soon as the intersection is
+	 * empty.
+	 * @param plan a plan of lists
+	 * @return the sorted ids of the tokens which are in all the lists
+	 */
+	private int[] intersectLists(Plan plan) {
+		if (plan.lists.length == 0) {
+			return new int[0];
+		}
+		int[] tokensIndex = readList(plan, (int)plan.lists[0]);
+		int numOfIds = tokensIndex.length;
+		for (int i = 1; i < plan.lists.length && numOfIds > 0; ++i) {
+			int[] tokensList = readList(plan, (int)plan.lists[i]);
+			numOfIds = SortedIntArrays.intersect(tokensIndex, numOfIds, tokensList, tokensList.length, tokensIndex);
+		}
+		return Arrays.copyOf(tokensIndex, numOfIds);
+	}
+
+	/**
+	 * @param plan a plan of lists
+	 * @return the sorted ids of the tokens which are in any of the lists
+	 */
+	private int[] uniteLists(Plan plan) {
+		int[][] tokensLists = new int[plan.lists.length][];
+		for (int i = 0; i < tokensLists.length; ++i) {
+			tokensLists[i] = readList(plan, (int)plan.lists[i]);
+		}
+		return SortedIntArrays.unionAll(tokensLists, tokensLists.length);
+	}
+
+	/**
+	 * Doing post-filtering for the tokens ids we got, to make sure they matched the token's pattern. The matching
+	 * ids are kept in place, so they stay sorted.
+	 * @param ids the sorted tokens ids
+	 * @param pattern the compiled token with wildcards
+	 * @return the ids which match the pattern
+	 */
+	private TokenIdSet filterTokens(int[] ids, WildcardPattern pattern) {
+		int numOfMatches = 0;
+		for (int i = 0; i < ids.length; ++i) {
+			if (tokensDict.tokenMatches(ids[i], pattern)) {
+				ids[numOfMatches++] = ids[i];
+			}
+		}
+		return TokenIdSet.of(ids, numOfMatches);
+	}
+}